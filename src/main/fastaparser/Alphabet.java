@@ -0,0 +1,198 @@
+package main.fastaparser;
+
+import java.util.Arrays;
+
+/**
+ * Alphabet beobachtbarer Zeichen mit vorberechneter Nachschlage-Tabelle.
+ * <p>
+ * Bildet ein Zeichen in konstanter Zeit auf seinen Index im Alphabet ab (statt das Alphabet linear zu durchsuchen).
+ * Optional werden Klein- und Grossbuchstaben gleich behandelt. Zeichen ausserhalb des Alphabets liefern {@link #INVALID}.
+ * Die Methoden zum Kodieren ganzer Folgen loesen keine exception aus, sondern liefern die Position des ersten
+ * ungueltigen Zeichens zurueck, bzw. die Laenge der Folge, falls alle Zeichen gueltig sind;
+ * {@link #encodeChecked(CharSequence, int[])} meldet ein ungueltiges Zeichen mit Position als exception.
+ * <p>
+ * Unveraenderlich und damit threadsicher.
+ *
+ * @author Soeren Metje
+ */
+public final class Alphabet {
+
+    /**
+     * Markierung fuer ein Zeichen ausserhalb des Alphabets
+     */
+    public static final int INVALID = -1;
+
+    /**
+     * Groesse der Nachschlage-Tabelle (Zeichen ab diesem Wert sind immer ungueltig)
+     */
+    private static final int TABLE_SIZE = 256;
+
+    /**
+     * Zeichen des Alphabets
+     */
+    private final char[] symbols;
+
+    /**
+     * Index je Zeichen oder {@link #INVALID}
+     */
+    private final byte[] table = new byte[TABLE_SIZE];
+
+    /**
+     * Konstruktor
+     *
+     * @param symbols    Zeichen des Alphabets (Index = Position im Feld)
+     * @param ignoreCase true, falls Klein- und Grossbuchstaben gleich behandelt werden
+     * @throws IllegalArgumentException falls uebergebenes Feld == null, mehr als 127 Zeichen enthaelt,
+     *                                  ein Zeichen nicht in der Tabelle liegt oder doppelt vorkommt
+     */
+    public Alphabet(char[] symbols, boolean ignoreCase) throws IllegalArgumentException {
+        if (symbols == null)
+            throw new IllegalArgumentException("symbols is null");
+        if (symbols.length > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("too many symbols " + symbols.length);
+
+        this.symbols = symbols.clone();
+        Arrays.fill(table, (byte) INVALID);
+        for (int i = 0; i < symbols.length; i++) {
+            char symbol = symbols[i];
+            if (symbol >= TABLE_SIZE)
+                throw new IllegalArgumentException("Character " + symbol + " out of range");
+            if (table[symbol] != INVALID)
+                throw new IllegalArgumentException("Character " + symbol + " occurs twice");
+            table[symbol] = (byte) i;
+        }
+        if (ignoreCase) {
+            for (int i = 0; i < symbols.length; i++) {
+                char lower = Character.toLowerCase(symbols[i]);
+                char upper = Character.toUpperCase(symbols[i]);
+                if (lower < TABLE_SIZE && table[lower] == INVALID)
+                    table[lower] = (byte) i;
+                if (upper < TABLE_SIZE && table[upper] == INVALID)
+                    table[upper] = (byte) i;
+            }
+        }
+    }
+
+    /**
+     * Liefert den Index des Zeichens zurueck
+     *
+     * @param c Zeichen
+     * @return Index oder {@link #INVALID}, falls das Zeichen nicht im Alphabet ist
+     */
+    public int indexOf(final char c) {
+        return c < TABLE_SIZE ? table[c] : INVALID;
+    }
+
+    /**
+     * Liefert den Index des Zeichens zurueck
+     *
+     * @param c Zeichen
+     * @return Index
+     * @throws IllegalArgumentException falls das Zeichen nicht im Alphabet ist
+     */
+    public int index(final char c) throws IllegalArgumentException {
+        int ret = indexOf(c);
+        if (ret == INVALID)
+            throw new IllegalArgumentException("Character " + c + " not found");
+        return ret;
+    }
+
+    /**
+     * Kodiert die Zeichen-Folge in das Feld indices.
+     *
+     * @param chars   Zeichen-Folge
+     * @param indices Feld fuer die Index-Folge (mindestens so lang wie die Zeichen-Folge)
+     * @return Position des ersten ungueltigen Zeichens (indices ist bis dahin beschrieben) oder chars.length(), falls alle gueltig sind
+     */
+    public int encode(final CharSequence chars, final int[] indices) {
+        int length = chars.length();
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            int index = c < TABLE_SIZE ? table[c] : INVALID;
+            if (index == INVALID)
+                return i;
+            indices[i] = index;
+        }
+        return length;
+    }
+
+    /**
+     * Kodiert die Zeichen in das Feld indices.
+     *
+     * @param chars   Zeichen
+     * @param indices Feld fuer die Index-Folge (mindestens so lang wie die Zeichen)
+     * @return Position des ersten ungueltigen Zeichens (indices ist bis dahin beschrieben) oder chars.length, falls alle gueltig sind
+     */
+    public int encode(final char[] chars, final int[] indices) {
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            int index = c < TABLE_SIZE ? table[c] : INVALID;
+            if (index == INVALID)
+                return i;
+            indices[i] = index;
+        }
+        return chars.length;
+    }
+
+    /**
+     * Kodiert length Bytes (Latin-1) ab offset in das Feld indices.
+     *
+     * @param bytes   Bytes
+     * @param offset  Beginn
+     * @param length  Anzahl der Bytes
+     * @param indices Feld fuer die Index-Folge (mindestens length Eintraege)
+     * @return Position (relativ zu offset) des ersten ungueltigen Zeichens oder length, falls alle gueltig sind
+     */
+    public int encode(final byte[] bytes, final int offset, final int length, final int[] indices) {
+        for (int i = 0; i < length; i++) {
+            int index = table[bytes[offset + i] & 0xff];
+            if (index == INVALID)
+                return i;
+            indices[i] = index;
+        }
+        return length;
+    }
+
+    /**
+     * Kodiert die Zeichen-Folge in das Feld indices und meldet ungueltige Zeichen als exception.
+     *
+     * @param chars   Zeichen-Folge
+     * @param indices Feld fuer die Index-Folge (mindestens so lang wie die Zeichen-Folge)
+     * @throws IllegalArgumentException falls ein Zeichen nicht im Alphabet ist
+     */
+    public void encodeChecked(final CharSequence chars, final int[] indices) throws IllegalArgumentException {
+        int encoded = encode(chars, indices);
+        if (encoded < chars.length())
+            throw invalidCharacter(chars.charAt(encoded), encoded);
+    }
+
+    /**
+     * Erstellt die exception fuer ein ungueltiges Zeichen
+     *
+     * @param c        Zeichen
+     * @param position Position in der Folge
+     * @return exception
+     */
+    public static IllegalArgumentException invalidCharacter(final char c, final int position) {
+        return new IllegalArgumentException("Character " + c + " not found (position " + position + ")");
+    }
+
+    /**
+     * Liefert die Anzahl der Zeichen zurueck
+     *
+     * @return Anzahl der Zeichen
+     */
+    public int size() {
+        return symbols.length;
+    }
+
+    /**
+     * Liefert das Zeichen zum Index zurueck
+     *
+     * @param index Index
+     * @return Zeichen
+     */
+    public char symbol(final int index) {
+        return symbols[index];
+    }
+}
@@ -0,0 +1,345 @@
+package main.fastaparser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Liesst eine BGZF-Datei (blockweise gzip, wie von bgzip/samtools erzeugt) und dekomprimiert die Bloecke parallel.
+ * <p>
+ * Die komprimierten Bloecke werden nacheinander gelesen und im {@link ForkJoinPool} dekomprimiert.
+ * Es werden bis zu {@link #readAhead} Bloecke im Voraus dekomprimiert, die Bytes werden in der Reihenfolge der Datei geliefert.
+ * Jeder Block enthaelt hoechstens 64 KB, die Pruefsumme (CRC32) und Laenge jedes Blocks werden geprueft.
+ * <p>
+ * Nicht threadsicher.
+ *
+ * @author Soeren Metje
+ */
+public class BgzfInputStream extends InputStream {
+
+    /**
+     * Anzahl der Bytes, die zum Erkennen des Formats benoetigt werden ({@link #isGzip(byte[], int)}, {@link #isBgzf(byte[], int)})
+     */
+    public static final int HEADER_LENGTH = 18;
+
+    /**
+     * Laenge des festen gzip-Kopfes bis einschliesslich XLEN
+     */
+    private static final int FIXED_HEADER_LENGTH = 12;
+
+    /**
+     * Laenge des gzip-Endes (CRC32 und ISIZE)
+     */
+    private static final int TRAILER_LENGTH = 8;
+
+    /**
+     * Bit fuer zusaetzliche Felder (FEXTRA) im gzip-Kopf
+     */
+    private static final int FLAG_EXTRA = 4;
+
+    /**
+     * maximale Groesse eines dekomprimierten Blocks laut BGZF-Spezifikation
+     */
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    /**
+     * leeres Feld
+     */
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Inflater je Thread
+     */
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    /**
+     * komprimierte Quelle
+     */
+    private final InputStream in;
+
+    /**
+     * Pool fuer die Dekomprimierung
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Anzahl der im Voraus dekomprimierten Bloecke
+     */
+    private final int readAhead;
+
+    /**
+     * Bloecke in der Dekomprimierung in der Reihenfolge der Datei
+     */
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    /**
+     * aktueller dekomprimierter Block
+     */
+    private byte[] current = EMPTY;
+
+    /**
+     * Position im aktuellen Block
+     */
+    private int position;
+
+    /**
+     * true, falls alle komprimierten Bloecke gelesen sind
+     */
+    private boolean sourceFinished;
+
+    /**
+     * Konstruktor, dekomprimiert im {@link ForkJoinPool#commonPool()}
+     *
+     * @param in komprimierte Quelle
+     * @throws IllegalArgumentException falls uebergebene Quelle == null
+     */
+    public BgzfInputStream(InputStream in) throws IllegalArgumentException {
+        this(in, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Konstruktor
+     *
+     * @param in   komprimierte Quelle
+     * @param pool Pool fuer die Dekomprimierung
+     * @throws IllegalArgumentException falls uebergebene Quelle oder Pool == null
+     */
+    public BgzfInputStream(InputStream in, ForkJoinPool pool) throws IllegalArgumentException {
+        if (in == null)
+            throw new IllegalArgumentException("in is null");
+        if (pool == null)
+            throw new IllegalArgumentException("pool is null");
+        this.in = in;
+        this.pool = pool;
+        this.readAhead = 4 * pool.getParallelism();
+    }
+
+    /**
+     * Liefert true zurueck, falls die Bytes mit einem gzip-Kopf beginnen
+     *
+     * @param header erste Bytes der Datei
+     * @param length Anzahl der gelesenen Bytes
+     * @return true, falls gzip
+     */
+    public static boolean isGzip(final byte[] header, final int length) {
+        return length >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b;
+    }
+
+    /**
+     * Liefert true zurueck, falls die Bytes mit einem BGZF-Blockkopf (gzip mit BC-Feld) beginnen
+     *
+     * @param header erste Bytes der Datei (mindestens {@link #HEADER_LENGTH})
+     * @param length Anzahl der gelesenen Bytes
+     * @return true, falls BGZF
+     */
+    public static boolean isBgzf(final byte[] header, final int length) {
+        return length >= HEADER_LENGTH && isGzip(header, length) && (header[3] & FLAG_EXTRA) != 0
+                && blockSize(header, FIXED_HEADER_LENGTH, unsignedShort(header, 10)) > 0;
+    }
+
+    /**
+     * Sucht das BC-Feld in den zusaetzlichen Feldern und liefert die Blockgroesse zurueck
+     *
+     * @param extra  Feld mit den zusaetzlichen Feldern
+     * @param offset Beginn der zusaetzlichen Felder
+     * @param xlen   Laenge der zusaetzlichen Felder
+     * @return Groesse des gesamten Blocks oder -1, falls kein BC-Feld vorhanden
+     */
+    private static int blockSize(final byte[] extra, final int offset, final int xlen) {
+        int k = offset;
+        while (k + 4 <= offset + xlen && k + 4 <= extra.length) {
+            int slen = unsignedShort(extra, k + 2);
+            if (extra[k] == 'B' && extra[k + 1] == 'C' && slen == 2 && k + 6 <= extra.length)
+                return unsignedShort(extra, k + 4) + 1;
+            k += 4 + slen;
+        }
+        return -1;
+    }
+
+    /**
+     * Liesst eine vorzeichenlose 16-Bit-Zahl (little endian)
+     *
+     * @param bytes  Feld
+     * @param offset Position
+     * @return Zahl
+     */
+    private static int unsignedShort(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    /**
+     * Liesst eine 32-Bit-Zahl (little endian)
+     *
+     * @param bytes  Feld
+     * @param offset Position
+     * @return Zahl
+     */
+    private static int int32(final byte[] bytes, final int offset) {
+        return unsignedShort(bytes, offset) | unsignedShort(bytes, offset + 2) << 16;
+    }
+
+    /**
+     * Liesst den naechsten komprimierten Block
+     *
+     * @return Block oder null, falls das Ende der Quelle erreicht ist
+     * @throws IOException falls beim einlesen Fehler auftritt oder der Block nicht dem BGZF-Format entspricht
+     */
+    private byte[] readBlock() throws IOException {
+        byte[] header = new byte[FIXED_HEADER_LENGTH];
+        int n = in.readNBytes(header, 0, FIXED_HEADER_LENGTH);
+        if (n == 0)
+            return null;
+        if (n < FIXED_HEADER_LENGTH)
+            throw new EOFException("truncated BGZF block header");
+        if (!isGzip(header, n) || (header[3] & FLAG_EXTRA) == 0)
+            throw new ZipException("not a BGZF block");
+
+        int xlen = unsignedShort(header, 10);
+        byte[] extra = in.readNBytes(xlen);
+        if (extra.length < xlen)
+            throw new EOFException("truncated BGZF block header");
+        int size = blockSize(extra, 0, xlen);
+        if (size < FIXED_HEADER_LENGTH + xlen + TRAILER_LENGTH)
+            throw new ZipException("missing BGZF block size");
+
+        byte[] block = new byte[size - FIXED_HEADER_LENGTH - xlen]; // deflate data and trailer
+        if (in.readNBytes(block, 0, block.length) < block.length)
+            throw new EOFException("truncated BGZF block");
+        return block;
+    }
+
+    /**
+     * Dekomprimiert einen Block
+     *
+     * @param block deflate-Daten und gzip-Ende
+     * @return dekomprimierte Bytes
+     * @throws IOException falls die Daten fehlerhaft sind
+     */
+    private static byte[] inflate(final byte[] block) throws IOException {
+        int dataLength = block.length - TRAILER_LENGTH;
+        int crc = int32(block, dataLength);
+        int size = int32(block, dataLength + 4);
+        if (size < 0 || size > MAX_BLOCK_SIZE) // checked before allocating, ISIZE comes from the file
+            throw new ZipException("invalid BGZF block size " + (size & 0xffffffffL));
+
+        byte[] ret = new byte[size];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(block, 0, dataLength);
+        try {
+            int inflated = 0;
+            while (inflated < size && !inflater.finished()) {
+                int k = inflater.inflate(ret, inflated, size - inflated);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                inflated += k;
+            }
+            if (inflated != size)
+                throw new ZipException("BGZF block size mismatch");
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+
+        CRC32 check = new CRC32();
+        check.update(ret, 0, size);
+        if ((int) check.getValue() != crc)
+            throw new ZipException("BGZF block CRC mismatch");
+        return ret;
+    }
+
+    /**
+     * Startet die Dekomprimierung weiterer Bloecke und wechselt zum naechsten dekomprimierten Block
+     *
+     * @return false, falls keine weiteren Bytes vorhanden sind
+     * @throws IOException falls beim einlesen oder dekomprimieren Fehler auftritt
+     */
+    private boolean nextBlock() throws IOException {
+        while (!sourceFinished && pending.size() < readAhead) {
+            final byte[] block = readBlock();
+            if (block == null) {
+                sourceFinished = true;
+                break;
+            }
+            pending.add(pool.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return inflate(block);
+                }
+            }));
+        }
+        Future<byte[]> next = pending.poll();
+        if (next == null)
+            return false;
+        try {
+            current = next.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while decompressing", e);
+        }
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (position == current.length) {
+            if (!nextBlock())
+                return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (position == current.length) { // skips empty blocks
+            if (!nextBlock())
+                return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    /**
+     * Bricht die laufende Dekomprimierung ab und schliesst die Quelle
+     *
+     * @throws IOException falls beim schliessen Fehler auftritt
+     */
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        current = EMPTY;
+        position = 0;
+        sourceFinished = true;
+        in.close();
+    }
+}
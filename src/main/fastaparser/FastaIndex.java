@@ -0,0 +1,535 @@
+package main.fastaparser;
+
+import main.logger.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Index einer .fasta Datei fuer wahlfreien Zugriff auf einzelne Eintraege, angelehnt an das .fai Format von samtools.
+ * <p>
+ * Pro Eintrag werden Name, Laenge der Sequenz, Byte-Position der Sequenz, Nukleotide und Bytes pro Zeile
+ * (die ersten fuenf Spalten wie .fai) sowie Byte-Position und Laenge des gesamten Eintrags gespeichert.
+ * Wegen der zusaetzlichen Spalten hat die Index-Datei eine eigene Endung ({@link #SUFFIX}), eine .fai Datei von samtools
+ * wird weder gelesen noch ueberschrieben.
+ * Eintraege werden mit positionsbezogenen Lesezugriffen ({@link FileChannel#read(ByteBuffer, long)}) gelesen,
+ * sodass mehrere Threads gleichzeitig verschiedene Bereiche lesen koennen.
+ * Mit {@link #shardBounds(int)} laesst sich die Datei ohne vorheriges Parsen in Bereiche aufteilen.
+ * <p>
+ * Nur fuer unkomprimierte Dateien.
+ *
+ * @author Soeren Metje
+ */
+public class FastaIndex implements Closeable {
+
+    /**
+     * Endung der Index-Datei
+     */
+    public static final String SUFFIX = ".hmmidx";
+
+    /**
+     * Puffergroesse beim Erstellen des Index
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Anzahl der Eintraege, die der Iterator ({@link #iterator(int, int, boolean)}) mit einem Lesezugriff liesst
+     */
+    public static final int ITERATOR_BLOCK = 64;
+
+    /**
+     * Anzahl der Spalten einer Zeile der Index-Datei
+     */
+    private static final int COLUMN_COUNT = 7;
+
+    /**
+     * Eintrag des Index
+     */
+    public static final class Entry {
+        private final String name;
+        private final long length;
+        private final long sequenceOffset;
+        private final int lineBases;
+        private final int lineWidth;
+        private final long recordOffset;
+        private final long recordLength;
+
+        /**
+         * Konstruktor
+         *
+         * @param name           Name (erstes Wort der Beschreibung)
+         * @param length         Anzahl der Nukleotide
+         * @param sequenceOffset Byte-Position der ersten Sequenz-Zeile
+         * @param lineBases      Nukleotide der ersten Sequenz-Zeile
+         * @param lineWidth      Bytes der ersten Sequenz-Zeile inklusive Zeilenumbruch
+         * @param recordOffset   Byte-Position der Beschreibung (&gt;)
+         * @param recordLength   Bytes des gesamten Eintrags bis einschliesslich der letzten Sequenz-Zeile
+         */
+        Entry(String name, long length, long sequenceOffset, int lineBases, int lineWidth, long recordOffset, long recordLength) {
+            this.name = name;
+            this.length = length;
+            this.sequenceOffset = sequenceOffset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getSequenceOffset() {
+            return sequenceOffset;
+        }
+
+        public int getLineBases() {
+            return lineBases;
+        }
+
+        public int getLineWidth() {
+            return lineWidth;
+        }
+
+        public long getRecordOffset() {
+            return recordOffset;
+        }
+
+        public long getRecordLength() {
+            return recordLength;
+        }
+    }
+
+    /**
+     * Eintraege in der Reihenfolge der Datei
+     */
+    private final List<Entry> entries;
+
+    /**
+     * indizierte Datei
+     */
+    private final FileChannel channel;
+
+    /**
+     * Konstruktor
+     *
+     * @param entries Eintraege
+     * @param channel indizierte Datei
+     */
+    private FastaIndex(List<Entry> entries, FileChannel channel) {
+        this.entries = entries;
+        this.channel = channel;
+    }
+
+    /**
+     * Oeffnet die Datei am uebergebenen Dateipfad mit ihrem Index.
+     * Existiert die Index-Datei (Dateipfad + {@link #SUFFIX}) und ist nicht aelter als die Datei, wird sie geladen.
+     * Ansonsten wird der Index erstellt und gespeichert. Kann die Index-Datei nicht geschrieben werden
+     * (z.B. schreibgeschuetztes Verzeichnis), wird der Index nur im Arbeitsspeicher verwendet.
+     *
+     * @param filePath Dateipfad
+     * @return Index
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim einlesen Fehler auftritt
+     * @throws FastaParserException     falls der Inhalt der Datei nicht dem fasta Format entspricht
+     * @throws IllegalArgumentException falls uebergebener Dateipfad == null oder die Datei komprimiert ist
+     */
+    public static FastaIndex open(String filePath) throws IllegalArgumentException, IOException, FastaParserException {
+        if (filePath == null)
+            throw new IllegalArgumentException("filePath is null");
+
+        Path path = Paths.get(filePath);
+        Path indexPath = Paths.get(filePath + SUFFIX);
+        FileChannel channel = openChannel(path);
+        try {
+            List<Entry> entries;
+            if (Files.exists(indexPath) && Files.getLastModifiedTime(indexPath).compareTo(Files.getLastModifiedTime(path)) >= 0) {
+                entries = readIndex(indexPath);
+            } else {
+                entries = build(channel);
+                try {
+                    writeIndex(entries, indexPath);
+                } catch (IOException e) { // e.g. read-only directory
+                    Log.dLine("index " + indexPath + " not written, kept in memory: " + e);
+                }
+            }
+            return new FastaIndex(entries, channel);
+        } catch (IOException | FastaParserException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Erstellt den Index der Datei am uebergebenen Dateipfad, ohne ihn zu speichern
+     *
+     * @param filePath Dateipfad
+     * @return Index
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim einlesen Fehler auftritt
+     * @throws FastaParserException     falls der Inhalt der Datei nicht dem fasta Format entspricht
+     * @throws IllegalArgumentException falls uebergebener Dateipfad == null oder die Datei komprimiert ist
+     */
+    public static FastaIndex build(String filePath) throws IllegalArgumentException, IOException, FastaParserException {
+        if (filePath == null)
+            throw new IllegalArgumentException("filePath is null");
+
+        FileChannel channel = openChannel(Paths.get(filePath));
+        try {
+            return new FastaIndex(build(channel), channel);
+        } catch (IOException | FastaParserException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Oeffnet die Datei zum Lesen
+     *
+     * @param path Pfad
+     * @return Datei
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim einlesen Fehler auftritt
+     * @throws IllegalArgumentException falls die Datei komprimiert ist
+     */
+    private static FileChannel openChannel(final Path path) throws IllegalArgumentException, IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(path.toString());
+        }
+        ByteBuffer header = ByteBuffer.allocate(BgzfInputStream.HEADER_LENGTH);
+        channel.read(header, 0);
+        if (BgzfInputStream.isGzip(header.array(), header.position())) {
+            channel.close();
+            throw new IllegalArgumentException("compressed file " + path + " cannot be indexed");
+        }
+        return channel;
+    }
+
+    /**
+     * Liesst die Datei einmal zeilenweise und erstellt die Eintraege.
+     * Zeilen werden wie in {@link FastaReader} interpretiert (getrimmt, Leerzeilen uebersprungen).
+     *
+     * @param channel Datei
+     * @return Eintraege
+     * @throws IOException          falls beim einlesen Fehler auftritt
+     * @throws FastaParserException falls der Inhalt der Datei nicht dem fasta Format entspricht
+     */
+    private static List<Entry> build(final FileChannel channel) throws IOException, FastaParserException {
+        List<Entry> ret = new ArrayList<>();
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(0)), BUFFER_SIZE);
+
+        byte[] line = new byte[256];
+        long offset = 0; // byte offset of the current line
+        String name = null;
+        long recordOffset = -1, sequenceOffset = -1, length = 0, recordEnd = -1;
+        int lineBases = 0, lineWidth = 0;
+        while (true) {
+            // read line
+            int lineLength = 0, b;
+            while ((b = in.read()) >= 0 && b != '\n') {
+                if (lineLength == line.length)
+                    line = Arrays.copyOf(line, 2 * line.length);
+                line[lineLength++] = (byte) b;
+            }
+            if (b < 0 && lineLength == 0)
+                break;
+            int width = lineLength + (b < 0 ? 0 : 1);
+
+            // trim as String.trim()
+            int start = 0, end = lineLength;
+            while (start < end && (line[start] & 0xff) <= ' ')
+                start++;
+            while (end > start && (line[end - 1] & 0xff) <= ' ')
+                end--;
+
+            if (start < end) {
+                byte first = line[start];
+                if (first == '>') {
+                    if (name != null) {
+                        if (length == 0)
+                            throw new FastaParserException("Missing sequence! (byte " + offset + ")");
+                        ret.add(new Entry(name, length, sequenceOffset, lineBases, lineWidth, recordOffset, recordEnd - recordOffset));
+                    }
+                    name = name(line, start + 1, end);
+                    recordOffset = offset + start;
+                    length = 0;
+                } else if (first == ';') {
+                    if (name == null || length > 0)
+                        throw new FastaParserException("Comment at wrong position or missing description! (byte " + offset + ")");
+                } else {
+                    if (name == null)
+                        throw new FastaParserException("Missing description! (line starting with >, byte " + offset + ")");
+                    if (length == 0) {
+                        sequenceOffset = offset + start;
+                        lineBases = end - start;
+                        lineWidth = width - start;
+                    }
+                    length += end - start;
+                    recordEnd = offset + width;
+                }
+            }
+            offset += width;
+            if (b < 0)
+                break;
+        }
+        if (name != null && length > 0)
+            ret.add(new Entry(name, length, sequenceOffset, lineBases, lineWidth, recordOffset, recordEnd - recordOffset));
+        return ret;
+    }
+
+    /**
+     * Liefert das erste Wort der Beschreibung zurueck
+     *
+     * @param line  Zeile
+     * @param start Beginn der Beschreibung
+     * @param end   Ende der Beschreibung
+     * @return Name
+     */
+    private static String name(final byte[] line, final int start, final int end) {
+        int k = start;
+        while (k < end && (line[k] & 0xff) > ' ')
+            k++;
+        return new String(line, start, k - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Liesst die Index-Datei
+     *
+     * @param indexPath Pfad der Index-Datei
+     * @return Eintraege
+     * @throws IOException falls beim einlesen Fehler auftritt oder die Index-Datei fehlerhaft ist
+     */
+    private static List<Entry> readIndex(final Path indexPath) throws IOException {
+        List<Entry> ret = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) { // closes reader
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+                String[] columns = line.split("\t");
+                if (columns.length != COLUMN_COUNT)
+                    throw new IOException("invalid index line in " + indexPath + ": " + line);
+                try {
+                    ret.add(new Entry(columns[0], Long.parseLong(columns[1]), Long.parseLong(columns[2]),
+                            Integer.parseInt(columns[3]), Integer.parseInt(columns[4]),
+                            Long.parseLong(columns[5]), Long.parseLong(columns[6])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid index line in " + indexPath + ": " + line, e);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Schreibt die Index-Datei. Geschrieben wird zunaechst eine temporaere Datei im selben Verzeichnis,
+     * die danach umbenannt wird, sodass keine unvollstaendige Index-Datei zurueckbleibt.
+     *
+     * @param entries   Eintraege
+     * @param indexPath Pfad der Index-Datei
+     * @throws IOException falls beim schreiben Fehler auftritt
+     */
+    private static void writeIndex(final List<Entry> entries, final Path indexPath) throws IOException {
+        Path directory = indexPath.toAbsolutePath().getParent();
+        Path tempPath = Files.createTempFile(directory, indexPath.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) { // closes writer
+                for (Entry entry : entries) {
+                    writer.write(entry.name + '\t' + entry.length + '\t' + entry.sequenceOffset + '\t' + entry.lineBases + '\t'
+                            + entry.lineWidth + '\t' + entry.recordOffset + '\t' + entry.recordLength);
+                    writer.newLine();
+                }
+            }
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Liefert die Anzahl der Eintraege zurueck
+     *
+     * @return Anzahl der Eintraege
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Liefert den Index-Eintrag n zurueck
+     *
+     * @param n Nummer des Eintrags
+     * @return Index-Eintrag
+     */
+    public Entry getEntry(final int n) {
+        return entries.get(n);
+    }
+
+    /**
+     * Liefert alle Index-Eintraege zurueck
+     *
+     * @return unveraenderliche Liste der Index-Eintraege
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Liesst den Eintrag n und liefert die Sequenz zurueck
+     *
+     * @param n Nummer des Eintrags
+     * @return Sequenz
+     * @throws IOException          falls beim einlesen Fehler auftritt
+     * @throws FastaParserException falls der Inhalt nicht dem fasta Format entspricht
+     */
+    public Sequence get(final int n) throws IOException, FastaParserException {
+        return get(n, n + 1, false).get(0);
+    }
+
+    /**
+     * Liesst die Eintraege from (inklusive) bis to (exklusive) mit einem Lesezugriff und liefert die Sequenzen zurueck
+     *
+     * @param from   erster Eintrag
+     * @param to     Ende (exklusiv)
+     * @param packed true, falls die Nukleotid-Sequenzen gepackt ({@link PackedNucleotides}) gespeichert werden sollen
+     * @return Sequenzen
+     * @throws IOException              falls beim einlesen Fehler auftritt
+     * @throws FastaParserException     falls der Inhalt nicht dem fasta Format entspricht
+     * @throws IllegalArgumentException falls der Bereich ungueltig oder groesser als 2 GB ist
+     */
+    public List<Sequence> get(final int from, final int to, final boolean packed) throws IllegalArgumentException, IOException, FastaParserException {
+        if (from < 0 || to > entries.size() || from > to)
+            throw new IllegalArgumentException("invalid range " + from + " to " + to);
+        if (from == to)
+            return new ArrayList<>();
+
+        long start = entries.get(from).recordOffset;
+        Entry last = entries.get(to - 1);
+        long size = last.recordOffset + last.recordLength - start;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("range " + from + " to " + to + " larger than 2 GB");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0)
+                throw new EOFException("file shorter than index");
+        }
+
+        List<Sequence> ret = new ArrayList<>(to - from);
+        try (FastaReader reader = new FastaReader(new InputStreamReader(new ByteArrayInputStream(buffer.array())), packed)) { // closes reader
+            Sequence sequence;
+            while ((sequence = reader.read()) != null) {
+                ret.add(sequence);
+            }
+        }
+        if (ret.size() != to - from)
+            throw new IOException("index does not match file");
+        return ret;
+    }
+
+    /**
+     * Liefert einen Iterator, der die Eintraege from (inklusive) bis to (exklusive) in Bloecken von {@link #ITERATOR_BLOCK} Eintraegen liesst.
+     * Damit kann ein Bereich z.B. an {@link main.hmm.profil.viterbi.parallel.ParallelizationSupporter} uebergeben werden,
+     * ohne ihn vorher vollstaendig einzulesen. Fehler werden als {@link UncheckedIOException} bzw. {@link UncheckedFastaParserException} ausgeloesst.
+     *
+     * @param from   erster Eintrag
+     * @param to     Ende (exklusiv)
+     * @param packed true, falls die Nukleotid-Sequenzen gepackt ({@link PackedNucleotides}) gespeichert werden sollen
+     * @return Iterator
+     * @throws IllegalArgumentException falls der Bereich ungueltig ist
+     */
+    public Iterator<Sequence> iterator(final int from, final int to, final boolean packed) throws IllegalArgumentException {
+        if (from < 0 || to > entries.size() || from > to)
+            throw new IllegalArgumentException("invalid range " + from + " to " + to);
+
+        return new Iterator<Sequence>() {
+            private int next = from;
+            private Iterator<Sequence> block = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                return block.hasNext() || next < to;
+            }
+
+            @Override
+            public Sequence next() {
+                if (!block.hasNext()) {
+                    if (next >= to)
+                        throw new NoSuchElementException();
+                    int end = Math.min(to, next + ITERATOR_BLOCK);
+                    try {
+                        block = get(next, end, packed).iterator();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (FastaParserException e) {
+                        throw new UncheckedFastaParserException(e);
+                    }
+                    next = end;
+                }
+                return block.next();
+            }
+        };
+    }
+
+    /**
+     * Teilt die Eintraege in count zusammenhaengende Bereiche mit etwa gleich vielen Bytes.
+     * Bereich k umfasst die Eintraege bounds[k] (inklusive) bis bounds[k + 1] (exklusiv).
+     *
+     * @param count Anzahl der Bereiche
+     * @return aufsteigende Grenzen (count + 1 Eintraege, beginnend mit 0 und endend mit {@link #size()})
+     * @throws IllegalArgumentException falls count &lt; 1
+     */
+    public int[] shardBounds(final int count) throws IllegalArgumentException {
+        if (count < 1)
+            throw new IllegalArgumentException("count < 1");
+
+        int[] ret = new int[count + 1];
+        if (entries.isEmpty())
+            return ret;
+        long first = entries.get(0).recordOffset;
+        Entry lastEntry = entries.get(entries.size() - 1);
+        long total = lastEntry.recordOffset + lastEntry.recordLength - first;
+
+        int n = 0;
+        for (int k = 1; k < count; k++) {
+            long target = first + total * k / count;
+            while (n < entries.size() && entries.get(n).recordOffset < target)
+                n++;
+            ret[k] = n;
+        }
+        ret[count] = entries.size();
+        return ret;
+    }
+
+    /**
+     * Schliesst die indizierte Datei
+     *
+     * @throws IOException falls beim schliessen Fehler auftritt
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
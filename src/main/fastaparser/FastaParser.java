@@ -1,13 +1,16 @@
 package main.fastaparser;
 
-import java.io.*;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Parser fuer das .fasta Dateiformat.
- * Parset die Datei zu einer {@link Sequence}-Liste.
+ * Parset die Datei zu einer {@link Sequence}-Liste oder liefert die Sequenzen waehrend des Einlesens ({@link FastaReader}).
+ * gzip- und BGZF-komprimierte Dateien werden transparent dekomprimiert.
  */
 public class FastaParser {
 
@@ -23,50 +26,51 @@ public class FastaParser {
      * @throws IllegalArgumentException falls uebergebener Dateipfad == null
      */
     public static List<Sequence> parseFile(String filePath) throws IllegalArgumentException, FileNotFoundException, IOException, FastaParserException {
+        return parseFile(filePath, false);
+    }
+
+    /**
+     * Liesst die Datei am uebergebenen Dateipfad ein und parset sie anschliessend.
+     * Liefert eine Liste mit den geparseten {@link Sequence} zurueck.
+     *
+     * @param filePath Dateipfad
+     * @param packed   true, falls die Nukleotid-Sequenzen gepackt ({@link PackedNucleotides}) gespeichert werden sollen
+     * @return Liste mit den geparseten {@link Sequence}
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim einlesen Fehler auftritt
+     * @throws FastaParserException     falls der Inhalt der Datei nicht dem fasta Format entspricht
+     * @throws IllegalArgumentException falls uebergebener Dateipfad == null
+     */
+    public static List<Sequence> parseFile(String filePath, boolean packed) throws IllegalArgumentException, FileNotFoundException, IOException, FastaParserException {
         if (filePath == null)
             throw new IllegalArgumentException("filePath is null");
 
-        File file = new File(filePath);
-
-        List<Sequence> ret = new LinkedList<>();
-
-        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file))) { // closes reader
-            String line;
-            String description = null, comment = null;
-            while ((line = bufferedReader.readLine()) != null) {
-                line = line.trim();
-                char firstChar = line.charAt(0);
+        List<Sequence> ret = new ArrayList<>();
 
-                // Description -----------------------------------------------
-                if (firstChar == '>') {
-                    if (description == null)
-                        description = line.substring(1);
-                    else
-                        throw new FastaParserException("Missing sequence!");
-                }
-                // Comment -----------------------------------------------
-                else if (firstChar == ';') {
-                    if (description == null)
-                        throw new FastaParserException("Comment at wrong position or missing description!");
-                    if (comment == null)
-                        comment = line.substring(1); // create comment
-                    else
-                        comment += '\n' + line.substring(1); // add comment line
-                }
-                // Sequence -----------------------------------------------
-                else {
-                    if (description == null) {
-                        throw new FastaParserException("Missing description! (line starting with >)");
-                    }
-                    ret.add(new Sequence(description, comment, line));
-                    description = null;
-                    comment = null;
-                }
+        try (FastaReader reader = new FastaReader(filePath, packed)) { // closes reader
+            Sequence sequence;
+            while ((sequence = reader.read()) != null) {
+                ret.add(sequence);
             }
         }
 
-        ret = new ArrayList<>(ret);
-
         return ret;
     }
+
+    /**
+     * Oeffnet die Datei am uebergebenen Dateipfad und liefert einen Stream, der die Sequenzen {@link Sequence}
+     * waehrend des Einlesens liefert. Der Stream muss geschlossen werden (try-with-resources), um die Datei zu schliessen.
+     * Fehler beim Einlesen oder Parsen werden als {@link UncheckedIOException} bzw. {@link UncheckedFastaParserException} ausgeloesst.
+     *
+     * @param filePath Dateipfad
+     * @param parallel true, falls der Stream parallel sein soll
+     * @return Stream der Sequenzen
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim Lesen des Dateikopfes Fehler auftritt
+     * @throws IllegalArgumentException falls uebergebener Dateipfad == null
+     * @see FastaReader
+     */
+    public static Stream<Sequence> stream(String filePath, boolean parallel) throws IllegalArgumentException, IOException {
+        return new FastaReader(filePath).stream(parallel);
+    }
 }
@@ -0,0 +1,109 @@
+package main.fastaparser;
+
+import main.argparser.*;
+import main.logger.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Ausfuehrbare Klasse zur Messung des Durchsatzes der fasta Parser.
+ * Bekommt die einzulesende Datei (-file <Path>) und optional die Anzahl der Wiederholungen (-repeat <Anzahl>) uebergeben.
+ * <p>
+ * Die Datei wird abwechselnd mit {@link FastaParser} und {@link MappedFastaParser} eingelesen.
+ * Ausgegeben wird der Durchsatz in GB/s (bezogen auf die Dateigroesse) und die Anzahl der Sequenzen.
+ *
+ * @author Soeren Metje
+ */
+public class FastaParserBenchmark {
+
+    /**
+     * Standard-Anzahl der Wiederholungen
+     */
+    private static final int DEFAULT_REPEAT = 5;
+
+    /**
+     * Zu vergleichende Parser
+     */
+    private enum Parser {
+        READER("FastaParser") {
+            @Override
+            List<Sequence> parse(String filePath) throws IOException, FastaParserException {
+                return FastaParser.parseFile(filePath);
+            }
+        },
+        MAPPED("MappedFastaParser") {
+            @Override
+            List<Sequence> parse(String filePath) throws IOException, FastaParserException {
+                return MappedFastaParser.parseFile(filePath);
+            }
+        };
+
+        private final String name;
+
+        Parser(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Liesst die Datei ein
+         *
+         * @param filePath Dateipfad
+         * @return Liste mit den geparseten {@link Sequence}
+         * @throws IOException          falls beim einlesen Fehler auftritt
+         * @throws FastaParserException falls der Inhalt der Datei nicht dem fasta Format entspricht
+         */
+        abstract List<Sequence> parse(String filePath) throws IOException, FastaParserException;
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Ausfuehrbare Methode
+     *
+     * @param args Argumente
+     */
+    public static void main(String[] args) {
+        ParameterSet parameterSet = new ParameterSet();
+        Setting paramFile = new Setting("file", true);
+        Setting paramRepeat = new Setting("repeat", false);
+        parameterSet.addSetting(paramFile);
+        parameterSet.addSetting(paramRepeat);
+
+        String filePath = null;
+        int repeat = DEFAULT_REPEAT;
+        try {
+            ArgumentParser parser = new ArgumentParser(parameterSet);
+            parser.parseArgs(args);
+            filePath = paramFile.getValue();
+            if (paramRepeat.isSet())
+                repeat = Integer.parseInt(paramRepeat.getValue());
+
+            long fileSize = new File(filePath).length();
+            Log.iLine(String.format("Benchmark fasta parser: %s, %d bytes, %d repetitions", filePath, fileSize, repeat));
+
+            // warm up
+            for (Parser p : Parser.values()) {
+                p.parse(filePath);
+            }
+
+            for (Parser p : Parser.values()) {
+                int count = 0;
+                long nanos = System.nanoTime();
+                for (int r = 0; r < repeat; r++) {
+                    count = p.parse(filePath).size();
+                }
+                nanos = System.nanoTime() - nanos;
+                Log.iLine(String.format("%-18s %8.3f GB/s, %8.3f ms/file, %d sequences",
+                        p, (double) fileSize * repeat / nanos, nanos / 1e6 / repeat, count));
+            }
+        } catch (ArgumentParserException | FastaParserException | IllegalArgumentException | IOException e) {
+            Log.eLine("ERROR: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
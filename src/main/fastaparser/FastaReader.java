@@ -0,0 +1,323 @@
+package main.fastaparser;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Liesst Sequenzen {@link Sequence} im .fasta Dateiformat nacheinander ein, ohne die gesamte Datei im Speicher zu halten.
+ * Eine Sequenz kann ueber mehrere Zeilen umgebrochen sein, Leerzeilen werden uebersprungen.
+ * Dateien duerfen gzip- oder BGZF-komprimiert sein.
+ * <p>
+ * Die Sequenzen koennen mit {@link #read()}, als {@link Iterator}, als {@link Spliterator} oder als {@link Stream} gelesen werden.
+ * Iterator, Spliterator und Stream loesen bei Fehlern {@link UncheckedIOException} bzw. {@link UncheckedFastaParserException} aus.
+ * Der Spliterator teilt sich in Bloecke bereits gelesener Sequenzen auf, sodass ein paralleler Stream
+ * mit der Verarbeitung beginnt, waehrend weiter gelesen wird.
+ * <p>
+ * Nicht threadsicher, der Aufrufer synchronisiert gleichzeitige Zugriffe.
+ *
+ * @author Soeren Metje
+ */
+public class FastaReader implements Iterator<Sequence>, Closeable {
+
+    /**
+     * Puffergroesse beim Lesen von Dateien
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Quelle
+     */
+    private final BufferedReader reader;
+
+    /**
+     * true, falls die Nukleotid-Sequenzen gepackt ({@link PackedNucleotides}) gespeichert werden
+     */
+    private final boolean packed;
+
+    /**
+     * bereits gelesene, noch nicht zurueckgelieferte Sequenz oder null
+     */
+    private Sequence next;
+
+    /**
+     * bereits gelesene Beschreibung der naechsten Sequenz oder null
+     */
+    private String nextDescription;
+
+    /**
+     * Puffer fuer die Sequenz-Zeilen eines Eintrags
+     */
+    private final StringBuilder nucleotides = new StringBuilder();
+
+    /**
+     * Puffer fuer die Kommentar-Zeilen eines Eintrags
+     */
+    private final StringBuilder comment = new StringBuilder();
+
+    /**
+     * true, falls das Ende der Quelle erreicht ist
+     */
+    private boolean finished;
+
+    /**
+     * Konstruktor
+     *
+     * @param reader Quelle
+     * @throws IllegalArgumentException falls uebergebene Quelle == null
+     */
+    public FastaReader(Reader reader) throws IllegalArgumentException {
+        this(reader, false);
+    }
+
+    /**
+     * Konstruktor
+     *
+     * @param reader Quelle
+     * @param packed true, falls die Nukleotid-Sequenzen gepackt ({@link PackedNucleotides}) gespeichert werden sollen
+     * @throws IllegalArgumentException falls uebergebene Quelle == null
+     */
+    public FastaReader(Reader reader, boolean packed) throws IllegalArgumentException {
+        if (reader == null)
+            throw new IllegalArgumentException("reader is null");
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.packed = packed;
+    }
+
+    /**
+     * Konstruktor, oeffnet die Datei am uebergebenen Dateipfad
+     *
+     * @param filePath Dateipfad
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim Lesen des Dateikopfes Fehler auftritt
+     * @throws IllegalArgumentException falls uebergebener Dateipfad == null
+     */
+    public FastaReader(String filePath) throws IllegalArgumentException, IOException {
+        this(openFile(filePath), false);
+    }
+
+    /**
+     * Konstruktor, oeffnet die Datei am uebergebenen Dateipfad
+     *
+     * @param filePath Dateipfad
+     * @param packed   true, falls die Nukleotid-Sequenzen gepackt ({@link PackedNucleotides}) gespeichert werden sollen
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim Lesen des Dateikopfes Fehler auftritt
+     * @throws IllegalArgumentException falls uebergebener Dateipfad == null
+     */
+    public FastaReader(String filePath, boolean packed) throws IllegalArgumentException, IOException {
+        this(openFile(filePath), packed);
+    }
+
+    /**
+     * Oeffnet die Datei am uebergebenen Dateipfad.
+     * gzip-komprimierte Dateien werden am Dateikopf erkannt und beim Lesen dekomprimiert,
+     * BGZF-Dateien (blockweise gzip) parallel mit {@link BgzfInputStream}.
+     *
+     * @param filePath Dateipfad
+     * @return Quelle
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim Lesen des Dateikopfes Fehler auftritt
+     * @throws IllegalArgumentException falls uebergebener Dateipfad == null
+     */
+    private static Reader openFile(String filePath) throws IllegalArgumentException, IOException {
+        if (filePath == null)
+            throw new IllegalArgumentException("filePath is null");
+
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(new File(filePath)), BUFFER_SIZE);
+        try {
+            byte[] header = new byte[BgzfInputStream.HEADER_LENGTH];
+            in.mark(header.length);
+            int length = in.readNBytes(header, 0, header.length);
+            in.reset();
+
+            InputStream source = in;
+            if (BgzfInputStream.isBgzf(header, length))
+                source = new BgzfInputStream(in);
+            else if (BgzfInputStream.isGzip(header, length))
+                source = new GZIPInputStream(in, BUFFER_SIZE);
+            return new InputStreamReader(source);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Liesst die naechste Sequenz ein und liefert sie zurueck.
+     *
+     * @return naechste Sequenz oder null, falls das Ende der Quelle erreicht ist
+     * @throws IOException          falls beim einlesen Fehler auftritt
+     * @throws FastaParserException falls der Inhalt nicht dem fasta Format entspricht
+     */
+    public Sequence read() throws IOException, FastaParserException {
+        if (next != null) {
+            Sequence ret = next;
+            next = null;
+            return ret;
+        }
+        if (finished)
+            return null;
+
+        String line;
+        String description = nextDescription;
+        nextDescription = null;
+        comment.setLength(0);
+        nucleotides.setLength(0);
+        boolean hasComment = false;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) // blank line
+                continue;
+            char firstChar = line.charAt(0);
+
+            // Description -----------------------------------------------
+            if (firstChar == '>') {
+                if (description == null)
+                    description = line.substring(1);
+                else if (nucleotides.length() == 0)
+                    throw new FastaParserException("Missing sequence!");
+                else { // next record begins
+                    nextDescription = line.substring(1);
+                    return createSequence(description, hasComment);
+                }
+            }
+            // Comment -----------------------------------------------
+            else if (firstChar == ';') {
+                if (description == null || nucleotides.length() > 0)
+                    throw new FastaParserException("Comment at wrong position or missing description!");
+                if (hasComment)
+                    comment.append('\n'); // add comment line
+                comment.append(line, 1, line.length());
+                hasComment = true;
+            }
+            // Sequence -----------------------------------------------
+            else {
+                if (description == null) {
+                    throw new FastaParserException("Missing description! (line starting with >)");
+                }
+                nucleotides.append(line); // sequence may span several lines
+            }
+        }
+        finished = true;
+        if (description != null && nucleotides.length() > 0)
+            return createSequence(description, hasComment);
+        return null;
+    }
+
+    /**
+     * Erstellt die Sequenz aus der Beschreibung und den gesammelten Kommentar- und Sequenz-Zeilen
+     *
+     * @param description Beschreibung
+     * @param hasComment  true, falls Kommentar-Zeilen gesammelt wurden
+     * @return Sequenz
+     */
+    private Sequence createSequence(final String description, final boolean hasComment) {
+        String comments = hasComment ? comment.toString() : null;
+        if (packed)
+            return new Sequence(description, comments, PackedNucleotides.pack(nucleotides));
+        return new Sequence(description, comments, nucleotides.toString());
+    }
+
+    /**
+     * Liefert true zurueck, falls eine weitere Sequenz vorhanden ist
+     *
+     * @return true, falls eine weitere Sequenz vorhanden ist
+     * @throws UncheckedIOException          falls beim einlesen Fehler auftritt
+     * @throws UncheckedFastaParserException falls der Inhalt nicht dem fasta Format entspricht
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null)
+            next = readUnchecked();
+        return next != null;
+    }
+
+    /**
+     * Liefert die naechste Sequenz zurueck
+     *
+     * @return naechste Sequenz
+     * @throws NoSuchElementException        falls keine weitere Sequenz vorhanden ist
+     * @throws UncheckedIOException          falls beim einlesen Fehler auftritt
+     * @throws UncheckedFastaParserException falls der Inhalt nicht dem fasta Format entspricht
+     */
+    @Override
+    public Sequence next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Sequence ret = next;
+        next = null;
+        return ret;
+    }
+
+    /**
+     * Liesst die naechste Sequenz ein und loesst bei Fehlern ungepruefte exceptions aus
+     *
+     * @return naechste Sequenz oder null
+     */
+    private Sequence readUnchecked() {
+        try {
+            return read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (FastaParserException e) {
+            throw new UncheckedFastaParserException(e);
+        }
+    }
+
+    /**
+     * Liefert einen Spliterator ueber die restlichen Sequenzen zurueck.
+     * Beim Aufteilen werden bereits gelesene Sequenzen in Bloecken abgegeben.
+     *
+     * @return Spliterator
+     */
+    public Spliterator<Sequence> spliterator() {
+        return new Spliterators.AbstractSpliterator<Sequence>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Sequence> action) {
+                if (!hasNext())
+                    return false;
+                action.accept(next());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Liefert einen Stream ueber die restlichen Sequenzen zurueck. Beim Schliessen des Streams wird die Quelle geschlossen.
+     *
+     * @param parallel true, falls der Stream parallel sein soll
+     * @return Stream
+     */
+    public Stream<Sequence> stream(boolean parallel) {
+        return StreamSupport.stream(spliterator(), parallel).onClose(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Schliesst die Quelle
+     *
+     * @throws IOException falls beim schliessen Fehler auftritt
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        next = null;
+        nextDescription = null;
+        reader.close();
+    }
+}
@@ -0,0 +1,369 @@
+package main.fastaparser;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parser fuer das .fasta Dateiformat, der die Datei in den Speicher abbildet ({@link FileChannel#map}) und direkt aus den Bytes parset.
+ * <p>
+ * Die Datei wird in Abschnitte von etwa {@link #CHUNK_SIZE} Bytes geteilt, die jeweils an einem Zeilenanfang mit &gt; beginnen.
+ * Jeder Abschnitt wird einzeln abgebildet (Abbildungen sind auf 2 GB begrenzt) und parallel geparset.
+ * gzip- oder BGZF-komprimierte Dateien koennen nicht abgebildet werden und werden mit {@link FastaParser} eingelesen.
+ * Die Zeilen werden wie in {@link FastaReader} interpretiert: Sequenzen koennen ueber mehrere Zeilen umgebrochen sein, Leerzeilen werden uebersprungen.
+ *
+ * @author Soeren Metje
+ */
+public class MappedFastaParser {
+
+    /**
+     * angestrebte Groesse eines Abschnitts in Bytes
+     */
+    public static final int CHUNK_SIZE = 1 << 24;
+
+    /**
+     * Groesse des Fensters, in dem nach dem Beginn eines Abschnitts gesucht wird
+     */
+    private static final int SCAN_WINDOW = 1 << 20;
+
+    /**
+     * maximale Groesse einer Abbildung
+     */
+    private static final long MAX_MAPPING = Integer.MAX_VALUE;
+
+    /**
+     * Liesst die Datei am uebergebenen Dateipfad parallel im {@link ForkJoinPool#commonPool()} ein.
+     * Liefert eine Liste mit den geparseten {@link Sequence} in der Reihenfolge der Datei zurueck.
+     *
+     * @param filePath Dateipfad
+     * @return Liste mit den geparseten {@link Sequence}
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim einlesen Fehler auftritt
+     * @throws FastaParserException     falls der Inhalt der Datei nicht dem fasta Format entspricht
+     * @throws IllegalArgumentException falls uebergebener Dateipfad == null oder ein Eintrag groesser als 2 GB ist
+     */
+    public static List<Sequence> parseFile(String filePath) throws IllegalArgumentException, IOException, FastaParserException {
+        return parseFile(filePath, ForkJoinPool.commonPool(), false);
+    }
+
+    /**
+     * Liesst die Datei am uebergebenen Dateipfad parallel im {@link ForkJoinPool#commonPool()} ein.
+     * Liefert eine Liste mit den geparseten {@link Sequence} in der Reihenfolge der Datei zurueck.
+     *
+     * @param filePath Dateipfad
+     * @param packed   true, falls die Nukleotid-Sequenzen gepackt ({@link PackedNucleotides}) gespeichert werden sollen
+     * @return Liste mit den geparseten {@link Sequence}
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim einlesen Fehler auftritt
+     * @throws FastaParserException     falls der Inhalt der Datei nicht dem fasta Format entspricht
+     * @throws IllegalArgumentException falls uebergebener Dateipfad == null oder ein Eintrag groesser als 2 GB ist
+     */
+    public static List<Sequence> parseFile(String filePath, boolean packed) throws IllegalArgumentException, IOException, FastaParserException {
+        return parseFile(filePath, ForkJoinPool.commonPool(), packed);
+    }
+
+    /**
+     * Liesst die Datei am uebergebenen Dateipfad parallel im uebergebenen Pool ein.
+     * Liefert eine Liste mit den geparseten {@link Sequence} in der Reihenfolge der Datei zurueck.
+     *
+     * @param filePath Dateipfad
+     * @param pool     Pool, in dem die Abschnitte geparset werden
+     * @param packed   true, falls die Nukleotid-Sequenzen gepackt ({@link PackedNucleotides}) gespeichert werden sollen
+     * @return Liste mit den geparseten {@link Sequence}
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim einlesen Fehler auftritt
+     * @throws FastaParserException     falls der Inhalt der Datei nicht dem fasta Format entspricht
+     * @throws IllegalArgumentException falls uebergebener Dateipfad == null oder ein Eintrag groesser als 2 GB ist
+     */
+    public static List<Sequence> parseFile(String filePath, ForkJoinPool pool, boolean packed) throws IllegalArgumentException, IOException, FastaParserException {
+        return parseFile(filePath, pool, packed, CHUNK_SIZE);
+    }
+
+    /**
+     * Liesst die Datei am uebergebenen Dateipfad parallel im uebergebenen Pool in Abschnitten der uebergebenen Groesse ein.
+     * Liefert eine Liste mit den geparseten {@link Sequence} in der Reihenfolge der Datei zurueck.
+     *
+     * @param filePath  Dateipfad
+     * @param pool      Pool, in dem die Abschnitte geparset werden
+     * @param packed    true, falls die Nukleotid-Sequenzen gepackt ({@link PackedNucleotides}) gespeichert werden sollen
+     * @param chunkSize angestrebte Groesse eines Abschnitts in Bytes
+     * @return Liste mit den geparseten {@link Sequence}
+     * @throws FileNotFoundException    falls Dateipfad ungueltig
+     * @throws IOException              falls beim einlesen Fehler auftritt
+     * @throws FastaParserException     falls der Inhalt der Datei nicht dem fasta Format entspricht
+     * @throws IllegalArgumentException falls uebergebener Dateipfad oder Pool == null, chunkSize &lt; 1 oder ein Eintrag groesser als 2 GB ist
+     */
+    public static List<Sequence> parseFile(String filePath, ForkJoinPool pool, boolean packed, int chunkSize) throws IllegalArgumentException, IOException, FastaParserException {
+        if (filePath == null)
+            throw new IllegalArgumentException("filePath is null");
+        if (pool == null)
+            throw new IllegalArgumentException("pool is null");
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize < 1");
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(filePath);
+        }
+
+        try (channel) { // closes channel
+            ByteBuffer header = ByteBuffer.allocate(BgzfInputStream.HEADER_LENGTH);
+            channel.read(header, 0);
+            if (BgzfInputStream.isGzip(header.array(), header.position())) // compressed files are read by the streaming parser
+                return FastaParser.parseFile(filePath, packed);
+
+            long[] bounds = chunkBounds(channel, chunkSize);
+            List<ChunkTask> tasks = new ArrayList<>(bounds.length - 1);
+            for (int k = 0; k + 1 < bounds.length; k++) {
+                tasks.add(new ChunkTask(channel, bounds[k], bounds[k + 1], k + 2 == bounds.length, packed));
+            }
+
+            List<Sequence> ret = new ArrayList<>();
+            try {
+                for (ChunkTask task : tasks) {
+                    pool.execute(task);
+                }
+                for (ChunkTask task : tasks) {
+                    ret.addAll(task.get());
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedFastaParserException)
+                    throw ((UncheckedFastaParserException) cause).getCause();
+                if (cause instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) cause).getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw new IOException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while parsing " + filePath, e);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Bestimmt die Grenzen der Abschnitte. Jeder Abschnitt ausser dem ersten beginnt mit &gt; am Anfang einer Zeile.
+     *
+     * @param channel   Datei
+     * @param chunkSize angestrebte Groesse eines Abschnitts in Bytes
+     * @return aufsteigende Grenzen, beginnend mit 0 und endend mit der Groesse der Datei
+     * @throws IOException falls beim einlesen Fehler auftritt
+     */
+    private static long[] chunkBounds(final FileChannel channel, final int chunkSize) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long position = chunkSize;
+        while (position < size) {
+            long start = nextRecord(channel, position, size);
+            if (start >= size)
+                break;
+            if (start - bounds.get(bounds.size() - 1) > MAX_MAPPING)
+                throw new IllegalArgumentException("record at byte " + bounds.get(bounds.size() - 1) + " larger than 2 GB");
+            bounds.add(start);
+            position = start + chunkSize;
+        }
+        if (size - bounds.get(bounds.size() - 1) > MAX_MAPPING)
+            throw new IllegalArgumentException("record at byte " + bounds.get(bounds.size() - 1) + " larger than 2 GB");
+        bounds.add(size);
+
+        long[] ret = new long[bounds.size()];
+        for (int k = 0; k < ret.length; k++) {
+            ret[k] = bounds.get(k);
+        }
+        return ret;
+    }
+
+    /**
+     * Liefert die Position des naechsten &gt; am Anfang einer Zeile ab position zurueck
+     *
+     * @param channel  Datei
+     * @param position Start der Suche (groesser 0)
+     * @param size     Groesse der Datei
+     * @return Position oder size, falls keine weitere Beschreibung existiert
+     * @throws IOException falls beim einlesen Fehler auftritt
+     */
+    private static long nextRecord(final FileChannel channel, final long position, final long size) throws IOException {
+        long windowStart = position - 1; // includes the byte before position
+        while (windowStart < size) {
+            int windowSize = (int) Math.min(SCAN_WINDOW, size - windowStart);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            for (int k = 1; k < windowSize; k++) {
+                if (window.get(k) == '>' && window.get(k - 1) == '\n')
+                    return windowStart + k;
+            }
+            windowStart += windowSize - 1; // overlap by one byte for the line break
+            if (windowSize == 1)
+                break;
+        }
+        return size;
+    }
+
+    /**
+     * Parset einen Abschnitt der Datei
+     */
+    private static class ChunkTask extends RecursiveTask<List<Sequence>> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final boolean last;
+        private final boolean packed;
+
+        /**
+         * Konstruktor
+         *
+         * @param channel Datei
+         * @param start   Beginn des Abschnitts
+         * @param end     Ende des Abschnitts (exklusiv)
+         * @param last    true, falls es der letzte Abschnitt der Datei ist
+         * @param packed  true, falls die Nukleotid-Sequenzen gepackt gespeichert werden
+         */
+        ChunkTask(FileChannel channel, long start, long end, boolean last, boolean packed) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.last = last;
+            this.packed = packed;
+        }
+
+        @Override
+        protected List<Sequence> compute() {
+            try {
+                return parseChunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start, last, packed);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (FastaParserException e) {
+                throw new UncheckedFastaParserException(e);
+            }
+        }
+    }
+
+    /**
+     * Parset die Eintraege eines abgebildeten Abschnitts.
+     * Die Sequenz-Zeilen eines Eintrags werden in einem wachsenden Byte-Puffer gesammelt.
+     *
+     * @param buffer Abschnitt
+     * @param offset Position des Abschnitts in der Datei (fuer Fehlermeldungen)
+     * @param last   true, falls es der letzte Abschnitt der Datei ist
+     * @param packed true, falls die Nukleotid-Sequenzen gepackt gespeichert werden
+     * @return Liste mit den geparseten {@link Sequence}
+     * @throws FastaParserException falls der Inhalt nicht dem fasta Format entspricht
+     */
+    private static List<Sequence> parseChunk(final MappedByteBuffer buffer, final long offset, final boolean last, final boolean packed) throws FastaParserException {
+        List<Sequence> ret = new ArrayList<>();
+        int limit = buffer.limit();
+        byte[] nucleotides = new byte[1024];
+        int nucleotidesLength = 0;
+        String description = null;
+        StringBuilder comment = new StringBuilder();
+        boolean hasComment = false;
+
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n')
+                lineEnd++;
+            int next = lineEnd + 1;
+
+            // trim as String.trim()
+            while (lineStart < lineEnd && (buffer.get(lineStart) & 0xff) <= ' ')
+                lineStart++;
+            while (lineEnd > lineStart && (buffer.get(lineEnd - 1) & 0xff) <= ' ')
+                lineEnd--;
+            int length = lineEnd - lineStart;
+            if (length == 0) { // blank line
+                lineStart = next;
+                continue;
+            }
+            byte firstByte = buffer.get(lineStart);
+
+            // Description -----------------------------------------------
+            if (firstByte == '>') {
+                if (description != null) {
+                    if (nucleotidesLength == 0)
+                        throw new FastaParserException("Missing sequence! (byte " + (offset + lineStart) + ")");
+                    ret.add(sequence(description, hasComment ? comment.toString() : null, nucleotides, nucleotidesLength, packed));
+                    nucleotidesLength = 0;
+                    comment.setLength(0);
+                    hasComment = false;
+                }
+                description = string(buffer, lineStart + 1, length - 1);
+            }
+            // Comment -----------------------------------------------
+            else if (firstByte == ';') {
+                if (description == null || nucleotidesLength > 0)
+                    throw new FastaParserException("Comment at wrong position or missing description! (byte " + (offset + lineStart) + ")");
+                if (hasComment)
+                    comment.append('\n'); // add comment line
+                comment.append(string(buffer, lineStart + 1, length - 1));
+                hasComment = true;
+            }
+            // Sequence -----------------------------------------------
+            else {
+                if (description == null)
+                    throw new FastaParserException("Missing description! (line starting with >, byte " + (offset + lineStart) + ")");
+                if (nucleotides.length - nucleotidesLength < length)
+                    nucleotides = Arrays.copyOf(nucleotides, Math.max(nucleotidesLength + length, 2 * nucleotides.length));
+                buffer.get(lineStart, nucleotides, nucleotidesLength, length); // sequence may span several lines
+                nucleotidesLength += length;
+            }
+            lineStart = next;
+        }
+        if (description != null) {
+            if (nucleotidesLength > 0)
+                ret.add(sequence(description, hasComment ? comment.toString() : null, nucleotides, nucleotidesLength, packed));
+            else if (!last) // the next chunk starts with a description
+                throw new FastaParserException("Missing sequence! (byte " + (offset + limit) + ")");
+        }
+        return ret;
+    }
+
+    /**
+     * Erstellt eine Sequenz aus den gesammelten Sequenz-Zeilen
+     *
+     * @param description Beschreibung
+     * @param comment     Kommentar
+     * @param nucleotides Puffer der Sequenz-Zeilen
+     * @param length      Anzahl der Bytes im Puffer
+     * @param packed      true, falls die Nukleotid-Sequenz gepackt gespeichert wird
+     * @return Sequenz
+     */
+    private static Sequence sequence(final String description, final String comment, final byte[] nucleotides, final int length, final boolean packed) {
+        if (packed)
+            return new Sequence(description, comment, PackedNucleotides.pack(nucleotides, 0, length));
+        return new Sequence(description, comment, new String(nucleotides, 0, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Dekodiert length Bytes ab position als UTF-8
+     *
+     * @param buffer   Abschnitt
+     * @param position Beginn
+     * @param length   Anzahl der Bytes
+     * @return String
+     */
+    private static String string(final MappedByteBuffer buffer, final int position, final int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,296 @@
+package main.fastaparser;
+
+import java.util.Arrays;
+
+/**
+ * Kompakt gespeicherte Nukleotid-Sequenz.
+ * <p>
+ * Die Nukleotide {@link #NUCLEOTIDES} werden mit 2 Bit pro Position in einem long-Feld gespeichert (32 Positionen pro long).
+ * Kleingeschriebene Nukleotide (z.B. maskierte Bereiche) werden ebenso gespeichert und zusaetzlich mit 1 Bit pro Position markiert,
+ * die Markierung wird erst beim ersten Kleinbuchstaben angelegt.
+ * Alle anderen Zeichen (z.B. Gaps oder Mehrdeutigkeits-Codes wie N) stehen in einer nach Position sortierten Ausnahme-Liste.
+ * Fuer eine reine A/C/G/U-Sequenz wird damit etwa ein Viertel des Speichers einer Latin-1 {@link String} benoetigt.
+ * <p>
+ * Unveraenderlich und damit threadsicher.
+ *
+ * @author Soeren Metje
+ */
+public final class PackedNucleotides implements CharSequence {
+
+    /**
+     * Nukleotide, die mit 2 Bit gespeichert werden. Der Index ist der gespeicherte Code.
+     */
+    public static final char[] NUCLEOTIDES = {'A', 'C', 'G', 'U'};
+
+    /**
+     * Bits pro Position
+     */
+    private static final int BITS = 2;
+
+    /**
+     * Positionen pro long
+     */
+    private static final int PER_WORD = Long.SIZE / BITS;
+
+    /**
+     * Code pro Zeichen (Gross- und Kleinschreibung wird gleich behandelt, Kleinbuchstaben werden in {@link #lowerCase} markiert)
+     */
+    private static final Alphabet CODES = new Alphabet(NUCLEOTIDES, true);
+
+    /**
+     * leeres Feld fuer Sequenzen ohne Ausnahmen
+     */
+    private static final int[] NO_POSITIONS = new int[0];
+
+    /**
+     * leeres Feld fuer Sequenzen ohne Ausnahmen
+     */
+    private static final char[] NO_CHARS = new char[0];
+
+    /**
+     * gepackte Codes
+     */
+    private final long[] words;
+
+    /**
+     * Laenge der Sequenz
+     */
+    private final int length;
+
+    /**
+     * 1 Bit pro Position, gesetzt fuer kleingeschriebene Nukleotide, oder null, falls es keine gibt
+     */
+    private final long[] lowerCase;
+
+    /**
+     * aufsteigende Positionen der Ausnahmen
+     */
+    private final int[] exceptionPositions;
+
+    /**
+     * Zeichen der Ausnahmen
+     */
+    private final char[] exceptionChars;
+
+    /**
+     * Konstruktor
+     *
+     * @param words              gepackte Codes
+     * @param length             Laenge der Sequenz
+     * @param lowerCase          Markierung der Kleinbuchstaben oder null
+     * @param exceptionPositions aufsteigende Positionen der Ausnahmen
+     * @param exceptionChars     Zeichen der Ausnahmen
+     */
+    private PackedNucleotides(long[] words, int length, long[] lowerCase, int[] exceptionPositions, char[] exceptionChars) {
+        this.words = words;
+        this.length = length;
+        this.lowerCase = lowerCase;
+        this.exceptionPositions = exceptionPositions;
+        this.exceptionChars = exceptionChars;
+    }
+
+    /**
+     * Packt die uebergebene Zeichen-Folge
+     *
+     * @param nucleotides Zeichen-Folge
+     * @return gepackte Sequenz
+     * @throws IllegalArgumentException falls uebergebene Zeichen-Folge == null
+     */
+    public static PackedNucleotides pack(final CharSequence nucleotides) throws IllegalArgumentException {
+        if (nucleotides == null)
+            throw new IllegalArgumentException("nucleotides is null");
+
+        Packer packer = new Packer(nucleotides.length());
+        for (int i = 0; i < packer.length; i++) {
+            packer.add(i, nucleotides.charAt(i));
+        }
+        return packer.build();
+    }
+
+    /**
+     * Packt length Bytes (Latin-1) ab offset
+     *
+     * @param bytes  Bytes
+     * @param offset Beginn
+     * @param length Anzahl der Bytes
+     * @return gepackte Sequenz
+     */
+    static PackedNucleotides pack(final byte[] bytes, final int offset, final int length) {
+        Packer packer = new Packer(length);
+        for (int i = 0; i < length; i++) {
+            packer.add(i, (char) (bytes[offset + i] & 0xff));
+        }
+        return packer.build();
+    }
+
+    /**
+     * Sammelt Codes, Kleinbuchstaben und Ausnahmen beim Packen einer Sequenz
+     */
+    private static final class Packer {
+        private final int length;
+        private final long[] words;
+        private long[] lowerCase;
+        private int[] positions = NO_POSITIONS;
+        private char[] chars = NO_CHARS;
+        private int exceptionCount;
+
+        Packer(int length) {
+            this.length = length;
+            this.words = new long[(length + PER_WORD - 1) / PER_WORD];
+        }
+
+        /**
+         * Fuegt das Zeichen an Position i hinzu
+         *
+         * @param i Position
+         * @param c Zeichen
+         */
+        void add(final int i, final char c) {
+            int code = CODES.indexOf(c);
+            if (code != Alphabet.INVALID) {
+                words[i / PER_WORD] |= (long) code << (i % PER_WORD * BITS);
+                if (c != NUCLEOTIDES[code]) { // lower case
+                    if (lowerCase == null)
+                        lowerCase = new long[(length + Long.SIZE - 1) / Long.SIZE];
+                    lowerCase[i / Long.SIZE] |= 1L << i;
+                }
+            } else {
+                if (exceptionCount == positions.length) {
+                    positions = Arrays.copyOf(positions, Math.max(8, 2 * exceptionCount));
+                    chars = Arrays.copyOf(chars, positions.length);
+                }
+                positions[exceptionCount] = i;
+                chars[exceptionCount] = c;
+                exceptionCount++;
+            }
+        }
+
+        /**
+         * Erstellt die gepackte Sequenz
+         *
+         * @return gepackte Sequenz
+         */
+        PackedNucleotides build() {
+            return new PackedNucleotides(words, length, lowerCase,
+                    exceptionCount == 0 ? NO_POSITIONS : Arrays.copyOf(positions, exceptionCount),
+                    exceptionCount == 0 ? NO_CHARS : Arrays.copyOf(chars, exceptionCount));
+        }
+    }
+
+    /**
+     * Liefert den gespeicherten Code an Position index zurueck (ohne Beachtung der Ausnahmen)
+     *
+     * @param index Position
+     * @return Code (Index in {@link #NUCLEOTIDES})
+     */
+    private int code(final int index) {
+        return (int) (words[index / PER_WORD] >>> (index % PER_WORD * BITS)) & 3;
+    }
+
+    /**
+     * Liefert zurueck, ob das Nukleotid an Position index kleingeschrieben ist (ohne Beachtung der Ausnahmen)
+     *
+     * @param index Position
+     * @return true, falls kleingeschrieben
+     */
+    private boolean isLowerCase(final int index) {
+        return lowerCase != null && (lowerCase[index / Long.SIZE] & 1L << index) != 0;
+    }
+
+    /**
+     * Liefert das Nukleotid zum Code in der gespeicherten Schreibweise zurueck
+     *
+     * @param index Position
+     * @return Zeichen (ohne Beachtung der Ausnahmen)
+     */
+    private char nucleotide(final int index) {
+        char c = NUCLEOTIDES[code(index)];
+        return isLowerCase(index) ? Character.toLowerCase(c) : c;
+    }
+
+    /**
+     * Schreibt die Indizes der Zeichen im uebergebenen Alphabet in das Feld indices.
+     * Die Nukleotide werden ueber eine Tabelle je Code ({@link #codeIndices(Alphabet)}) abgebildet,
+     * nur die Ausnahmen werden einzeln nachgeschlagen.
+     *
+     * @param alphabet Alphabet
+     * @param indices  Feld fuer die Index-Folge (mindestens so lang wie die Sequenz)
+     * @return Position des ersten ungueltigen Zeichens oder {@link #length()}, falls alle gueltig sind
+     */
+    public int toIndices(final Alphabet alphabet, final int[] indices) {
+        int[] codeIndices = codeIndices(alphabet);
+
+        int e = 0;
+        for (int i = 0; i < length; i++) {
+            int index;
+            if (e < exceptionPositions.length && exceptionPositions[e] == i)
+                index = alphabet.indexOf(exceptionChars[e++]);
+            else
+                index = codeIndices[isLowerCase(i) ? NUCLEOTIDES.length + code(i) : code(i)];
+            if (index == Alphabet.INVALID)
+                return i;
+            indices[i] = index;
+        }
+        return length;
+    }
+
+    /**
+     * Liefert die Indizes der Nukleotide je Code im uebergebenen Alphabet zurueck
+     * (Position code fuer Gross-, Position {@link #NUCLEOTIDES}.length + code fuer Kleinbuchstaben)
+     *
+     * @param alphabet Alphabet
+     * @return Indizes oder {@link Alphabet#INVALID}
+     */
+    private static int[] codeIndices(final Alphabet alphabet) {
+        int[] ret = new int[2 * NUCLEOTIDES.length];
+        for (int code = 0; code < NUCLEOTIDES.length; code++) {
+            ret[code] = alphabet.indexOf(NUCLEOTIDES[code]);
+            ret[NUCLEOTIDES.length + code] = alphabet.indexOf(Character.toLowerCase(NUCLEOTIDES[code]));
+        }
+        return ret;
+    }
+
+    /**
+     * Liefert die Anzahl der Ausnahmen (Zeichen ausserhalb von {@link #NUCLEOTIDES}) zurueck
+     *
+     * @return Anzahl der Ausnahmen
+     */
+    public int getExceptionCount() {
+        return exceptionPositions.length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds for length " + length);
+        int e = Arrays.binarySearch(exceptionPositions, index);
+        return e >= 0 ? exceptionChars[e] : nucleotide(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /**
+     * Entpackt die Sequenz
+     *
+     * @return Sequenz als String
+     */
+    @Override
+    public String toString() {
+        char[] ret = new char[length];
+        for (int i = 0; i < length; i++) {
+            ret[i] = nucleotide(i);
+        }
+        for (int e = 0; e < exceptionPositions.length; e++) {
+            ret[exceptionPositions[e]] = exceptionChars[e];
+        }
+        return new String(ret);
+    }
+}
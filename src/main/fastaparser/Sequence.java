@@ -10,6 +10,10 @@ package main.fastaparser;
  * - Kommentar (optional, wenn in Datei angegeben), durch ; kenntlich gemacht
  * <p>
  * - Nukleotid-Sequenz, folgende Zeile ohne initiierende Zeichen
+ * <p>
+ * Die Nukleotid-Sequenz wird entweder als {@link String} oder gepackt ({@link PackedNucleotides}) gespeichert.
+ * Eine gepackte Sequenz wird bei {@link #getNucleotideSequence()} jedes Mal entpackt,
+ * der Viterbi-Algorithmus liesst sie direkt ueber {@link #getNucleotides()}.
  *
  * @author Soeren Metje
  */
@@ -26,9 +30,9 @@ public class Sequence {
     private final String comments;
 
     /**
-     * Nukleotid-Sequenz, folgende Zeile ohne initiierende Zeichen
+     * Nukleotid-Sequenz, folgende Zeile ohne initiierende Zeichen ({@link String} oder {@link PackedNucleotides})
      */
-    private final String nucleotideSequence;
+    private final CharSequence nucleotideSequence;
 
     /**
      * Konstruktor
@@ -43,6 +47,19 @@ public class Sequence {
         this.nucleotideSequence = nucleotideSequence;
     }
 
+    /**
+     * Konstruktor fuer eine gepackte Nukleotid-Sequenz
+     *
+     * @param description Beschreibung
+     * @param comments    Kommentar
+     * @param nucleotides gepackte Nukleotid-Sequenz
+     */
+    public Sequence(String description, String comments, PackedNucleotides nucleotides) {
+        this.description = description;
+        this.comments = comments;
+        this.nucleotideSequence = nucleotides;
+    }
+
     /**
      * liefert Beschreibung zurueck
      *
@@ -67,9 +84,36 @@ public class Sequence {
      * @return Nukleotid-Sequence
      */
     public String getNucleotideSequence() {
+        return nucleotideSequence.toString();
+    }
+
+    /**
+     * liefert Nukleotid-Sequence ohne Entpacken zurueck
+     *
+     * @return Nukleotid-Sequence ({@link String} oder {@link PackedNucleotides})
+     */
+    public CharSequence getNucleotides() {
         return nucleotideSequence;
     }
 
+    /**
+     * liefert Laenge der Nukleotid-Sequence zurueck
+     *
+     * @return Laenge der Nukleotid-Sequence
+     */
+    public int length() {
+        return nucleotideSequence.length();
+    }
+
+    /**
+     * liefert true zurueck, falls die Nukleotid-Sequenz gepackt gespeichert ist. Ansonsten false
+     *
+     * @return true, falls die Nukleotid-Sequenz gepackt gespeichert ist
+     */
+    public boolean isPacked() {
+        return nucleotideSequence instanceof PackedNucleotides;
+    }
+
     /**
      * liefert true zurueck, falls Kommentar vorhanden ist. Ansonsten false
      *
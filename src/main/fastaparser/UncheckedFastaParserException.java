@@ -0,0 +1,34 @@
+package main.fastaparser;
+
+/**
+ * Ungepruefte exception, die eine {@link FastaParserException} umhuellt.
+ * Wird von {@link FastaReader} ausgeloesst, wenn Sequenzen ueber Iterator oder Stream gelesen werden.
+ *
+ * @author Soeren Metje
+ */
+public class UncheckedFastaParserException extends RuntimeException {
+
+    /**
+     * Version fuer die Serialisierung
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * erstellt exception
+     *
+     * @param cause grund
+     */
+    public UncheckedFastaParserException(FastaParserException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    /**
+     * Liefert die umhuellte {@link FastaParserException} zurueck
+     *
+     * @return grund
+     */
+    @Override
+    public synchronized FastaParserException getCause() {
+        return (FastaParserException) super.getCause();
+    }
+}
@@ -42,38 +42,4 @@ public class HMMFunc {
             vector[j] = Math.log(vector[j]);
         }
     }
-
-    /**
-     * Mappt Beaobachtung-Folge auf entsprechende Index-Folge
-     *
-     * @param space        Feld aller Beobachtungen
-     * @param observations Beobachtungs-Folge
-     * @return entsprechende Index-Folge
-     * @throws IllegalArgumentException falls Beobachtung nicht im Feld gefunden wird
-     */
-    public static int[] charsToIndices(final char[] space, final char[] observations) throws IllegalArgumentException {
-        int length = observations.length;
-        int[] ret = new int[length];
-
-        for (int i = 0; i < length; i++) {
-            ret[i] = charToIndex(space, observations[i]);
-        }
-        return ret;
-    }
-
-    /**
-     * Mappt Beaobachtung auf entsprechenden Index
-     *
-     * @param space       Feld aller Beobachtungen
-     * @param observation Beobachtung
-     * @return entsprechender Index
-     * @throws IllegalArgumentException falls Beobachtung nicht im Feld gefunden wird
-     */
-    public static int charToIndex(final char[] space, final char observation) throws IllegalArgumentException {
-        for (int i = 0, basesLength = space.length; i < basesLength; i++) {
-            if (space[i] == observation)
-                return i;
-        }
-        throw new IllegalArgumentException("Character " + observation + " not found");
-    }
 }
@@ -1,5 +1,6 @@
 package main.hmm.casino;
 
+import main.fastaparser.Alphabet;
 import main.hmm.HMMFunc;
 
 /**
@@ -21,6 +22,11 @@ public class HMM {
      */
     protected final char[] observationSpace;
 
+    /**
+     * Alphabet der beobachtbaren Ereignisse
+     */
+    private final Alphabet observationAlphabet;
+
     /**
      * Zustaende in denen sich das Modell befindet
      */
@@ -58,6 +64,7 @@ public class HMM {
      */
     public HMM(char[] observationSpace, char[] stateChar, double[] initProbabilities, double[][] transitionMatrix, double[][] emissionMatrix) {
         this.observationSpace = observationSpace;
+        this.observationAlphabet = new Alphabet(observationSpace, false);
         this.stateChar = stateChar;
         this.stateCount = stateChar.length;
         this.initProbabilities = initProbabilities;
@@ -158,7 +165,11 @@ public class HMM {
      * @return entsprechende Index-Folge
      */
     private int[] observationsToIndices(final char[] observations) {
-        return HMMFunc.charsToIndices(observationSpace, observations);
+        int[] ret = new int[observations.length];
+        int encoded = observationAlphabet.encode(observations, ret);
+        if (encoded < observations.length)
+            throw Alphabet.invalidCharacter(observations[encoded], encoded);
+        return ret;
     }
 
     /**
@@ -168,6 +179,6 @@ public class HMM {
      * @return entsprechender Index
      */
     private int obesrvationToIndex(final char observation) {
-        return HMMFunc.charToIndex(observationSpace, observation);
+        return observationAlphabet.index(observation);
     }
 }
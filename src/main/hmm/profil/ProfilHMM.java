@@ -1,5 +1,7 @@
 package main.hmm.profil;
 
+import main.fastaparser.Alphabet;
+import main.fastaparser.PackedNucleotides;
 import main.fastaparser.Sequence;
 import main.hmm.HMMFunc;
 import main.logger.Log;
@@ -66,6 +68,11 @@ public abstract class ProfilHMM {
      */
     public static final int STATE_COUNT = STATES.length;
 
+    /**
+     * Alphabet der Zustaende
+     */
+    private static final Alphabet STATE_ALPHABET = new Alphabet(STATES, false);
+
     /**
      * Index des Match-Zustand
      */
@@ -81,6 +88,21 @@ public abstract class ProfilHMM {
      */
     public static final int STATE_DELETE_INDEX = stateToIndex(STATE_DELETE);
 
+    /**
+     * Anzahl der Uebergaenge pro Position im Modell
+     */
+    public static final int TRANSITION_COUNT = STATE_COUNT * STATE_COUNT;
+
+    /**
+     * Skalierung der quantisierten logarithmierten Wahrscheinlichkeiten (Einheiten pro nat)
+     */
+    public static final int QUANTIZATION_SCALE = 16;
+
+    /**
+     * Quantisierter Wert fuer -Infinity (Wahrscheinlichkeit 0)
+     */
+    public static final short QUANTIZED_NEG_INF = Short.MIN_VALUE;
+
     // Instanz-Variablen ###############################################################################################
 
     /**
@@ -108,6 +130,11 @@ public abstract class ProfilHMM {
      */
     private final char[] bases;
 
+    /**
+     * Alphabet der Nukleotide (Gross- und Kleinschreibung wird gleich behandelt)
+     */
+    private final Alphabet alphabet;
+
     /**
      * Beobachtungswahrscheinlichketen der Nukleotide im Match-Zustand an Position im Modell
      */
@@ -123,6 +150,37 @@ public abstract class ProfilHMM {
      */
     private double[][][] transitionProb;
 
+    /**
+     * Logarithmierte Uebergangswahrscheinlichen, nach Position im Modell gepackt.
+     * Die Uebergaenge von Position j liegen zusammenhaengend ab Index j * TRANSITION_COUNT (siehe {@link #transitionIndex(int, int, int)})
+     */
+    private double[] transitionProbPacked;
+
+    /**
+     * Logarithmierte Beobachtungswahrscheinlichketen im Match-Zustand, nach Nukleotid gruppiert [bases.length][lengthModel]
+     */
+    private double[][] emissionProbMatchByBase;
+
+    /**
+     * Logarithmierte Beobachtungswahrscheinlichketen im Insert-Zustand, nach Nukleotid gruppiert [bases.length][lengthModel]
+     */
+    private double[][] emissionProbInsertByBase;
+
+    /**
+     * Quantisierte logarithmierte Uebergangswahrscheinlichen, gepackt wie {@link #transitionProbPacked}
+     */
+    private short[] transitionProbQuantized;
+
+    /**
+     * Quantisierte logarithmierte Beobachtungswahrscheinlichketen im Match-Zustand, nach Nukleotid gruppiert
+     */
+    private short[][] emissionProbMatchQuantized;
+
+    /**
+     * Quantisierte logarithmierte Beobachtungswahrscheinlichketen im Insert-Zustand, nach Nukleotid gruppiert
+     */
+    private short[][] emissionProbInsertQuantized;
+
     /**
      * Laenge des Modells bzw. Anzahl der Match-Zustaende im Modell.
      * Der Start-Zustand wird auch als Match-Zustand interpretiert
@@ -144,6 +202,7 @@ public abstract class ProfilHMM {
     public ProfilHMM(List<Sequence> sequencesTrain, char gap, char[] bases, int pseudoCountEmission, int pseudoCountTransition, double thresholdMatchState) throws IllegalArgumentException {
         this.gap = gap;
         this.bases = bases;
+        this.alphabet = new Alphabet(bases, true);
         this.pseudoCountEmission = pseudoCountEmission;
         this.pseudoCountTransition = pseudoCountTransition;
         this.thresholdMatchState = thresholdMatchState;
@@ -152,6 +211,58 @@ public abstract class ProfilHMM {
         HMMFunc.logspace(transitionProb);
         HMMFunc.logspace(emissionProbMatch);
         HMMFunc.logspace(emissionProbInsert);
+        packModel();
+    }
+
+    /**
+     * Erstellt aus den logarithmierten Wahrscheinlichkeiten die Felder fuer den Viterbi-Algorithmus,
+     * in denen die Werte in der Reihenfolge des Zugriffs zusammenhaengend liegen.
+     */
+    private void packModel() {
+        transitionProbPacked = new double[lengthModel * TRANSITION_COUNT];
+        for (int j = 0; j < lengthModel; j++) {
+            for (int from = 0; from < STATE_COUNT; from++) {
+                for (int to = 0; to < STATE_COUNT; to++) {
+                    transitionProbPacked[transitionIndex(j, from, to)] = transitionProb[from][to][j];
+                }
+            }
+        }
+
+        emissionProbMatchByBase = new double[bases.length][lengthModel];
+        emissionProbInsertByBase = new double[bases.length][lengthModel];
+        for (int j = 0; j < lengthModel; j++) {
+            for (int b = 0; b < bases.length; b++) {
+                emissionProbMatchByBase[b][j] = emissionProbMatch[j][b];
+                emissionProbInsertByBase[b][j] = emissionProbInsert[j][b];
+            }
+        }
+
+        transitionProbQuantized = new short[transitionProbPacked.length];
+        for (int k = 0; k < transitionProbPacked.length; k++) {
+            transitionProbQuantized[k] = quantize(transitionProbPacked[k]);
+        }
+        emissionProbMatchQuantized = new short[bases.length][lengthModel];
+        emissionProbInsertQuantized = new short[bases.length][lengthModel];
+        for (int b = 0; b < bases.length; b++) {
+            for (int j = 0; j < lengthModel; j++) {
+                emissionProbMatchQuantized[b][j] = quantize(emissionProbMatchByBase[b][j]);
+                emissionProbInsertQuantized[b][j] = quantize(emissionProbInsertByBase[b][j]);
+            }
+        }
+    }
+
+    /**
+     * Quantisiert eine logarithmierte Wahrscheinlichkeit mit {@link #QUANTIZATION_SCALE}.
+     * Werte, die nicht darstellbar sind, werden als {@link #QUANTIZED_NEG_INF} interpretiert.
+     *
+     * @param logProb logarithmierte Wahrscheinlichkeit
+     * @return quantisierter Wert
+     */
+    public static short quantize(final double logProb) {
+        double scaled = Math.rint(logProb * QUANTIZATION_SCALE);
+        if (!(scaled > QUANTIZED_NEG_INF)) // also NaN and -Infinity
+            return QUANTIZED_NEG_INF;
+        return (short) Math.min(scaled, Short.MAX_VALUE);
     }
 
     /**
@@ -177,9 +288,9 @@ public abstract class ProfilHMM {
             throw new IllegalArgumentException("sequencesTrain is empty");
         }
 
-        int length = sequencesTrain.get(0).getNucleotideSequence().length();
+        int length = sequencesTrain.get(0).length();
         for (Sequence s : sequencesTrain) {
-            int sLength = s.getNucleotideSequence().length();
+            int sLength = s.length();
             if (sLength != length) {
                 throw new IllegalArgumentException("Sequence '" + s.getDescription()
                         + "' has different lenght (" + sLength + ") then the first Sequence (" + length + ")");
@@ -196,7 +307,7 @@ public abstract class ProfilHMM {
 
         for (Sequence seq : sequencesTrain) {
             for (int i = 0; i < length; i++) {
-                char base = seq.getNucleotideSequence().charAt(i);
+                char base = seq.getNucleotides().charAt(i);
                 if (base == gap) {
                     gapCounts[i]++;
                 } else {
@@ -505,7 +616,55 @@ public abstract class ProfilHMM {
      * @throws IllegalArgumentException falls Beobachtung nicht im Feld gefunden wird
      */
     public int[] observationsToIndices(final char[] observations) throws IllegalArgumentException {
-        return HMMFunc.charsToIndices(bases, observations);
+        int[] ret = new int[observations.length];
+        int encoded = alphabet.encode(observations, ret);
+        if (encoded < observations.length)
+            throw Alphabet.invalidCharacter(observations[encoded], encoded);
+        return ret;
+    }
+
+    /**
+     * Mappt Beaobachtung-Folge auf entsprechende Index-Folge und schreibt sie in das uebergebene Feld
+     *
+     * @param observations Beobachtungs-Folge
+     * @param indices      Feld fuer die Index-Folge (mindestens so lang wie die Beobachtungs-Folge)
+     * @throws IllegalArgumentException falls Beobachtung nicht im Feld gefunden wird
+     */
+    public void observationsToIndices(final CharSequence observations, final int[] indices) throws IllegalArgumentException {
+        alphabet.encodeChecked(observations, indices);
+    }
+
+    /**
+     * Mappt die Beobachtungs-Folge der Sequenz auf entsprechende Index-Folge.
+     * Gepackte Sequenzen ({@link PackedNucleotides}) werden dabei nicht entpackt.
+     *
+     * @param sequence Sequenz
+     * @return entsprechende Index-Folge
+     * @throws IllegalArgumentException falls Beobachtung nicht im Feld gefunden wird
+     */
+    public int[] observationsToIndices(final Sequence sequence) throws IllegalArgumentException {
+        int[] ret = new int[sequence.length()];
+        observationsToIndices(sequence, ret);
+        return ret;
+    }
+
+    /**
+     * Mappt die Beobachtungs-Folge der Sequenz auf entsprechende Index-Folge und schreibt sie in das uebergebene Feld.
+     * Gepackte Sequenzen ({@link PackedNucleotides}) werden dabei nicht entpackt.
+     *
+     * @param sequence Sequenz
+     * @param indices  Feld fuer die Index-Folge (mindestens so lang wie die Sequenz)
+     * @throws IllegalArgumentException falls Beobachtung nicht im Feld gefunden wird
+     */
+    public void observationsToIndices(final Sequence sequence, final int[] indices) throws IllegalArgumentException {
+        CharSequence observations = sequence.getNucleotides();
+        int encoded;
+        if (observations instanceof PackedNucleotides)
+            encoded = ((PackedNucleotides) observations).toIndices(alphabet, indices);
+        else
+            encoded = alphabet.encode(observations, indices);
+        if (encoded < observations.length())
+            throw Alphabet.invalidCharacter(observations.charAt(encoded), encoded);
     }
 
     /**
@@ -516,7 +675,7 @@ public abstract class ProfilHMM {
      * @throws IllegalArgumentException falls Beobachtung nicht im Feld gefunden wird
      */
     public int observationToIndex(final char observation) throws IllegalArgumentException {
-        return HMMFunc.charToIndex(bases, observation);
+        return alphabet.index(observation);
     }
 
     public int getPseudoCountEmission() {
@@ -555,6 +714,42 @@ public abstract class ProfilHMM {
         return lengthModel;
     }
 
+    public double[] getTransitionProbPacked() {
+        return transitionProbPacked;
+    }
+
+    public double[][] getEmissionProbMatchByBase() {
+        return emissionProbMatchByBase;
+    }
+
+    public double[][] getEmissionProbInsertByBase() {
+        return emissionProbInsertByBase;
+    }
+
+    public short[] getTransitionProbQuantized() {
+        return transitionProbQuantized;
+    }
+
+    public short[][] getEmissionProbMatchQuantized() {
+        return emissionProbMatchQuantized;
+    }
+
+    public short[][] getEmissionProbInsertQuantized() {
+        return emissionProbInsertQuantized;
+    }
+
+    /**
+     * Liefert den Index des Uebergangs from -&gt; to an Position j im Feld {@link #getTransitionProbPacked()} zurueck
+     *
+     * @param j    Position im Modell
+     * @param from Index des Ausgangs-Zustands
+     * @param to   Index des Ziel-Zustands
+     * @return Index im gepackten Feld
+     */
+    public static int transitionIndex(final int j, final int from, final int to) {
+        return j * TRANSITION_COUNT + from * STATE_COUNT + to;
+    }
+
     /**
      * Mappt Zustand auf entsprechenden Index
      *
@@ -563,6 +758,6 @@ public abstract class ProfilHMM {
      * @throws IllegalArgumentException falls Beobachtung nicht im Feld gefunden wird
      */
     private static int stateToIndex(final char state) throws IllegalArgumentException {
-        return HMMFunc.charToIndex(STATES, state);
+        return STATE_ALPHABET.index(state);
     }
 }
\ No newline at end of file
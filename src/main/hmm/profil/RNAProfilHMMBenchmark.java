@@ -0,0 +1,115 @@
+package main.hmm.profil;
+
+import main.argparser.*;
+import main.fastaparser.FastaParser;
+import main.fastaparser.FastaParserException;
+import main.fastaparser.Sequence;
+import main.hmm.profil.viterbi.ViterbiMode;
+import main.hmm.profil.viterbi.ViterbiPath;
+import main.hmm.profil.viterbi.ViterbiWorkspace;
+import main.logger.Log;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Ausfuehrbare Klasse zur Messung von Laufzeit und Speicher-Allokation des Viterbi-Algorithmus.
+ * Bekommt wie {@link RNAProfilHMMMain} die Trainings-Sequenzen (-filetrain <Path>) und Test-Sequenzen (-filetest <Path>) uebergeben.
+ * Optional koennen die Variante des Viterbi-Algorithmus (-viterbi <Name>) und die Anzahl der Wiederholungen (-repeat <Anzahl>) uebergeben werden.
+ * <p>
+ * Die Test-Sequenzen werden in einem Thread einmal mit neuem {@link ViterbiWorkspace} pro Sequenz
+ * und einmal mit einem wiederverwendeten {@link ViterbiWorkspace} berechnet.
+ * Ausgegeben werden Laufzeit und allokierte Bytes pro Sequenz (gemessen mit com.sun.management.ThreadMXBean)
+ * sowie zum Vergleich die Groesse der Zustands-Pfade im Ergebnis.
+ *
+ * @author Soeren Metje
+ */
+public class RNAProfilHMMBenchmark {
+
+    /**
+     * Standard-Anzahl der Wiederholungen
+     */
+    private static final int DEFAULT_REPEAT = 10;
+
+    /**
+     * Ausfuehrbare Methode
+     *
+     * @param args Argumente
+     */
+    public static void main(String[] args) {
+        ParameterSet parameterSet = new ParameterSet();
+        Setting paramFileTrain = new Setting("filetrain", true);
+        Setting paramFileTest = new Setting("filetest", true);
+        Setting paramViterbi = new Setting("viterbi", false);
+        Setting paramRepeat = new Setting("repeat", false);
+        parameterSet.addSetting(paramFileTrain);
+        parameterSet.addSetting(paramFileTest);
+        parameterSet.addSetting(paramViterbi);
+        parameterSet.addSetting(paramRepeat);
+
+        ViterbiMode mode = ViterbiMode.FULL;
+        int repeat = DEFAULT_REPEAT;
+        List<Sequence> sequencesTrain = null;
+        List<Sequence> sequencesTest = null;
+        RNAProfilHMM model = null;
+        try {
+            ArgumentParser parser = new ArgumentParser(parameterSet);
+            parser.parseArgs(args);
+            if (paramViterbi.isSet())
+                mode = ViterbiMode.fromName(paramViterbi.getValue());
+            if (paramRepeat.isSet())
+                repeat = Integer.parseInt(paramRepeat.getValue());
+            sequencesTrain = FastaParser.parseFile(paramFileTrain.getValue());
+            sequencesTest = FastaParser.parseFile(paramFileTest.getValue());
+            model = new RNAProfilHMM(sequencesTrain);
+        } catch (ArgumentParserException | FastaParserException | IllegalArgumentException | IOException e) {
+            Log.eLine("ERROR: " + e.getMessage());
+            System.exit(1);
+        }
+
+        Log.iLine(String.format("Benchmark Viterbi (%s): %d sequences, model length %d, %d repetitions",
+                mode, sequencesTest.size(), model.getLengthModel(), repeat));
+
+        // warm up
+        run(model, sequencesTest, mode, false, 1);
+        run(model, sequencesTest, mode, true, 1);
+
+        Log.iLine(run(model, sequencesTest, mode, false, repeat));
+        Log.iLine(run(model, sequencesTest, mode, true, repeat));
+    }
+
+    /**
+     * Berechnet die Sequenzen repeat-mal und liefert Laufzeit und allokierte Bytes pro Sequenz als Zeile zurueck
+     *
+     * @param model     Modell
+     * @param sequences Sequenzen
+     * @param mode      Variante des Viterbi-Algorithmus
+     * @param reuse     true, falls ein Arbeitsspeicher fuer alle Sequenzen verwendet wird
+     * @param repeat    Anzahl der Wiederholungen
+     * @return Zeile mit den Messwerten
+     */
+    private static String run(final ProfilHMM model, final List<Sequence> sequences, final ViterbiMode mode,
+                              final boolean reuse, final int repeat) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        ViterbiWorkspace workspace = new ViterbiWorkspace();
+        long resultBytes = 0;
+        long bytes = threadBean.getThreadAllocatedBytes(threadId);
+        long nanos = System.nanoTime();
+        for (int r = 0; r < repeat; r++) {
+            for (Sequence sequence : sequences) {
+                ViterbiPath path = mode.viterbi(model, sequence, reuse ? workspace : new ViterbiWorkspace());
+                if (path.hasStatePath())
+                    resultBytes += 16 + 2L * path.getPathLength(); // header and chars of the state path
+            }
+        }
+        nanos = System.nanoTime() - nanos;
+        bytes = threadBean.getThreadAllocatedBytes(threadId) - bytes;
+
+        long count = (long) repeat * sequences.size();
+        return String.format("%-16s %8.3f ms/sequence, %10d bytes allocated/sequence (state path %d bytes/sequence)",
+                reuse ? "reused workspace" : "new workspace", nanos / 1e6 / count, bytes / count, resultBytes / count);
+    }
+}
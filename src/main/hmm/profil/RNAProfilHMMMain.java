@@ -3,23 +3,41 @@ package main.hmm.profil;
 import main.argparser.*;
 import main.fastaparser.FastaParser;
 import main.fastaparser.FastaParserException;
+import main.fastaparser.FastaReader;
 import main.fastaparser.Sequence;
+import main.fastaparser.UncheckedFastaParserException;
+import main.hmm.profil.viterbi.ViterbiFilter;
+import main.hmm.profil.viterbi.ViterbiMode;
 import main.hmm.profil.viterbi.ViterbiPath;
 import main.hmm.profil.viterbi.parallel.ParallelizationSupporter;
+import main.hmm.profil.viterbi.parallel.ViterbiMemoryBudget;
+import main.hmm.profil.viterbi.parallel.ViterbiPipeline;
+import main.hmm.profil.viterbi.parallel.ViterbiSchedule;
 import main.logger.Log;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 /**
  * Ausfuehrbare Klasse, die den Dateipfad der Traings-Sequencen als Parameter (-filetrain <Path>)
  * sowie der Test-Sequencen als Parameter (-filetest <Path>) uebergeben bekommen muss.
+ * Optional kann die Variante des Viterbi-Algorithmus als Parameter (-viterbi full|checkpoint|banded|wavefront|score|filter) uebergeben werden.
+ * Optional kann der Speicher fuer Viterbi-Berechnungen in MB als Parameter (-memory <MB>) uebergeben werden,
+ * standardmaessig {@link ViterbiMemoryBudget#DEFAULT_FRACTION} des maximalen Heaps ({@link ViterbiMemoryBudget}).
+ * Mit dem Parameter (--pipeline) laufen Einlesen, Viterbi-Algorithmus und Ausgabe gleichzeitig ({@link ViterbiPipeline}).
+ * Mit dem Parameter (--filter) werden die Test-Sequenzen zuerst mit {@link ViterbiFilter} bewertet
+ * und nur Sequenzen nahe oder oberhalb des Schwellwertes mit der gewaehlten Variante exakt berechnet.
+ * Vom Filter verworfene Sequenzen gehen mit dem Score des Filters in den Schwellwert ein und werden als "filtered;0" ausgegeben.
+ * Die Parameter (--filter) und (--pipeline) koennen nicht kombiniert werden.
  * <p>
  * Erstellt anhand der Trainings-Sequencen ein {@link RNAProfilHMM}.
  * Anschliessend wird mittels des Viterbi-Algorithmus fuer jede Test-Sequenz ein Zustands-Pfad ermittelt.
@@ -40,9 +58,17 @@ public class RNAProfilHMMMain {
         ParameterSet parameterSet = new ParameterSet();
         Setting paramFileTrain = new Setting("filetrain", true);
         Setting paramFileTest = new Setting("filetest", true);
+        Setting paramViterbi = new Setting("viterbi", false);
+        Setting paramMemory = new Setting("memory", false);
+        Flag paramFilter = new Flag("filter", false);
+        Flag paramPipeline = new Flag("pipeline", false);
         Flag paramDebug = new Flag("debug", false);
         parameterSet.addSetting(paramFileTrain);
         parameterSet.addSetting(paramFileTest);
+        parameterSet.addSetting(paramViterbi);
+        parameterSet.addSetting(paramMemory);
+        parameterSet.addFlag(paramFilter);
+        parameterSet.addFlag(paramPipeline);
         parameterSet.addFlag(paramDebug);
 
         try {
@@ -56,7 +82,32 @@ public class RNAProfilHMMMain {
         if (paramDebug.isSet())
             Log.setPrintDebug(true);
 
-        List<Sequence> sequencesTrain = readFile(paramFileTrain.getValue());
+        if (paramFilter.isSet() && paramPipeline.isSet()) { // the filter needs all sequences before the exact stage
+            Log.eLine("ERROR: --filter cannot be combined with --pipeline");
+            System.exit(1);
+        }
+
+        ViterbiMode viterbiMode = ViterbiMode.FULL;
+        if (paramViterbi.isSet()) {
+            try {
+                viterbiMode = ViterbiMode.fromName(paramViterbi.getValue());
+            } catch (IllegalArgumentException e) {
+                Log.eLine(e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        ViterbiMemoryBudget budget = ViterbiMemoryBudget.fromMaxMemory();
+        if (paramMemory.isSet()) {
+            try {
+                budget = new ViterbiMemoryBudget(Math.multiplyExact(Long.parseLong(paramMemory.getValue()), 1L << 20));
+            } catch (IllegalArgumentException | ArithmeticException e) { // NumberFormatException is an IllegalArgumentException
+                Log.eLine("ERROR: invalid memory " + paramMemory.getValue() + " (megabytes > 0 expected)");
+                System.exit(1);
+            }
+        }
+
+        List<Sequence> sequencesTrain = readFile(paramFileTrain.getValue(), false);
 
         RNAProfilHMM model = null;
         try {
@@ -69,8 +120,14 @@ public class RNAProfilHMMMain {
         Log.iLine();
 
         // Test-Sequences --------------------------------------------------------
-        List<Sequence> sequencesTest = readFile(paramFileTest.getValue());
-        List<ViterbiPath> viterbiPaths = ParallelizationSupporter.viterbiParallelized(model, sequencesTest);
+        List<ViterbiPath> viterbiPaths;
+        Set<ViterbiPath> filtered = new HashSet<>(); // only approximated by the filter
+        if (paramFilter.isSet())
+            viterbiPaths = viterbiFiltered(model, readFile(paramFileTest.getValue(), true), viterbiMode, budget, filtered);
+        else if (paramPipeline.isSet())
+            viterbiPaths = viterbiPipelined(model, paramFileTest.getValue(), viterbiMode, budget);
+        else
+            viterbiPaths = viterbiStreamed(model, paramFileTest.getValue(), viterbiMode, budget);
 
         // calc Threshold
         double threshold = calcThreshold(viterbiPaths);
@@ -85,20 +142,167 @@ public class RNAProfilHMMMain {
             StringBuilder out = new StringBuilder();
             for (ViterbiPath path : viterbiPaths) {
                 double score = path.getScore();
-                out.append(String.format("%s;%c\n", format.format(score), (score >= threshold ? '1' : '0')));
+                if (path.isFailed())
+                    out.append("failed;-\n");
+                else if (filtered.contains(path))
+                    out.append("filtered;0\n");
+                else
+                    out.append(String.format("%s;%c\n", format.format(score), (decide(path, filtered, threshold) ? '1' : '0')));
             }
             Log.iLine(out.toString());
         }
     }
 
+    /**
+     * Berechnet die Zustands-Pfade der Sequenzen aus der Datei am uebergebenen Pfad mit {@link ViterbiPipeline}.
+     * Einlesen, Berechnung und Ausgabe laufen gleichzeitig, die Zustands-Pfade werden in der Reihenfolge der Datei ausgegeben.
+     * Fuer den Schwellwert werden nur Score und Laenge der Zustands-Pfade (ohne Sequenz) gehalten.
+     *
+     * @param model    Modell
+     * @param filePath Pfad zu Datei mit Test-Sequenzen
+     * @param mode     Variante des Viterbi-Algorithmus
+     * @param budget   Speicherbudget
+     * @return Liste mit Score und Laenge der Zustands-Pfade {@link ViterbiPath} in der Reihenfolge der Sequenzen
+     */
+    private static List<ViterbiPath> viterbiPipelined(final ProfilHMM model, final String filePath, final ViterbiMode mode,
+                                                      final ViterbiMemoryBudget budget) {
+        final List<ViterbiPath> ret = new ArrayList<>();
+
+        Log.iLine("reading " + filePath + " in pipeline");
+        try (FastaReader reader = new FastaReader(filePath, true)) { // closes reader
+            ViterbiPipeline.run(model, reader, mode, budget, new ViterbiPipeline.ResultWriter() {
+                @Override
+                public void write(int index, ViterbiPath path) {
+                    Sequence sequence = path.getSequence();
+                    Log.iLine(sequence.getDescription() + " -----------------------------");
+                    Log.iLine(sequence.getNucleotideSequence());
+                    if (path.isFailed())
+                        Log.iLine("failed: " + path.getError());
+                    else if (path.hasStatePath())
+                        Log.iLine(path.getCigar()); // run-length encoded, e.g. 12M3I40M2D
+                    else
+                        Log.iLine(String.format("score %f, path length %d", path.getScore(), path.getPathLength()));
+                    Log.iLine();
+                    ret.add(path.isFailed() ? ViterbiPath.failed(null, path.getError())
+                            : new ViterbiPath(null, path.getScore(), path.getPathLength()));
+                }
+            });
+        } catch (FileNotFoundException e) {
+            Log.eLine("ERROR: file " + filePath + " not found");
+            System.exit(1);
+        } catch (IOException | UncheckedIOException e) {
+            Log.eLine("ERROR: while reading file " + filePath);
+            System.exit(1);
+        } catch (UncheckedFastaParserException e) {
+            Log.eLine("ERROR: while parsing file " + filePath + ": " + e.getMessage());
+            System.exit(1);
+        }
+
+        Log.iLine("successfully finished reading file");
+        return ret;
+    }
+
+    /**
+     * Berechnet die Zustands-Pfade der Sequenzen aus der Datei am uebergebenen Pfad, waehrend die Datei
+     * mittels {@link FastaReader} eingelesen wird. Es werden nur die Ergebnisse im Speicher gehalten.
+     * Die Sequenzen werden gepackt ({@link main.fastaparser.PackedNucleotides}) eingelesen.
+     *
+     * @param model    Modell
+     * @param filePath Pfad zu Datei mit Test-Sequenzen
+     * @param mode     Variante des Viterbi-Algorithmus
+     * @param budget   Speicherbudget
+     * @return Liste mit den Zustands-Pfaden {@link ViterbiPath} in der Reihenfolge der Sequenzen
+     */
+    private static List<ViterbiPath> viterbiStreamed(final ProfilHMM model, final String filePath, final ViterbiMode mode,
+                                                     final ViterbiMemoryBudget budget) {
+        List<ViterbiPath> ret = null;
+
+        Log.iLine("reading " + filePath + " while calculating");
+        try (FastaReader reader = new FastaReader(filePath, true)) { // closes reader
+            ret = ParallelizationSupporter.viterbiParallelized(model, reader, mode, budget);
+        } catch (FileNotFoundException e) {
+            Log.eLine("ERROR: file " + filePath + " not found");
+            System.exit(1);
+        } catch (IOException | UncheckedIOException e) {
+            Log.eLine("ERROR: while reading file " + filePath);
+            System.exit(1);
+        } catch (UncheckedFastaParserException e) {
+            Log.eLine("ERROR: while parsing file " + filePath + ": " + e.getMessage());
+            System.exit(1);
+        }
+
+        Log.iLine("successfully finished reading file");
+
+        return ret;
+    }
+
+    /**
+     * Berechnet die Zustands-Pfade in zwei Stufen.
+     * Zuerst werden alle Sequenzen mit {@link ViterbiFilter} bewertet und daraus ein vorlaeufiger Schwellwert berechnet.
+     * Nur Sequenzen, deren Score zuzueglich der maximalen Abweichung des Filters den Schwellwert erreicht,
+     * werden anschliessend mit der uebergebenen Variante exakt berechnet. Fuer alle anderen wird das Ergebnis des Filters verwendet
+     * und in filtered eingetragen, da Score und Laenge des Zustands-Pfades nur angenaehert sind.
+     * Sie bleiben in der zurueckgelieferten Liste, damit der Schwellwert ueber alle Sequenzen berechnet wird.
+     * Die Anzahl der Sequenzen, die jede Stufe passieren, wird ausgegeben.
+     *
+     * @param model     Modell
+     * @param sequences Test-Sequenzen
+     * @param mode      Variante des Viterbi-Algorithmus fuer die exakte Berechnung
+     * @param budget    Speicherbudget
+     * @param filtered  nimmt die vom Filter verworfenen Zustands-Pfade auf
+     * @return Liste mit den Zustands-Pfaden {@link ViterbiPath} in der Reihenfolge der Sequenzen
+     */
+    static List<ViterbiPath> viterbiFiltered(final ProfilHMM model, final List<Sequence> sequences, final ViterbiMode mode,
+                                             final ViterbiMemoryBudget budget, final Set<ViterbiPath> filtered) {
+        // stage 1: quantized filter
+        List<ViterbiPath> filterPaths = ParallelizationSupporter.viterbiParallelized(model, sequences, ViterbiMode.FILTER,
+                ViterbiSchedule.LONGEST_FIRST, budget);
+        double filterThreshold = calcThreshold(filterPaths);
+
+        List<Integer> passedIndices = new ArrayList<>();
+        List<Sequence> passed = new ArrayList<>();
+        for (int i = 0; i < filterPaths.size(); i++) {
+            ViterbiPath path = filterPaths.get(i);
+            if (path.getScore() + ViterbiFilter.maxError(model, path.getSequence()) >= filterThreshold) {
+                passedIndices.add(i);
+                passed.add(path.getSequence());
+            } else if (!path.isFailed()) {
+                filtered.add(path);
+            }
+        }
+        Log.iLine(String.format("Filter stage: %d of %d sequences passed (filter threshold %.3f)", passed.size(), sequences.size(), filterThreshold));
+
+        // stage 2: exact Viterbi
+        List<ViterbiPath> ret = new ArrayList<>(filterPaths);
+        if (!passed.isEmpty()) {
+            List<ViterbiPath> exactPaths = ParallelizationSupporter.viterbiParallelized(model, passed, mode,
+                    ViterbiSchedule.LONGEST_FIRST, budget);
+            for (int i = 0; i < exactPaths.size(); i++) {
+                ret.set(passedIndices.get(i), exactPaths.get(i));
+            }
+        }
+        Log.iLine(String.format("Viterbi stage (%s): %d sequences calculated", mode, passed.size()));
+
+        return ret;
+    }
+
     /**
      * Berechnet den Score-Schwellwert der Sequenzen {@link Sequence} bzw. Zusatnds-Pfade {@link ViterbiPath}, mit dem zwischen rRNA und NonrRNA unterschieden werden soll.
      * Liefert diesen abschliessend zurueck.
      *
-     * @param viterbiPaths zu betrachtende Sequenzen {@link Sequence} bzw. Zusatnds-Pfade {@link ViterbiPath}
+     * Fehlgeschlagene Zustands-Pfade ({@link ViterbiPath#isFailed()}) werden nicht beruecksichtigt.
+     * Vom Filter verworfene Zustands-Pfade gehen mit dem Score des Filters ein.
+     *
+     * @param paths zu betrachtende Sequenzen {@link Sequence} bzw. Zusatnds-Pfade {@link ViterbiPath}
      * @return Score-Schwellwert
      */
-    private static double calcThreshold(final List<ViterbiPath> viterbiPaths) { // TODO improve
+    static double calcThreshold(final List<ViterbiPath> paths) { // TODO improve
+        final List<ViterbiPath> viterbiPaths = new ArrayList<>(paths.size());
+        for (ViterbiPath path : paths) {
+            if (!path.isFailed())
+                viterbiPaths.add(path);
+        }
+
         int stateCount = 2;
         final ArrayList<List<ViterbiPath>> listrRNA = new ArrayList<>(stateCount);
         listrRNA.add(new LinkedList<>()); // 0 = rRNA
@@ -108,7 +312,7 @@ public class RNAProfilHMMMain {
             // average score of all statepaths
             double avgScorePerState = 0d;
             for (ViterbiPath path : viterbiPaths) {
-                avgScorePerState += path.getScore() / path.getStatePath().length;
+                avgScorePerState += path.getScore() / path.getPathLength();
             }
             avgScorePerState /= viterbiPaths.size();
 
@@ -141,6 +345,19 @@ public class RNAProfilHMMMain {
         return threshold;
     }
 
+    /**
+     * Entscheidet anhand des Schwellwertes aus {@link #calcThreshold(List)}, ob der Zustands-Pfad zu einer rRNA gehoert.
+     * Vom Filter verworfene Zustands-Pfade haben bereits den Schwellwert des Filters unterschritten und sind keine rRNA.
+     *
+     * @param path      Zustands-Pfad {@link ViterbiPath}
+     * @param filtered  vom Filter verworfene Zustands-Pfade
+     * @param threshold Score-Schwellwert
+     * @return true, falls rRNA. Ansonsten false.
+     */
+    static boolean decide(final ViterbiPath path, final Set<ViterbiPath> filtered, final double threshold) {
+        return !path.isFailed() && !filtered.contains(path) && path.getScore() >= threshold;
+    }
+
     /**
      * Klassifiziert Sequnze {@link Sequence} bzw Zustands-Pfad {@link ViterbiPath} als rRNA oder NonrRNA
      * anhand uebergebenen Schwellwertes bzgl. durchschnittlichem Score pro Zustand des Pfades.
@@ -152,10 +369,9 @@ public class RNAProfilHMMMain {
      * @return true, falls rRNA. Ansonsten false.
      */
     private static boolean isrRNA(final ViterbiPath path, double thresholdAvgScorePerState) { // TODO improve
-        final char[] statePath = path.getStatePath();
         final double score = path.getScore();
 
-        double scoreAveragePerState = score / statePath.length;
+        double scoreAveragePerState = score / path.getPathLength();
 
         if (scoreAveragePerState >= thresholdAvgScorePerState)
             return false;
@@ -166,15 +382,16 @@ public class RNAProfilHMMMain {
      * Liesst Sequenzen aus Datei an uebergebenem Pfad mittels {@link FastaParser} ein und liefert sie zurueck.
      *
      * @param filePath Pfad zu Datei
+     * @param packed   true, falls die Nukleotid-Sequenzen gepackt ({@link main.fastaparser.PackedNucleotides}) gespeichert werden sollen
      * @return Liste mit Sequenzen
      */
-    private static List<Sequence> readFile(final String filePath) {
+    private static List<Sequence> readFile(final String filePath, final boolean packed) {
 
         List<Sequence> ret = null;
 
         Log.iLine("reading " + filePath);
         try {
-            ret = FastaParser.parseFile(filePath);
+            ret = FastaParser.parseFile(filePath, packed);
         } catch (FileNotFoundException e) {
             Log.eLine("ERROR: file " + filePath + " not found");
             System.exit(1);
@@ -1,16 +1,64 @@
 package main.hmm.profil;
 
+import main.fastaparser.Alphabet;
+import main.fastaparser.BgzfInputStream;
+import main.fastaparser.FastaIndex;
+import main.fastaparser.FastaParser;
+import main.fastaparser.FastaParserException;
+import main.fastaparser.FastaReader;
+import main.fastaparser.MappedFastaParser;
+import main.fastaparser.PackedNucleotides;
 import main.fastaparser.Sequence;
+import main.fastaparser.UncheckedFastaParserException;
 import main.hmm.profil.viterbi.Viterbi;
+import main.hmm.profil.viterbi.ViterbiBanded;
+import main.hmm.profil.viterbi.ViterbiCheckpoint;
+import main.hmm.profil.viterbi.ViterbiMode;
 import main.hmm.profil.viterbi.ViterbiPath;
+import main.hmm.profil.viterbi.ViterbiScorer;
+import main.hmm.profil.viterbi.ViterbiWavefront;
+import main.hmm.profil.viterbi.parallel.ParallelizationSupporter;
+import main.hmm.profil.viterbi.parallel.ViterbiExecutor;
+import main.hmm.profil.viterbi.parallel.ViterbiMemoryBudget;
+import main.hmm.profil.viterbi.parallel.ViterbiPanel;
+import main.hmm.profil.viterbi.parallel.ViterbiPanelResult;
+import main.hmm.profil.viterbi.parallel.ViterbiPipeline;
+import main.hmm.profil.viterbi.parallel.ViterbiSchedule;
+import main.logger.Log;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.runners.Parameterized.Parameter;
 import static org.junit.runners.Parameterized.Parameters;
@@ -60,14 +108,815 @@ public class RNAProfilHMMTest {
      */
     @Test
     public void testViterbiOne() {
-        ArrayList<Sequence> sequences = new ArrayList<>(seqTrain.length);
-        for (int i = 0; i < seqTrain.length; i++) {
-            sequences.add(new Sequence(String.valueOf(i), null, seqTrain[i]));
-        }
-        ProfilHMM model = new RNAProfilHMM(sequences);
+        ProfilHMM model = buildModel();
 
         ViterbiPath path = Viterbi.viterbi(model, new Sequence("test", null, seqTest));
         String stringPath = String.valueOf(path.getStatePath());
         Assert.assertEquals(result, stringPath);
     }
+
+    /**
+     * Test von {@link ViterbiCheckpoint}.
+     * Zustands-Pfad und Score muessen mit {@link Viterbi} uebereinstimmen
+     */
+    @Test
+    public void testViterbiCheckpoint() {
+        ProfilHMM model = buildModel();
+        Sequence sequence = new Sequence("test", null, seqTest);
+
+        ViterbiPath path = ViterbiCheckpoint.viterbi(model, sequence);
+        Assert.assertEquals(result, String.valueOf(path.getStatePath()));
+        Assert.assertEquals(Viterbi.viterbi(model, sequence).getScore(), path.getScore(), 0d);
+    }
+
+    /**
+     * Test von {@link ViterbiWavefront}.
+     * Zustands-Pfad und Score muessen mit {@link Viterbi} uebereinstimmen
+     */
+    @Test
+    public void testViterbiWavefront() {
+        ProfilHMM model = buildModel();
+        Sequence sequence = new Sequence("test", null, seqTest);
+
+        ViterbiPath path = ViterbiWavefront.viterbi(model, sequence);
+        Assert.assertEquals(result, String.valueOf(path.getStatePath()));
+        Assert.assertEquals(Viterbi.viterbi(model, sequence).getScore(), path.getScore(), 0d);
+    }
+
+    /**
+     * Test der Lauflaengenkodierung des Zustands-Pfades in {@link ViterbiPath}
+     */
+    @Test
+    public void testViterbiPathCigar() {
+        ViterbiPath path = Viterbi.viterbi(buildModel(), new Sequence("test", null, seqTest));
+        String cigar = path.getCigar();
+
+        StringBuilder expanded = new StringBuilder();
+        int count = 0;
+        for (char c : cigar.toCharArray()) {
+            if (Character.isDigit(c)) {
+                count = count * 10 + (c - '0');
+            } else {
+                for (int k = 0; k < count; k++) {
+                    expanded.append(c);
+                }
+                count = 0;
+            }
+        }
+        Assert.assertEquals(result, expanded.toString());
+        Assert.assertEquals(result.length(), path.getPathLength());
+        Assert.assertEquals(new String(new ViterbiPath(path.getSequence(), 0d, result.toCharArray()).getStatePath()), result);
+    }
+
+    /**
+     * Test von {@link ViterbiBanded}.
+     * Zustands-Pfad und Score muessen mit {@link Viterbi} uebereinstimmen
+     */
+    @Test
+    public void testViterbiBanded() {
+        ProfilHMM model = buildModel();
+        Sequence sequence = new Sequence("test", null, seqTest);
+
+        ViterbiPath path = ViterbiBanded.viterbi(model, sequence);
+        Assert.assertEquals(result, String.valueOf(path.getStatePath()));
+        Assert.assertEquals(Viterbi.viterbi(model, sequence).getScore(), path.getScore(), 0d);
+    }
+
+    /**
+     * Test von {@link ViterbiScorer}.
+     * Score und Laenge des Zustands-Pfades muessen mit {@link Viterbi} uebereinstimmen
+     */
+    @Test
+    public void testViterbiScorer() {
+        ProfilHMM model = buildModel();
+        Sequence sequence = new Sequence("test", null, seqTest);
+
+        ViterbiPath path = ViterbiScorer.score(model, sequence);
+        Assert.assertEquals(result.length(), path.getPathLength());
+        Assert.assertEquals(Viterbi.viterbi(model, sequence).getScore(), path.getScore(), 0d);
+    }
+
+    /**
+     * Test von {@link PackedNucleotides}.
+     * Gepackte Sequenzen (auch mit Kleinbuchstaben und Gaps als Ausnahmen) muessen unveraendert entpackt werden
+     * und mit {@link Viterbi} denselben Zustands-Pfad liefern
+     */
+    @Test
+    public void testPackedSequence() {
+        ProfilHMM model = buildModel();
+        for (String train : seqTrain) {
+            PackedNucleotides packed = PackedNucleotides.pack(train);
+            Assert.assertEquals(train, packed.toString());
+            for (int i = 0; i < train.length(); i++) {
+                Assert.assertEquals(train.charAt(i), packed.charAt(i));
+            }
+        }
+
+        // lower case bases are packed with a case mask instead of exceptions
+        String mixedCase = seqTest.toLowerCase() + seqTest;
+        PackedNucleotides packedMixed = PackedNucleotides.pack(mixedCase);
+        Assert.assertEquals(mixedCase, packedMixed.toString());
+        Assert.assertEquals(0, packedMixed.getExceptionCount());
+
+        Sequence sequence = new Sequence("test", null, PackedNucleotides.pack(seqTest));
+        Assert.assertEquals(seqTest, sequence.getNucleotideSequence());
+        ViterbiPath path = Viterbi.viterbi(model, sequence);
+        Assert.assertEquals(result, String.valueOf(path.getStatePath()));
+        Assert.assertEquals(Viterbi.viterbi(model, new Sequence("test", null, seqTest)).getScore(), path.getScore(), 0d);
+    }
+
+    /**
+     * Test von {@link Alphabet}.
+     * Kleinbuchstaben liefern denselben Zustands-Pfad, ungueltige Zeichen werden mit Position gemeldet
+     */
+    @Test
+    public void testAlphabet() {
+        ProfilHMM model = buildModel();
+        ViterbiPath path = Viterbi.viterbi(model, new Sequence("test", null, seqTest.toLowerCase()));
+        Assert.assertEquals(result, String.valueOf(path.getStatePath()));
+
+        int[] indices = new int[seqTest.length() + 1];
+        Alphabet alphabet = new Alphabet(new char[]{'A', 'C', 'G', 'U'}, true);
+        Assert.assertEquals(seqTest.length(), alphabet.encode(seqTest + 'N', indices));
+        Assert.assertEquals(seqTest.length(), alphabet.encode(seqTest, indices)); // all valid
+        Assert.assertEquals(seqTest.length(), PackedNucleotides.pack(seqTest).toIndices(alphabet, indices));
+        Assert.assertEquals(0, alphabet.encode("N" + seqTest, indices));
+        try {
+            model.observationsToIndices(new Sequence("test", null, PackedNucleotides.pack(seqTest + 'N')));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("position " + seqTest.length()));
+        }
+    }
+
+    /**
+     * Test von {@link ViterbiExecutor}.
+     * Jede Sequenz liefert ihr eigenes Future, ein ungueltiges Zeichen schliesst nur das Future dieser Sequenz mit einer Ausnahme ab
+     */
+    @Test
+    public void testViterbiExecutor() throws Exception {
+        ProfilHMM model = buildModel();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ViterbiExecutor executor = new ViterbiExecutor(pool, model, ViterbiMode.FULL);
+            List<Sequence> sequences = Arrays.asList(new Sequence("a", null, seqTest), new Sequence("b", null, seqTest + 'N'));
+            List<CompletableFuture<ViterbiPath>> futures = executor.submitAll(sequences);
+            Assert.assertEquals(result, String.valueOf(futures.get(0).get().getStatePath()));
+            try {
+                futures.get(1).get(); // invalid character fails only this sequence
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Test des Abbruchs in {@link ViterbiExecutor}.
+     * Eine vor dem Start abgebrochene Aufgabe wird uebersprungen und reserviert keinen Speicher
+     */
+    @Test
+    public void testViterbiExecutorCancel() {
+        final List<Runnable> queued = new ArrayList<>();
+        Executor queue = new Executor() { // runs tasks only when asked
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        };
+        ViterbiMemoryBudget budget = new ViterbiMemoryBudget(1L << 30);
+        ViterbiExecutor executor = new ViterbiExecutor(queue, buildModel(), ViterbiMode.FULL, budget, 0);
+        List<CompletableFuture<ViterbiPath>> futures = executor.submitAll(Arrays.asList(
+                new Sequence("a", null, seqTest), new Sequence("b", null, seqTest)));
+        Assert.assertEquals(2, queued.size());
+
+        futures.get(1).cancel(false);
+        for (Runnable task : queued) {
+            task.run();
+        }
+        Assert.assertEquals(result, String.valueOf(futures.get(0).join().getStatePath()));
+        Assert.assertTrue(futures.get(1).isCancelled());
+        Assert.assertEquals(budget.getCapacity(), budget.getAvailable());
+
+        ViterbiExecutor.cancelAll(futures); // completed futures stay completed
+        Assert.assertFalse(futures.get(0).isCancelled());
+    }
+
+    /**
+     * Test der Zeitbegrenzung in {@link ViterbiExecutor}.
+     * Eine Berechnung, die laenger als die Zeitbegrenzung (hier auf Speicher) wartet, wird mit {@link TimeoutException} abgeschlossen
+     */
+    @Test(timeout = 60000)
+    public void testViterbiExecutorTimeout() throws Exception {
+        ViterbiMemoryBudget budget = new ViterbiMemoryBudget(1L << 30);
+        long reserved = budget.acquire(budget.getCapacity()); // calculation blocks until released
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            ViterbiExecutor executor = new ViterbiExecutor(pool, buildModel(), ViterbiMode.FULL, budget, 50);
+            CompletableFuture<ViterbiPath> future = executor.submit(new Sequence("a", null, seqTest));
+            try {
+                future.get();
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof TimeoutException);
+            }
+        } finally {
+            budget.release(reserved);
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(budget.getCapacity(), budget.getAvailable());
+    }
+
+    /**
+     * Test von {@link ViterbiPanel}.
+     * Scores und bestes Modell stimmen mit {@link ViterbiScorer} ueberein, ein ungueltiges Zeichen schliesst nur die Zeile
+     * der Sequenz mit {@link Double#NaN} ab, ein Fehler beim Einlesen wird an den Aufrufer weitergegeben
+     */
+    @Test(timeout = 60000)
+    public void testViterbiPanel() {
+        ProfilHMM model = buildModel();
+        ProfilHMM modelFirst = new RNAProfilHMM(Arrays.asList(new Sequence("0", null, seqTrain[0])));
+        List<Sequence> sequences = Arrays.asList(new Sequence("a", null, seqTest), new Sequence("b", null, seqTest + 'N'));
+        ViterbiPanel panel = new ViterbiPanel(Arrays.asList(model, modelFirst), ViterbiMode.SCORE, new ViterbiMemoryBudget(1L << 30));
+        ViterbiPanelResult panelResult = panel.score(sequences.iterator(), 2);
+
+        Assert.assertEquals(2, panelResult.getSequenceCount());
+        Assert.assertEquals(2, panelResult.getModelCount());
+        double score = ViterbiScorer.score(model, sequences.get(0)).getScore();
+        double scoreFirst = ViterbiScorer.score(modelFirst, sequences.get(0)).getScore();
+        Assert.assertEquals(score, panelResult.getScore(0, 0), 0d);
+        Assert.assertEquals(scoreFirst, panelResult.getScore(0, 1), 0d);
+        Assert.assertEquals(score >= scoreFirst ? 0 : 1, panelResult.getBestModel(0));
+        Assert.assertNull(panelResult.getError(0));
+        // invalid character fails only this sequence
+        Assert.assertTrue(Double.isNaN(panelResult.getScore(1, 0)));
+        Assert.assertEquals(-1, panelResult.getBestModel(1));
+        Assert.assertNotNull(panelResult.getError(1));
+        // reading errors are passed to the caller
+        try {
+            panel.score(failingIterator(3), 2);
+            Assert.fail();
+        } catch (UncheckedFastaParserException e) {
+            Assert.assertEquals("invalid line 7", e.getMessage());
+        }
+    }
+
+    /**
+     * Test des Filters in {@link RNAProfilHMMMain}.
+     * Mit Filter werden dieselben rRNA-Entscheidungen getroffen wie ohne Filter
+     */
+    @Test
+    public void testViterbiFiltered() {
+        ProfilHMM model = buildModel();
+        List<Sequence> sequences = new ArrayList<>();
+        String[] others = {"GGGGGGGGGGGGGGGGGGGGGGGG", "CCCCCCCCCCCCCCCCCCCCCCCCCCCCCC", "GCGCGCGCGCGCGCGCGCGC", "UUUUUUUUUUUUUUUU"};
+        for (int i = 0; i < others.length; i++) {
+            sequences.add(new Sequence("rRNA " + i, null, i % 2 == 0 ? seqTest : seqTrain[0]));
+            sequences.add(new Sequence("other " + i, null, others[i]));
+        }
+        ViterbiMemoryBudget budget = new ViterbiMemoryBudget(1L << 30);
+
+        List<ViterbiPath> paths = ParallelizationSupporter.viterbiParallelized(model, sequences, ViterbiMode.FULL,
+                ViterbiSchedule.LONGEST_FIRST, budget);
+        double threshold = RNAProfilHMMMain.calcThreshold(paths);
+        Set<ViterbiPath> filtered = new HashSet<>();
+        List<ViterbiPath> filterPaths = RNAProfilHMMMain.viterbiFiltered(model, sequences, ViterbiMode.FULL, budget, filtered);
+        double filterThreshold = RNAProfilHMMMain.calcThreshold(filterPaths);
+
+        Assert.assertFalse(filtered.isEmpty());
+        for (int i = 0; i < sequences.size(); i++) {
+            Assert.assertEquals(sequences.get(i).getDescription(),
+                    RNAProfilHMMMain.decide(paths.get(i), Collections.<ViterbiPath>emptySet(), threshold),
+                    RNAProfilHMMMain.decide(filterPaths.get(i), filtered, filterThreshold));
+        }
+    }
+
+    /**
+     * Test von {@link ParallelizationSupporter}.
+     * Die Threads verteilen Liste und Iterator untereinander, die Ergebnisse stehen in der Reihenfolge der Sequenzen
+     */
+    @Test
+    public void testViterbiParallelized() {
+        ProfilHMM model = buildModel();
+        List<Sequence> sequences = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            sequences.add(new Sequence(String.valueOf(i), null, i % 3 == 0 ? seqTest : seqTrain[0]));
+        }
+
+        List<List<ViterbiPath>> results = new ArrayList<>();
+        results.add(ParallelizationSupporter.viterbiParallelized(model, sequences, ViterbiMode.FULL,
+                ViterbiSchedule.INPUT_ORDER, new ViterbiMemoryBudget(1L << 30)));
+        results.add(ParallelizationSupporter.viterbiParallelized(model, sequences.iterator(), ViterbiMode.SCORE,
+                new ViterbiMemoryBudget(1L << 30)));
+        for (List<ViterbiPath> paths : results) {
+            Assert.assertEquals(sequences.size(), paths.size());
+            for (int i = 0; i < sequences.size(); i++) {
+                Assert.assertSame(sequences.get(i), paths.get(i).getSequence());
+                Assert.assertEquals(Viterbi.viterbi(model, sequences.get(i)).getScore(), paths.get(i).getScore(), 0d);
+            }
+        }
+    }
+
+    /**
+     * Test der Fehlerbehandlung in {@link ParallelizationSupporter}.
+     * Eine Sequenz mit ungueltigem Zeichen liefert an ihrer Position einen fehlgeschlagenen Zustands-Pfad,
+     * die uebrigen Sequenzen werden berechnet
+     */
+    @Test
+    public void testViterbiParallelizedFailure() {
+        ProfilHMM model = buildModel();
+        List<Sequence> sequences = Arrays.asList(new Sequence("a", null, seqTest), new Sequence("b", null, seqTest + 'N'),
+                new Sequence("c", null, seqTrain[0]));
+        for (ViterbiMode mode : new ViterbiMode[]{ViterbiMode.FULL, ViterbiMode.SCORE}) {
+            List<ViterbiPath> paths = ParallelizationSupporter.viterbiParallelized(model, sequences, mode,
+                    ViterbiSchedule.LONGEST_FIRST, new ViterbiMemoryBudget(1L << 30));
+            Assert.assertEquals(sequences.size(), paths.size());
+            Assert.assertFalse(paths.get(0).isFailed());
+            Assert.assertEquals(Viterbi.viterbi(model, sequences.get(0)).getScore(), paths.get(0).getScore(), 0d);
+            Assert.assertTrue(paths.get(1).isFailed());
+            Assert.assertSame(sequences.get(1), paths.get(1).getSequence());
+            Assert.assertTrue(paths.get(1).getError().contains("position " + seqTest.length()));
+            Assert.assertFalse(paths.get(2).isFailed());
+            Assert.assertEquals(Viterbi.viterbi(model, sequences.get(2)).getScore(), paths.get(2).getScore(), 0d);
+        }
+    }
+
+    /**
+     * Test von {@link ViterbiSchedule}.
+     * {@link ViterbiSchedule#LONGEST_FIRST} verteilt absteigend nach Kosten (gleiche Kosten in Eingabe-Reihenfolge),
+     * die Ergebnisse stehen trotzdem in der Reihenfolge der Sequenzen
+     */
+    @Test
+    public void testViterbiSchedule() {
+        long[] costs = {5, 20, 5, 0, 20, 7};
+        Assert.assertEquals(Arrays.toString(new int[]{0, 1, 2, 3, 4, 5}), Arrays.toString(ViterbiSchedule.INPUT_ORDER.order(costs)));
+        Assert.assertEquals(Arrays.toString(new int[]{1, 4, 5, 0, 2, 3}), Arrays.toString(ViterbiSchedule.LONGEST_FIRST.order(costs)));
+
+        ProfilHMM model = buildModel();
+        StringBuilder longSequence = new StringBuilder();
+        for (int k = 0; k < 10; k++) {
+            longSequence.append(seqTrain[0]);
+        }
+        List<Sequence> sequences = Arrays.asList(new Sequence("a", null, seqTest), new Sequence("b", null, seqTrain[0]),
+                new Sequence("c", null, longSequence.toString()));
+        Assert.assertEquals(ViterbiSchedule.cost(model, sequences.get(2)), (long) longSequence.length() * model.getLengthModel());
+        List<ViterbiPath> paths = ParallelizationSupporter.viterbiParallelized(model, sequences, ViterbiMode.FULL,
+                ViterbiSchedule.LONGEST_FIRST, new ViterbiMemoryBudget(1L << 30));
+        for (int i = 0; i < sequences.size(); i++) {
+            Assert.assertSame(sequences.get(i), paths.get(i).getSequence());
+            Assert.assertEquals(Viterbi.viterbi(model, sequences.get(i)).getScore(), paths.get(i).getScore(), 0d);
+        }
+    }
+
+    /**
+     * Test von {@link ViterbiPipeline}.
+     * Ergebnisse kommen in der Reihenfolge der Sequenzen, eine Ausnahme des {@link ViterbiPipeline.ResultWriter}
+     * beendet die Pipeline, statt sie zu blockieren
+     */
+    @Test(timeout = 60000)
+    public void testViterbiPipeline() {
+        ProfilHMM model = buildModel();
+        List<Sequence> sequences = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            sequences.add(new Sequence(String.valueOf(i), null, i % 2 == 0 ? seqTest : seqTrain[0]));
+        }
+
+        final List<ViterbiPath> paths = new ArrayList<>();
+        int count = ViterbiPipeline.run(model, sequences.iterator(), ViterbiMode.FULL, 2, 2, new ViterbiMemoryBudget(1L << 30),
+                new ViterbiPipeline.ResultWriter() {
+                    @Override
+                    public void write(int index, ViterbiPath path) {
+                        Assert.assertEquals(paths.size(), index);
+                        paths.add(path);
+                    }
+                });
+        Assert.assertEquals(sequences.size(), count);
+        for (int i = 0; i < sequences.size(); i++) {
+            Assert.assertSame(sequences.get(i), paths.get(i).getSequence());
+            Assert.assertEquals(Viterbi.viterbi(model, sequences.get(i)).getScore(), paths.get(i).getScore(), 0d);
+        }
+
+        try {
+            ViterbiPipeline.run(model, sequences.iterator(), ViterbiMode.FULL, 2, 2, new ViterbiMemoryBudget(1L << 30),
+                    new ViterbiPipeline.ResultWriter() {
+                        @Override
+                        public void write(int index, ViterbiPath path) {
+                            if (index == 3)
+                                throw new IllegalStateException("output closed");
+                        }
+                    });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("output closed", e.getMessage());
+        }
+        Assert.assertEquals("path without sequence", new ViterbiPath(null, 0d, 1).toString());
+    }
+
+    /**
+     * Test der Fehler beim Einlesen in {@link ParallelizationSupporter} und {@link ViterbiPipeline}.
+     * Scheitert der Iterator, wird seine Ausnahme an den Aufrufer weitergegeben, statt das Programm zu beenden
+     */
+    @Test(timeout = 60000)
+    public void testViterbiSourceFailure() {
+        ProfilHMM model = buildModel();
+        try {
+            ParallelizationSupporter.viterbiParallelized(model, failingIterator(5), ViterbiMode.FULL, new ViterbiMemoryBudget(1L << 30));
+            Assert.fail();
+        } catch (UncheckedFastaParserException e) {
+            Assert.assertEquals("invalid line 11", e.getMessage());
+        }
+        try {
+            ViterbiPipeline.run(model, failingIterator(5), ViterbiMode.FULL, 2, 2, new ViterbiMemoryBudget(1L << 30),
+                    new ViterbiPipeline.ResultWriter() {
+                        @Override
+                        public void write(int index, ViterbiPath path) {
+                        }
+                    });
+            Assert.fail();
+        } catch (UncheckedFastaParserException e) {
+            Assert.assertEquals("invalid line 11", e.getMessage());
+        }
+    }
+
+    /**
+     * Test von {@link ViterbiMemoryBudget}.
+     * Eine Reservierung wartet, bis genug Speicher frei ist. Sequenzen ueber dem Budget werden mit {@link ViterbiMode#CHECKPOINT}
+     * berechnet und liefern dieselben Zustands-Pfade. Mit Debug-Ausgabe enthaelt die Schaetzung fuer {@link ViterbiMode#FULL} die gesamte Matrix
+     */
+    @Test
+    public void testViterbiMemoryBudget() throws Exception {
+        final ViterbiMemoryBudget budget = new ViterbiMemoryBudget(100);
+        long reserved = budget.acquire(1000); // at most the capacity
+        Assert.assertEquals(100, reserved);
+        Assert.assertEquals(0, budget.getAvailable());
+
+        final long[] second = new long[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    second[0] = budget.acquire(60);
+                } catch (InterruptedException e) {
+                    second[0] = -1;
+                }
+            }
+        };
+        thread.start();
+        thread.join(200);
+        Assert.assertTrue(thread.isAlive()); // blocked until released
+        budget.release(reserved);
+        thread.join();
+        Assert.assertEquals(60, second[0]);
+        Assert.assertEquals(40, budget.getAvailable());
+
+        ProfilHMM model = buildModel();
+        ViterbiMemoryBudget tiny = new ViterbiMemoryBudget(1);
+        Assert.assertEquals(ViterbiMode.CHECKPOINT, tiny.route(model, 1 << 20, ViterbiMode.FULL, "long"));
+        Assert.assertEquals(ViterbiMode.SCORE, tiny.route(model, 1 << 20, ViterbiMode.SCORE, "long"));
+        Assert.assertEquals(ViterbiMode.FULL, budget.route(model, seqTest.length(), ViterbiMode.FULL, "short"));
+
+        List<Sequence> sequences = Arrays.asList(new Sequence("a", null, seqTest), new Sequence("b", null, seqTrain[0]));
+        List<ViterbiPath> paths = ParallelizationSupporter.viterbiParallelized(model, sequences, ViterbiMode.FULL,
+                ViterbiSchedule.LONGEST_FIRST, tiny);
+        for (int i = 0; i < sequences.size(); i++) {
+            ViterbiPath expected = Viterbi.viterbi(model, sequences.get(i));
+            Assert.assertEquals(String.valueOf(expected.getStatePath()), String.valueOf(paths.get(i).getStatePath()));
+            Assert.assertEquals(expected.getScore(), paths.get(i).getScore(), 0d);
+        }
+        Assert.assertEquals(1, tiny.getAvailable()); // all released
+
+        // debug output keeps the whole matrix of FULL
+        long estimate = ViterbiMode.FULL.estimateBytes(model, 100);
+        Log.setPrintDebug(true);
+        try {
+            Assert.assertEquals(estimate + 99L * Double.BYTES * model.getLengthModel() * ProfilHMM.STATE_COUNT,
+                    ViterbiMode.FULL.estimateBytes(model, 100));
+        } finally {
+            Log.setPrintDebug(false);
+        }
+    }
+
+    /**
+     * Test von {@link FastaIndex}.
+     * Der Index wird unter eigener Endung gespeichert und wieder geladen, Eintraege und Bereiche decken alle Sequenzen ab
+     */
+    @Test
+    public void testFastaIndex() throws Exception {
+        Path directory = Files.createTempDirectory("fastaindex");
+        Path file = writeFasta(directory, seqTrain, 4, "\n", false);
+        try {
+            for (int pass = 0; pass < 2; pass++) { // build and save, then reload
+                try (FastaIndex index = FastaIndex.open(file.toString())) {
+                    Assert.assertTrue(Files.exists(Paths.get(file + FastaIndex.SUFFIX)));
+                    Assert.assertEquals(seqTrain.length, index.size());
+                    for (int n = 0; n < seqTrain.length; n++) {
+                        Assert.assertEquals(String.valueOf(n), index.getEntry(n).getName());
+                        Assert.assertEquals(seqTrain[n].length(), index.getEntry(n).getLength());
+                        Assert.assertEquals(seqTrain[n], index.get(n).getNucleotideSequence());
+                    }
+
+                    int[] bounds = index.shardBounds(3);
+                    Assert.assertEquals(0, bounds[0]);
+                    Assert.assertEquals(seqTrain.length, bounds[3]);
+                    int n = 0;
+                    for (int k = 0; k < 3; k++) {
+                        Assert.assertTrue(bounds[k] <= bounds[k + 1]);
+                        Iterator<Sequence> iterator = index.iterator(bounds[k], bounds[k + 1], true);
+                        while (iterator.hasNext()) {
+                            Assert.assertEquals(seqTrain[n++], iterator.next().getNucleotideSequence());
+                        }
+                    }
+                    Assert.assertEquals(seqTrain.length, n);
+                }
+            }
+            Assert.assertFalse(Files.exists(Paths.get(file + ".fai")));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Test von {@link FastaParser}, {@link FastaReader} und {@link MappedFastaParser}.
+     * Umbrochene Eintraege (60 Spalten, CRLF, Leerzeilen und Kommentare) liefern die unveraenderten Sequenzen
+     */
+    @Test
+    public void testFastaWrapped() throws Exception {
+        String[] nucleotides = new String[seqTrain.length];
+        for (int n = 0; n < seqTrain.length; n++) {
+            StringBuilder repeated = new StringBuilder();
+            for (int k = 0; k < 20; k++) {
+                repeated.append(k % 2 == 0 ? seqTrain[n] : seqTrain[n].toLowerCase());
+            }
+            nucleotides[n] = repeated.toString();
+        }
+        Path directory = Files.createTempDirectory("fastawrapped");
+        Path file = writeFasta(directory, nucleotides, 60, "\r\n", true);
+        try {
+            List<List<Sequence>> parsed = new ArrayList<>();
+            parsed.add(FastaParser.parseFile(file.toString(), false));
+            parsed.add(FastaParser.parseFile(file.toString(), true));
+            parsed.add(MappedFastaParser.parseFile(file.toString(), false));
+            parsed.add(MappedFastaParser.parseFile(file.toString(), true));
+            for (boolean packed : new boolean[]{false, true}) {
+                List<Sequence> read = new ArrayList<>();
+                try (FastaReader reader = new FastaReader(file.toString(), packed)) {
+                    while (reader.hasNext()) {
+                        read.add(reader.next());
+                    }
+                }
+                parsed.add(read);
+            }
+
+            for (List<Sequence> sequences : parsed) {
+                Assert.assertEquals(nucleotides.length, sequences.size());
+                for (int n = 0; n < nucleotides.length; n++) {
+                    Sequence sequence = sequences.get(n);
+                    Assert.assertEquals(n + " test", sequence.getDescription());
+                    Assert.assertEquals("first\nsecond", sequence.getComments());
+                    Assert.assertEquals(nucleotides[n], sequence.getNucleotideSequence());
+                }
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Test von {@link MappedFastaParser}.
+     * Bei jeder Abschnittsgroesse (Grenzen innerhalb von Beschreibung, Kommentar, Sequenz-Zeile und Zeilenumbruch)
+     * werden dieselben Sequenzen wie mit {@link FastaParser} geliefert
+     */
+    @Test
+    public void testMappedFastaChunks() throws Exception {
+        Path directory = Files.createTempDirectory("fastachunks");
+        Path file = writeFasta(directory, seqTrain, 4, "\r\n", true);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            List<Sequence> expected = FastaParser.parseFile(file.toString(), false);
+            int fileSize = (int) Files.size(file);
+            for (int chunkSize = 1; chunkSize <= fileSize; chunkSize++) {
+                List<Sequence> sequences = MappedFastaParser.parseFile(file.toString(), pool, chunkSize % 2 == 0, chunkSize);
+                Assert.assertEquals("chunk size " + chunkSize, expected.size(), sequences.size());
+                for (int n = 0; n < expected.size(); n++) {
+                    Assert.assertEquals(expected.get(n).getDescription(), sequences.get(n).getDescription());
+                    Assert.assertEquals(expected.get(n).getComments(), sequences.get(n).getComments());
+                    Assert.assertEquals(expected.get(n).getNucleotideSequence(), sequences.get(n).getNucleotideSequence());
+                }
+            }
+        } finally {
+            pool.shutdown();
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Test von {@link FastaParser#stream(String, boolean)}.
+     * Sequentieller und paralleler Stream liefern die Sequenzen in der Reihenfolge der Datei,
+     * Fehler beim Parsen werden als {@link UncheckedFastaParserException} ausgeloesst
+     */
+    @Test
+    public void testFastaStream() throws Exception {
+        String[] nucleotides = new String[200];
+        for (int n = 0; n < nucleotides.length; n++) {
+            nucleotides[n] = seqTrain[n % seqTrain.length];
+        }
+        Path directory = Files.createTempDirectory("fastastream");
+        Path file = writeFasta(directory, nucleotides, 4, "\n", false);
+        try {
+            for (boolean parallel : new boolean[]{false, true}) {
+                List<Sequence> sequences;
+                try (Stream<Sequence> stream = FastaParser.stream(file.toString(), parallel)) {
+                    Assert.assertEquals(parallel, stream.isParallel());
+                    sequences = stream.collect(Collectors.toList()); // keeps encounter order
+                }
+                Assert.assertEquals(nucleotides.length, sequences.size());
+                for (int n = 0; n < nucleotides.length; n++) {
+                    Assert.assertEquals(String.valueOf(n), sequences.get(n).getDescription());
+                    Assert.assertEquals(nucleotides[n], sequences.get(n).getNucleotideSequence());
+                }
+            }
+
+            Files.write(file, "ACGU\n>0\nACGU\n".getBytes(StandardCharsets.UTF_8));
+            try (Stream<Sequence> stream = FastaParser.stream(file.toString(), false)) {
+                stream.count();
+                Assert.fail();
+            } catch (UncheckedFastaParserException e) {
+                Assert.assertTrue(e.getCause().getMessage().contains("Missing description"));
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Test von {@link BgzfInputStream} und der gzip-Erkennung in {@link FastaParser}.
+     * gzip- und BGZF-Dateien (mehrere Bloecke) liefern dieselben Sequenzen wie die unkomprimierte Datei,
+     * ein Block mit ungueltiger Groesse wird vor dem Allokieren abgelehnt
+     */
+    @Test
+    public void testFastaCompressed() throws Exception {
+        Path directory = Files.createTempDirectory("fastacompressed");
+        Path file = writeFasta(directory, seqTrain, 4, "\n", true);
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            Path gzip = directory.resolve("test.fasta.gz");
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+                out.write(bytes);
+            }
+            Path bgzf = directory.resolve("test.fasta.bgz");
+            Files.write(bgzf, bgzf(bytes, 50, -1));
+
+            List<Sequence> expected = FastaParser.parseFile(file.toString(), false);
+            for (Path compressed : new Path[]{gzip, bgzf}) {
+                List<Sequence> sequences = FastaParser.parseFile(compressed.toString(), false);
+                Assert.assertEquals(expected.size(), sequences.size());
+                for (int n = 0; n < expected.size(); n++) {
+                    Assert.assertEquals(expected.get(n).getDescription(), sequences.get(n).getDescription());
+                    Assert.assertEquals(expected.get(n).getNucleotideSequence(), sequences.get(n).getNucleotideSequence());
+                }
+            }
+
+            try (InputStream in = new BgzfInputStream(new ByteArrayInputStream(bgzf(bytes, 50, 1 << 20)))) {
+                in.read();
+                Assert.fail();
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().contains("invalid BGZF block size"));
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Liefert einen Iterator zurueck, der count Sequenzen liefert und dann wie ein {@link FastaReader}
+     * beim Parsen scheitert
+     *
+     * @param count Anzahl der Sequenzen vor dem Fehler
+     * @return Iterator
+     */
+    private Iterator<Sequence> failingIterator(final int count) {
+        return new Iterator<Sequence>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Sequence next() {
+                if (index == count)
+                    throw new UncheckedFastaParserException(new FastaParserException("invalid line " + (2 * index + 1)));
+                return new Sequence(String.valueOf(index++), null, seqTest);
+            }
+        };
+    }
+
+    /**
+     * Komprimiert die Bytes im BGZF-Format (Bloecke mit hoechstens blockSize Bytes und abschliessender leerer Block)
+     *
+     * @param bytes     unkomprimierte Bytes
+     * @param blockSize Bytes pro Block
+     * @param isize     Groesse, die im ersten Block angegeben wird, oder -1 fuer die tatsaechliche Groesse
+     * @return komprimierte Bytes
+     */
+    private static byte[] bgzf(byte[] bytes, int blockSize, int isize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int offset = 0;
+        do {
+            int length = Math.min(blockSize, bytes.length - offset);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            byte[] data = new byte[length + 64];
+            int dataLength = deflater.deflate(data);
+            deflater.end();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, offset, length);
+
+            int size = 18 + dataLength + 8; // header with BC field, data, trailer
+            out.write(new byte[]{31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 'B', 'C', 2, 0}, 0, 16);
+            writeInt(out, size - 1, 2);
+            out.write(data, 0, dataLength);
+            writeInt(out, (int) crc.getValue(), 4);
+            writeInt(out, offset == 0 && isize >= 0 ? isize : length, 4);
+            offset += length;
+        } while (offset < bytes.length);
+        byte[] eof = {31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 'B', 'C', 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+        out.write(eof, 0, eof.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Schreibt die Zahl little endian
+     *
+     * @param out       Ziel
+     * @param value     Zahl
+     * @param byteCount Anzahl der Bytes
+     */
+    private static void writeInt(ByteArrayOutputStream out, int value, int byteCount) {
+        for (int k = 0; k < byteCount; k++) {
+            out.write(value >>> (8 * k));
+        }
+    }
+
+    /**
+     * Schreibt die Nukleotid-Sequenzen als .fasta Datei mit Beschreibung gleich Position und Zeilen der uebergebenen Breite
+     *
+     * @param directory   Verzeichnis
+     * @param nucleotides Nukleotid-Sequenzen
+     * @param lineWidth   Nukleotide pro Zeile
+     * @param newline     Zeilenumbruch
+     * @param decorated   true, falls Beschreibungen mit Zusatz (" test"), zwei Kommentar-Zeilen ("first", "second")
+     *                    und Leerzeilen geschrieben werden sollen
+     * @return Pfad der Datei
+     * @throws IOException falls beim schreiben Fehler auftritt
+     */
+    private static Path writeFasta(Path directory, String[] nucleotides, int lineWidth, String newline, boolean decorated) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (int n = 0; n < nucleotides.length; n++) {
+            out.append('>').append(n).append(decorated ? " test" : "").append(newline);
+            if (decorated)
+                out.append(";first").append(newline).append(";second").append(newline).append(newline);
+            for (int k = 0; k < nucleotides[n].length(); k += lineWidth) {
+                out.append(nucleotides[n], k, Math.min(nucleotides[n].length(), k + lineWidth)).append(newline);
+            }
+            if (decorated)
+                out.append(newline);
+        }
+        Path file = directory.resolve("test.fasta");
+        Files.write(file, out.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Loescht das Verzeichnis mit allen enthaltenen Dateien
+     *
+     * @param directory Verzeichnis
+     * @throws IOException falls beim loeschen Fehler auftritt
+     */
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Erstellt das Modell aus den Trainings-Sequenzen
+     *
+     * @return Modell
+     */
+    private ProfilHMM buildModel() {
+        ArrayList<Sequence> sequences = new ArrayList<>(seqTrain.length);
+        for (int i = 0; i < seqTrain.length; i++) {
+            sequences.add(new Sequence(String.valueOf(i), null, seqTrain[i]));
+        }
+        return new RNAProfilHMM(sequences);
+    }
 }
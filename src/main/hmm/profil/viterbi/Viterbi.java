@@ -4,8 +4,7 @@ import main.fastaparser.Sequence;
 import main.hmm.profil.ProfilHMM;
 import main.logger.Log;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Enthaelt die Implementation des Viterbi-Algorithmus fuer logarithmische Werte.
@@ -15,9 +14,27 @@ import java.util.List;
  */
 public class Viterbi {
 
+    /**
+     * Gibt an, ob das Modul jdk.incubator.vector geladen ist (JVM-Argument --add-modules jdk.incubator.vector)
+     */
+    private static final boolean VECTOR_MODULE_PRESENT = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    /**
+     * Liefert zurueck, ob die vektorisierte Implementation ({@link ViterbiVector}) verwendet werden kann.
+     * Dazu muss das Modul jdk.incubator.vector geladen sein und die Hardware SIMD unterstuetzen.
+     *
+     * @return true, falls die vektorisierte Implementation verfuegbar ist
+     */
+    public static boolean isVectorAvailable() {
+        return VECTOR_MODULE_PRESENT && ViterbiVector.isSupported();
+    }
+
     /**
      * Implementation des Viterbi-Algorithmus fuer bereits logarithmierte Werte.
      * Liefert den wahrscheinlichsten Zustands-Pfad mit score bei uebergebenen Beobachtungen zurueck.
+     * <p>
+     * Falls verfuegbar ({@link #isVectorAvailable()}) und keine Debug-Ausgabe erfolgt,
+     * wird die vektorisierte Implementation {@link ViterbiVector} verwendet.
      *
      * @param model    Profil Hidden Markov Model
      * @param sequence Beobachtungsfolge
@@ -26,103 +43,91 @@ public class Viterbi {
      *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
      */
     public static ViterbiPath viterbi(final ProfilHMM model, final Sequence sequence) throws IllegalArgumentException {
+        return viterbi(model, sequence, new ViterbiWorkspace());
+    }
+
+    /**
+     * Implementation des Viterbi-Algorithmus fuer bereits logarithmierte Werte mit wiederverwendetem Arbeitsspeicher.
+     * Liefert den wahrscheinlichsten Zustands-Pfad mit score bei uebergebenen Beobachtungen zurueck.
+     * <p>
+     * Bei wiederholten Aufrufen mit demselben Arbeitsspeicher wird pro Sequenz nur das Ergebnis neu angelegt.
+     *
+     * @param model     Profil Hidden Markov Model
+     * @param sequence  Beobachtungsfolge
+     * @param workspace Arbeitsspeicher (nicht gleichzeitig von mehreren Threads verwenden)
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     * @see #viterbi(ProfilHMM, Sequence)
+     */
+    public static ViterbiPath viterbi(final ProfilHMM model, final Sequence sequence, final ViterbiWorkspace workspace) throws IllegalArgumentException {
+        if (!Log.isPrintDebug() && isVectorAvailable())
+            return ViterbiVector.viterbi(model, sequence, workspace);
+        return viterbiScalar(model, sequence, workspace);
+    }
+
+    /**
+     * Skalare Implementation des Viterbi-Algorithmus fuer bereits logarithmierte Werte.
+     * Liefert den wahrscheinlichsten Zustands-Pfad mit score bei uebergebenen Beobachtungen zurueck.
+     *
+     * @param model    Profil Hidden Markov Model
+     * @param sequence Beobachtungsfolge
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    static ViterbiPath viterbiScalar(final ProfilHMM model, final Sequence sequence) throws IllegalArgumentException {
+        return viterbiScalar(model, sequence, new ViterbiWorkspace());
+    }
+
+    /**
+     * Skalare Implementation des Viterbi-Algorithmus mit wiederverwendetem Arbeitsspeicher.
+     *
+     * @param model     Profil Hidden Markov Model
+     * @param sequence  Beobachtungsfolge
+     * @param workspace Arbeitsspeicher
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    static ViterbiPath viterbiScalar(final ProfilHMM model, final Sequence sequence, final ViterbiWorkspace workspace) throws IllegalArgumentException {
         if (sequence == null)
             throw new IllegalArgumentException("sequence is null");
 
         // init
-        char[] observations = sequence.getNucleotideSequence().toCharArray();
-        int[] observationIndices = model.observationsToIndices(observations);
-        int length = observationIndices.length + 1;
+        int[] observationIndices = workspace.observationIndices(model, sequence);
+        int length = sequence.length() + 1;
 
         // FILL MATRIX ----------------------------------------------------------------------------------
         int lengthModel = model.getLengthModel();
-        double[][][] viterbiVar = new double[ProfilHMM.STATE_COUNT][length][lengthModel];
-        int[][][] viterbiArg = new int[ProfilHMM.STATE_COUNT][length][lengthModel];
-
-        // init
-        {
-            double initValue = Double.NEGATIVE_INFINITY;
-
-            int stateIndex = ProfilHMM.STATE_MATCH_INDEX;
-            viterbiVar[stateIndex][0][0] = 0d;
-            viterbiArg[stateIndex][0][0] = -1;
-            for (int j = 1; j < lengthModel; j++) {
-                viterbiVar[stateIndex][0][j] = initValue;
-            }
-            for (int i = 1; i < length; i++) {
-                viterbiVar[stateIndex][i][0] = initValue;
-            }
-
-            stateIndex = ProfilHMM.STATE_INSERT_INDEX;
-            for (int j = 0; j < lengthModel; j++) {
-                viterbiVar[stateIndex][0][j] = initValue;
-            }
-
-            stateIndex = ProfilHMM.STATE_DELETE_INDEX;
-            for (int i = 0; i < length; i++) {
-                viterbiVar[stateIndex][i][0] = initValue;
-            }
-        }
+        int rowSize = lengthModel * ProfilHMM.STATE_COUNT;
+        // only the last row of viterbiVar is needed for the backtrace, the whole matrix is only kept for debug output
+        boolean keepMatrix = Log.isPrintDebug();
+        if (!ViterbiTraceback.fits((long) length * lengthModel) || (keepMatrix && (long) length * rowSize > Integer.MAX_VALUE - 8))
+            throw new IllegalArgumentException("sequence " + sequence.getDescription() + " too long for full Viterbi matrix");
+        // flat matrix: cell (s, i, j) at index (i * lengthModel + j) * STATE_COUNT + s
+        double[] viterbiVar = workspace.values((keepMatrix ? length : 2) * rowSize);
+        // maximizing arguments of the current row, packed into the traceback after each row
+        int[] viterbiArgRow = workspace.argRow(rowSize);
+        ViterbiTraceback traceback = workspace.traceback((long) length * lengthModel);
 
         // iterate observations indices
         for (int i = 0; i < length; i++) {
-            // iterate model indices
-            for (int j = 0; j < lengthModel; j++) {
-                // iterate states indices
-                for (int s = 0; s < ProfilHMM.STATE_COUNT; s++) { // order of iteration-loops is relevant!
-                    char state = ProfilHMM.STATES[s];
-
-                    int iShift = i, jShift = j;
-                    double[][] emissionProbMatrix = null;
-                    if (state == ProfilHMM.STATE_MATCH) {
-                        iShift -= 1;
-                        jShift -= 1;
-                        emissionProbMatrix = model.getEmissionProbMatch();
-                    } else if (state == ProfilHMM.STATE_INSERT) {
-                        iShift -= 1;
-                        emissionProbMatrix = model.getEmissionProbInsert();
-                    } else if (state == ProfilHMM.STATE_DELETE) {
-                        jShift -= 1;
-                    } else
-                        throw new RuntimeException("no valid state");
-
-                    // calc must be possible for Delete-State in first column ans Insert-State in first row
-                    if (iShift >= 0 && jShift >= 0) {
-                        //find max
-                        double maxProb = Double.NEGATIVE_INFINITY;
-                        int maxArg = -1; // maximizing argument
-
-                        for (int stateIndex = 0; stateIndex < ProfilHMM.STATE_COUNT; stateIndex++) {
-
-                            double[][][] transitionProb = model.getTransitionProb();
-                            double prob = viterbiVar[stateIndex][iShift][jShift] + transitionProb[stateIndex][s][jShift]; // log-space
-                            if (prob > maxProb) {
-                                maxProb = prob;
-                                maxArg = stateIndex;
-                            }
-                        }
-
-                        double emissionProb = 0d; // 0 is neutral element of addition (log-space)
-
-                        if (emissionProbMatrix != null) {
-                            emissionProb = emissionProbMatrix[j][observationIndices[i - 1]];
-                        }
-                        viterbiVar[s][i][j] = emissionProb + maxProb;
-                        viterbiArg[s][i][j] = maxArg;
-                    }
-                }
-            }
+            int offset = (keepMatrix ? i : i & 1) * rowSize;
+            int prevOffset = (keepMatrix ? i - 1 : (i + 1) & 1) * rowSize;
+            ViterbiKernel.fillRow(model, observationIndices, i, viterbiVar, prevOffset, offset, viterbiArgRow, 0);
+            traceback.setRow((long) i * lengthModel, viterbiArgRow, 0, lengthModel);
         }
 
         if (Log.isPrintDebug()) {
             // Debug output viterbi 3d-matrix
             StringBuilder outViterbiVar = new StringBuilder("ViterbiVar: \n");
-            // [STATE_COUNT][length][lengthModel]
+            // [length][lengthModel][STATE_COUNT]
             for (int j = 0; j < lengthModel; j++) {
                 for (int k = 0; k < ProfilHMM.STATES.length; k++) {
                     outViterbiVar.append("\u001B[37m").append(k == 0 ? String.format("j%3d%s ", j, ProfilHMM.STATES[k]) : "    " + ProfilHMM.STATES[k] + " ").append("\u001B[0m");
                     for (int i = 0; i < length; i++) {
-                        outViterbiVar.append(String.format("%.5s ", String.format("%f", viterbiVar[k][i][j])));
+                        outViterbiVar.append(String.format("%.5s ", String.format("%f", viterbiVar[(i * lengthModel + j) * ProfilHMM.STATE_COUNT + k])));
                     }
                     outViterbiVar.append('\n');
                 }
@@ -131,12 +136,12 @@ public class Viterbi {
             Log.dLine(outViterbiVar.toString());
 
             StringBuilder outViterbiArg = new StringBuilder("ViterbiArg: \n");
-            // [STATE_COUNT][length][lengthModel]
+            // [length][lengthModel][STATE_COUNT]
             for (int j = 0; j < lengthModel; j++) {
                 for (int k = 0; k < ProfilHMM.STATES.length; k++) {
                     outViterbiArg.append("\u001B[37m").append(k == 0 ? String.format("j%3d%s ", j, ProfilHMM.STATES[k]) : "    " + ProfilHMM.STATES[k] + " ").append("\u001B[0m");
                     for (int i = 0; i < length; i++) {
-                        int a = viterbiArg[k][i][j];
+                        int a = traceback.get((long) i * lengthModel + j, k);
                         outViterbiArg.append(String.format("%5s ", (a >= 0 ? String.valueOf(ProfilHMM.STATES[a]) : a)));
                     }
                     outViterbiArg.append('\n');
@@ -147,60 +152,69 @@ public class Viterbi {
         }
 
         // BACKTRACE -------------------------------------------------------------------------------------
-        List<Character> listStatePath = new LinkedList<>();
-        double score = Double.NEGATIVE_INFINITY;
-        {
-            // backtrace init / Find path with max prob
-            int i = length - 1, j = lengthModel - 1;
-            int stateIndexEnd = -1;
-            {
-                for (int stateIndex = 0; stateIndex < ProfilHMM.STATE_COUNT; stateIndex++) {
-
-                    double[][][] transitionProb = model.getTransitionProb();
-                    double prob = viterbiVar[stateIndex][i][j] + transitionProb[stateIndex][ProfilHMM.STATE_MATCH_INDEX][j]; // log-space
-                    if (prob > score) {
-                        stateIndexEnd = stateIndex;
-                        score = prob;
-                    }
-                }
-            }
-            viterbiVar = null; // no reference left -> allow GC to trash
-
-            listStatePath.add(ProfilHMM.STATES[stateIndexEnd]);
+        // backtrace init / Find path with max prob
+        double[] maxScore = {Double.NEGATIVE_INFINITY};
+        int stateIndexEnd = ViterbiKernel.endState(model, viterbiVar, (keepMatrix ? length - 1 : (length - 1) & 1) * rowSize, maxScore);
+        double score = maxScore[0];
 
-            // backtrace iterate
-            try {
-                while (i >= 0 && j >= 0 && (i > 1 || j > 1)) { // FIXME correct?!
-                    int stateIndex = viterbiArg[stateIndexEnd][i][j];
-                    char state = ProfilHMM.STATES[stateIndex];
+        int[] runs = workspace.runBuffer(length + lengthModel);
+        int start = backtrace(traceback, length, lengthModel, stateIndexEnd, runs, sequence);
 
-                    listStatePath.add(0, state);
+        // the buffer is reused by the workspace, the result gets its own trimmed copy
+        return new ViterbiPath(sequence, score, Arrays.copyOfRange(runs, start, length + lengthModel));
+    }
 
-                    if (state == ProfilHMM.STATE_MATCH) {
-                        i--;
-                        j--;
-                    } else if (state == ProfilHMM.STATE_INSERT) {
-                        i--;
-                    } else if (state == ProfilHMM.STATE_DELETE) {
-                        j--;
-                    }
+    /**
+     * Ermittelt den Zustands-Pfad anhand der maximierenden Argumente der gesamten Viterbi-Matrix.
+     * Der Pfad wird lauflaengenkodiert ({@link ViterbiPath#run(int, int)}) vom Ende her in den Puffer geschrieben
+     * und endet bei Index length + lengthModel, zurueckgeliefert wird der Index des ersten Laufs.
+     * Jeder Schritt verringert i + j um mindestens eins, daher genuegt ein Puffer der Laenge length + lengthModel.
+     *
+     * @param traceback     maximierende Argumente der Zellen (i * lengthModel + j)
+     * @param length        Anzahl der Zeilen (Laenge der Sequenz + 1)
+     * @param lengthModel   Laenge des Modells
+     * @param stateIndexEnd Index des End-Zustands
+     * @param runs          Puffer mit mindestens length + lengthModel Eintraegen
+     * @param sequence      Beobachtungsfolge (fuer Fehlermeldungen)
+     * @return Index des ersten Laufs im Puffer
+     */
+    static int backtrace(final ViterbiTraceback traceback, final int length, final int lengthModel, final int stateIndexEnd,
+                         final int[] runs, final Sequence sequence) {
+        if (stateIndexEnd < 0)
+            throw new ArrayIndexOutOfBoundsException("no end state seq=" + sequence.getDescription());
+        int start = length + lengthModel;
+        int runState = stateIndexEnd;
+        int runLength = 1;
+
+        // backtrace iterate
+        int i = length - 1, j = lengthModel - 1;
+        try {
+            while (i >= 0 && j >= 0 && (i > 1 || j > 1)) { // FIXME correct?!
+                int stateIndex = traceback.get((long) i * lengthModel + j, stateIndexEnd);
+                char state = ProfilHMM.STATES[stateIndex];
+
+                if (stateIndex == runState && runLength < ViterbiPath.MAX_RUN_LENGTH) {
+                    runLength++;
+                } else {
+                    runs[--start] = ViterbiPath.run(runState, runLength);
+                    runState = stateIndex;
+                    runLength = 1;
                 }
 
-            } catch (ArrayIndexOutOfBoundsException e) {
-                throw new ArrayIndexOutOfBoundsException(e.getMessage() + " i=" + i + " j=" + j + " seq=" + sequence.getDescription());
+                if (state == ProfilHMM.STATE_MATCH) {
+                    i--;
+                    j--;
+                } else if (state == ProfilHMM.STATE_INSERT) {
+                    i--;
+                } else if (state == ProfilHMM.STATE_DELETE) {
+                    j--;
+                }
             }
-        }
 
-        // copy into char array
-        char[] statePath = new char[listStatePath.size()];
-        {
-            int i = 0;
-            for (Character c : listStatePath) {
-                statePath[i] = c;
-                i++;
-            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ArrayIndexOutOfBoundsException(e.getMessage() + " i=" + i + " j=" + j + " seq=" + sequence.getDescription());
         }
-
-        return new ViterbiPath(sequence, score, statePath);
+        runs[--start] = ViterbiPath.run(runState, runLength);
+        return start;
     }
 }
@@ -0,0 +1,409 @@
+package main.hmm.profil.viterbi;
+
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+import main.logger.Log;
+
+import java.util.Arrays;
+
+/**
+ * Enthaelt eine Implementation des Viterbi-Algorithmus fuer logarithmische Werte, die nur ein Band um die Diagonale berechnet.
+ * <p>
+ * Berechnet werden nur Zellen (i, j) mit lower &lt;= j - i &lt;= upper. Das Band enthaelt Start- und End-Zelle
+ * und wird um margin Diagonalen verbreitert. Zellen ausserhalb des Bandes gelten als nicht erreichbar.
+ * Werte und maximierende Argumente werden in Feldern der Breite des Bandes gespeichert, die Argumente gepackt
+ * ({@link ViterbiTraceback}, Speicherbedarf O(length * (upper - lower + 1)).
+ * <p>
+ * Danach wird geprueft, ob ein Pfad ausserhalb des Bandes gleich gut oder besser sein kann ({@link #outsideBound}).
+ * Jeder solche Pfad verlaesst das Band ueber eine Zelle am Rand, verlaeuft ausserhalb und kehrt am selben Rand zurueck.
+ * Sein Score ist hoechstens der Wert der Rand-Zelle im Band, plus je Zeile ausserhalb der beste Schritt mit Emission
+ * in einer Modell-Position ausserhalb des Bandes, plus eine obere Schranke fuer den Rest ab der Rueckkehr
+ * (Rueckwaerts-Berechnung im Band, die weitere Ausfluege beruecksichtigt).
+ * Ist der Score im Band nicht echt groesser als diese Schranke, wird die Berechnung mit {@link #GROWTH}-fachem margin wiederholt,
+ * bis die Schranke unterschritten ist. Wuerde das Band mehr als die Haelfte der Diagonalen umfassen, wird die gesamte Matrix berechnet.
+ * Score und Zustands-Pfad stimmen daher immer mit {@link Viterbi} ueberein. Schneller als {@link Viterbi} ist die Variante nur,
+ * wenn die Schranke schon bei kleinem margin unterschritten wird (Sequenzen mit wenigen Insertionen und Deletionen),
+ * im unguenstigsten Fall wird etwa die doppelte Anzahl an Zellen berechnet.
+ *
+ * @author Soeren Metje
+ */
+public class ViterbiBanded {
+
+    /**
+     * Standard-Verbreiterung des Bandes (Anzahl Diagonalen auf jeder Seite)
+     */
+    public static final int DEFAULT_MARGIN = 32;
+
+    /**
+     * Faktor, um den margin vergroessert wird, falls ein Pfad ausserhalb des Bandes nicht ausgeschlossen werden kann
+     */
+    public static final int GROWTH = 4;
+
+    /**
+     * Relativer Abstand, um den der Score im Band die Schranke uebersteigen muss (Rundung der Schranke)
+     */
+    private static final double BOUND_TOLERANCE = 1e-9;
+
+    private static final int M = ProfilHMM.STATE_MATCH_INDEX;
+    private static final int I = ProfilHMM.STATE_INSERT_INDEX;
+    private static final int D = ProfilHMM.STATE_DELETE_INDEX;
+
+    /**
+     * Implementation des Viterbi-Algorithmus fuer bereits logarithmierte Werte mit Band der Verbreiterung {@link #DEFAULT_MARGIN}.
+     * Liefert den wahrscheinlichsten Zustands-Pfad mit score bei uebergebenen Beobachtungen zurueck.
+     *
+     * @param model    Profil Hidden Markov Model
+     * @param sequence Beobachtungsfolge
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    public static ViterbiPath viterbi(final ProfilHMM model, final Sequence sequence) throws IllegalArgumentException {
+        return viterbi(model, sequence, DEFAULT_MARGIN);
+    }
+
+    /**
+     * Implementation des Viterbi-Algorithmus fuer bereits logarithmierte Werte mit Band der uebergebenen Verbreiterung.
+     * Liefert den wahrscheinlichsten Zustands-Pfad mit score bei uebergebenen Beobachtungen zurueck.
+     *
+     * @param model    Profil Hidden Markov Model
+     * @param sequence Beobachtungsfolge
+     * @param margin   Verbreiterung des Bandes (Anzahl Diagonalen auf jeder Seite), mindestens 1
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     *                                  oder falls margin &lt; 1
+     */
+    public static ViterbiPath viterbi(final ProfilHMM model, final Sequence sequence, final int margin) throws IllegalArgumentException {
+        if (sequence == null)
+            throw new IllegalArgumentException("sequence is null");
+        if (margin < 1)
+            throw new IllegalArgumentException("margin " + margin + " is less than 1");
+
+        // init
+        int[] observationIndices = model.observationsToIndices(sequence);
+        int length = observationIndices.length + 1;
+        int lengthModel = model.getLengthModel();
+        StepBounds steps = new StepBounds(model);
+
+        // band around start (0, 0) and end (length - 1, lengthModel - 1), limited to the matrix
+        int diagonalEnd = lengthModel - length;
+        int minDiagonal = -(length - 1), maxDiagonal = lengthModel - 1;
+        long currentMargin = margin;
+        while (true) {
+            int lower = (int) Math.max(minDiagonal, Math.min(0, diagonalEnd) - currentMargin);
+            int upper = (int) Math.min(maxDiagonal, Math.max(0, diagonalEnd) + currentMargin);
+            if (2L * (upper - lower + 1) > (long) maxDiagonal - minDiagonal + 1) { // more than half: whole matrix is cheaper
+                lower = minDiagonal;
+                upper = maxDiagonal;
+            }
+            ViterbiPath path = viterbiBand(model, sequence, observationIndices, steps, lower, upper,
+                    lower == minDiagonal, upper == maxDiagonal);
+            if (path != null)
+                return path;
+            currentMargin *= GROWTH;
+            Log.dLine("band of " + sequence.getDescription() + " not proven optimal, retry with margin " + currentMargin);
+        }
+    }
+
+    /**
+     * Berechnet die Zellen des Bandes lower &lt;= j - i &lt;= upper und fuehrt den Backtrace durch,
+     * falls kein Pfad ausserhalb des Bandes gleich gut oder besser sein kann.
+     *
+     * @param model              Profil Hidden Markov Model
+     * @param sequence           Beobachtungsfolge
+     * @param observationIndices Index-Folge der Beobachtungen
+     * @param steps              obere Schranken der Schritte ausserhalb des Bandes
+     * @param lower              kleinste Diagonale j - i im Band
+     * @param upper              groesste Diagonale j - i im Band
+     * @param lowerComplete      true, falls unterhalb des Bandes keine Zellen existieren
+     * @param upperComplete      true, falls oberhalb des Bandes keine Zellen existieren
+     * @return Zustands-Pfad oder null, falls ein Pfad ausserhalb des Bandes gleich gut oder besser sein kann
+     */
+    private static ViterbiPath viterbiBand(final ProfilHMM model, final Sequence sequence, final int[] observationIndices,
+                                           final StepBounds steps, final int lower, final int upper,
+                                           final boolean lowerComplete, final boolean upperComplete) {
+        int length = observationIndices.length + 1;
+        int lengthModel = model.getLengthModel();
+        int width = upper - lower + 1;
+        if (!ViterbiTraceback.fits((long) length * width))
+            throw new IllegalArgumentException("sequence " + sequence.getDescription() + " too long for banded Viterbi matrix");
+
+        // row i of the band holds column j at slot j - i - lower + 1,
+        // slot 0 and slot width + 1 stay -Infinity (neighbours outside the band)
+        int rowSize = (width + 2) * ProfilHMM.STATE_COUNT;
+        double[] rows = new double[2 * rowSize];
+        Arrays.fill(rows, Double.NEGATIVE_INFINITY);
+        // maximizing arguments of column j in row i in cell i * width + j - i - lower
+        int[] argRow = new int[width * ProfilHMM.STATE_COUNT];
+        ViterbiTraceback traceback = new ViterbiTraceback((long) length * width);
+        // best value of the cells on the lower and upper edge of each row
+        double[] edgeLower = lowerComplete ? null : new double[length];
+        double[] edgeUpper = upperComplete ? null : new double[length];
+
+        // FILL BAND ------------------------------------------------------------------------------------
+        for (int i = 0; i < length; i++) {
+            int from = Math.max(0, i + lower);
+            int to = Math.min(lengthModel, i + upper + 1);
+            if (from >= to)
+                continue; // row does not intersect the matrix (cannot happen for bands containing start and end)
+            int curOffset = (i & 1) * rowSize - (i + lower - 1) * ProfilHMM.STATE_COUNT;
+            int prevOffset = ((i + 1) & 1) * rowSize - (i - 1 + lower - 1) * ProfilHMM.STATE_COUNT;
+            ViterbiKernel.fillRow(model, observationIndices, i, rows, prevOffset, curOffset,
+                    argRow, -(i + lower) * ProfilHMM.STATE_COUNT, from, to);
+            traceback.setRow((long) i * width + from - i - lower, argRow, (from - i - lower) * ProfilHMM.STATE_COUNT, to - from);
+            if (edgeLower != null)
+                edgeLower[i] = edge(rows, curOffset, i + lower, from, to);
+            if (edgeUpper != null)
+                edgeUpper[i] = edge(rows, curOffset, i + upper, from, to);
+        }
+
+        // BACKTRACE -------------------------------------------------------------------------------------
+        int i = length - 1, j = lengthModel - 1;
+        double[] score = {Double.NEGATIVE_INFINITY};
+        int stateIndexEnd = ViterbiKernel.endState(model, rows, (i & 1) * rowSize - (i + lower - 1) * ProfilHMM.STATE_COUNT, score);
+
+        if (!lowerComplete || !upperComplete) {
+            double bound = outsideBound(model, observationIndices, steps, lower, upper, edgeLower, edgeUpper);
+            if (bound > Double.NEGATIVE_INFINITY && !(score[0] > bound + BOUND_TOLERANCE * (1 + Math.abs(bound))))
+                return null; // a path outside the band may be at least as good
+        }
+
+        char[] buffer = new char[length + lengthModel]; // each step decreases i + j by at least one
+        int start = buffer.length;
+        buffer[--start] = ProfilHMM.STATES[stateIndexEnd];
+
+        try {
+            while (i >= 0 && j >= 0 && (i > 1 || j > 1)) { // same termination as in Viterbi
+                int stateIndex = traceback.get((long) i * width + j - i - lower, stateIndexEnd);
+                char state = ProfilHMM.STATES[stateIndex];
+
+                buffer[--start] = state;
+
+                if (state == ProfilHMM.STATE_MATCH) {
+                    i--;
+                    j--;
+                } else if (state == ProfilHMM.STATE_INSERT) {
+                    i--;
+                } else if (state == ProfilHMM.STATE_DELETE) {
+                    j--;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ArrayIndexOutOfBoundsException(e.getMessage() + " i=" + i + " j=" + j + " seq=" + sequence.getDescription());
+        }
+
+        return new ViterbiPath(sequence, score[0], Arrays.copyOfRange(buffer, start, buffer.length));
+    }
+
+    /**
+     * Liefert den groessten Wert der Zustaende der Zelle in Spalte j zurueck
+     *
+     * @param rows   Feld mit den Werten
+     * @param offset Beginn der Zeile in rows (Spalte j bei offset + j * STATE_COUNT)
+     * @param j      Spalte
+     * @param from   erste Spalte der Zeile im Band
+     * @param to     erste Spalte nach der Zeile im Band
+     * @return groesster Wert oder -Infinity, falls die Zelle nicht in der Matrix liegt
+     */
+    private static double edge(final double[] rows, final int offset, final int j, final int from, final int to) {
+        if (j < from || j >= to)
+            return Double.NEGATIVE_INFINITY;
+        int cell = offset + j * ProfilHMM.STATE_COUNT;
+        return Math.max(rows[cell + M], Math.max(rows[cell + I], rows[cell + D]));
+    }
+
+    /**
+     * Berechnet eine obere Schranke fuer den Score aller Pfade, die das Band verlassen.
+     * <p>
+     * Ein solcher Pfad verlaesst das Band zum ersten Mal in einer Rand-Zelle p (Wert im Band hoechstens edgeLower bzw. edgeUpper),
+     * verlaeuft ausserhalb und kehrt in einer spaeteren Zeile in eine Rand-Zelle q desselben Randes zurueck.
+     * Jede Zeile ausserhalb wird von genau einem Schritt mit Emission erreicht, hoechstens {@link StepBounds#below} bzw.
+     * {@link StepBounds#above}. Der Rest ab q wird rueckwaerts im Band berechnet, wobei an den Rand-Zellen
+     * auch weitere Ausfluege (mit derselben Abschaetzung) erlaubt sind.
+     *
+     * @param model              Profil Hidden Markov Model
+     * @param observationIndices Index-Folge der Beobachtungen
+     * @param steps              obere Schranken der Schritte ausserhalb des Bandes
+     * @param lower              kleinste Diagonale j - i im Band
+     * @param upper              groesste Diagonale j - i im Band
+     * @param edgeLower          Wert der unteren Rand-Zelle je Zeile oder null, falls unterhalb keine Zellen existieren
+     * @param edgeUpper          Wert der oberen Rand-Zelle je Zeile oder null, falls oberhalb keine Zellen existieren
+     * @return obere Schranke oder -Infinity, falls kein Pfad das Band verlassen kann
+     */
+    private static double outsideBound(final ProfilHMM model, final int[] observationIndices, final StepBounds steps,
+                                       final int lower, final int upper, final double[] edgeLower, final double[] edgeUpper) {
+        int length = observationIndices.length + 1;
+        int lengthModel = model.getLengthModel();
+        double[] transitionProb = model.getTransitionProbPacked();
+        double[][] emissionProbMatch = model.getEmissionProbMatchByBase();
+        double[][] emissionProbInsert = model.getEmissionProbInsertByBase();
+
+        int width = upper - lower + 1;
+        int rowSize = (width + 2) * ProfilHMM.STATE_COUNT;
+        double[] back = new double[2 * rowSize]; // best completion from each cell to the end, slots as in viterbiBand
+        Arrays.fill(back, Double.NEGATIVE_INFINITY);
+
+        double bound = Double.NEGATIVE_INFINITY;
+        // best completion of an excursion leaving the band after row i (rows i + 1 ... outside, then back to the edge)
+        double excursionLower = Double.NEGATIVE_INFINITY;
+        double excursionUpper = Double.NEGATIVE_INFINITY;
+        for (int i = length - 1; i >= 0; i--) {
+            int from = Math.max(0, i + lower);
+            int to = Math.min(lengthModel, i + upper + 1);
+            int cur = (i & 1) * rowSize - (i + lower - 1) * ProfilHMM.STATE_COUNT;
+            int next = ((i + 1) & 1) * rowSize - (i + 1 + lower - 1) * ProfilHMM.STATE_COUNT;
+            int observation = i + 1 < length ? observationIndices[i] : -1; // emitted by the step into row i + 1
+
+            for (int j = to - 1; j >= from; j--) {
+                int cell = cur + j * ProfilHMM.STATE_COUNT;
+                if (i == length - 1 && j == lengthModel - 1) {
+                    for (int s = 0; s < ProfilHMM.STATE_COUNT; s++) {
+                        back[cell + s] = transitionProb[ProfilHMM.transitionIndex(j, s, M)]; // end state
+                    }
+                    continue;
+                }
+                double viaM = Double.NEGATIVE_INFINITY, viaI = Double.NEGATIVE_INFINITY, viaD = Double.NEGATIVE_INFINITY;
+                if (observation >= 0) {
+                    if (j + 1 < lengthModel)
+                        viaM = emissionProbMatch[observation][j + 1] + back[next + (j + 1) * ProfilHMM.STATE_COUNT + M];
+                    viaI = emissionProbInsert[observation][j] + back[next + j * ProfilHMM.STATE_COUNT + I];
+                }
+                if (j + 1 < lengthModel)
+                    viaD = back[cell + ProfilHMM.STATE_COUNT + D];
+                for (int s = 0; s < ProfilHMM.STATE_COUNT; s++) {
+                    double best = transitionProb[ProfilHMM.transitionIndex(j, s, M)] + viaM;
+                    best = Math.max(best, transitionProb[ProfilHMM.transitionIndex(j, s, I)] + viaI);
+                    best = Math.max(best, transitionProb[ProfilHMM.transitionIndex(j, s, D)] + viaD);
+                    back[cell + s] = best;
+                }
+                if (edgeUpper != null && j == i + upper) // leaving above with Delete, needed by the cells left of it
+                    raise(back, cell, excursionUpper + steps.extra);
+            }
+            if (edgeLower != null && i + lower >= from) // leaving below with Insert
+                raise(back, cur + (i + lower) * ProfilHMM.STATE_COUNT, excursionLower + steps.extra);
+
+            // first exit in row i
+            if (edgeLower != null) {
+                bound = Math.max(bound, edgeLower[i] + excursionLower + steps.extra);
+                double completion = edge(back, cur, i + lower, from, to);
+                excursionLower = i > 0 ? steps.below(observationIndices[i - 1], i + lower - 1) + Math.max(completion, excursionLower)
+                        : Double.NEGATIVE_INFINITY;
+            }
+            if (edgeUpper != null) {
+                bound = Math.max(bound, edgeUpper[i] + excursionUpper + steps.extra);
+                double completion = edge(back, cur, i + upper, from, to);
+                excursionUpper = i > 0 ? steps.above(observationIndices[i - 1], i + upper) + Math.max(completion, excursionUpper)
+                        : Double.NEGATIVE_INFINITY;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Erhoeht die Werte aller Zustaende der Zelle auf mindestens value
+     *
+     * @param values Feld mit den Werten
+     * @param cell   Beginn der Zelle in values
+     * @param value  Mindestwert
+     */
+    private static void raise(final double[] values, final int cell, final double value) {
+        for (int s = 0; s < ProfilHMM.STATE_COUNT; s++) {
+            values[cell + s] = Math.max(values[cell + s], value);
+        }
+    }
+
+    /**
+     * Obere Schranken fuer Schritte eines Pfades ausserhalb des Bandes, je Beobachtung und Bereich der Modell-Positionen
+     */
+    private static final class StepBounds {
+
+        /**
+         * bester Schritt mit Emission der Beobachtung b in eine Position &lt;= j (prefix[b][j]) bzw. &gt;= j (suffix[b][j])
+         */
+        private final double[][] prefix, suffix;
+
+        /**
+         * obere Schranke aller Schritte ohne Emission (Delete) eines Pfades, 0 fuer logarithmierte Wahrscheinlichkeiten
+         */
+        private final double extra;
+
+        /**
+         * Konstruktor, berechnet fuer jede Beobachtung und Position den besten Uebergang (aus beliebigem Zustand)
+         * mit Emission in Match- oder Insert-Zustand
+         *
+         * @param model Profil Hidden Markov Model
+         */
+        StepBounds(final ProfilHMM model) {
+            int lengthModel = model.getLengthModel();
+            double[] transitionProb = model.getTransitionProbPacked();
+            double[][] emissionProbMatch = model.getEmissionProbMatchByBase();
+            double[][] emissionProbInsert = model.getEmissionProbInsertByBase();
+
+            prefix = new double[emissionProbMatch.length][lengthModel];
+            suffix = new double[emissionProbMatch.length][lengthModel];
+            for (int b = 0; b < prefix.length; b++) {
+                for (int j = 0; j < lengthModel; j++) {
+                    double step = maxTransition(transitionProb, j, I) + emissionProbInsert[b][j];
+                    if (j > 0)
+                        step = Math.max(step, maxTransition(transitionProb, j - 1, M) + emissionProbMatch[b][j]);
+                    prefix[b][j] = j > 0 ? Math.max(prefix[b][j - 1], step) : step;
+                    suffix[b][j] = step;
+                }
+                for (int j = lengthModel - 2; j >= 0; j--) {
+                    suffix[b][j] = Math.max(suffix[b][j], suffix[b][j + 1]);
+                }
+            }
+
+            double delete = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < lengthModel - 1; j++) {
+                delete = Math.max(delete, maxTransition(transitionProb, j, D));
+            }
+            extra = Math.max(0d, delete) * lengthModel;
+        }
+
+        /**
+         * Liefert den besten Schritt mit Emission der Beobachtung in eine Position &lt;= j zurueck (unterhalb des Bandes)
+         *
+         * @param observation Index der Beobachtung
+         * @param j           groesste Position
+         * @return obere Schranke oder -Infinity, falls j &lt; 0
+         */
+        double below(final int observation, final int j) {
+            if (j < 0)
+                return Double.NEGATIVE_INFINITY;
+            double[] values = prefix[observation];
+            return values[Math.min(j, values.length - 1)];
+        }
+
+        /**
+         * Liefert den besten Schritt mit Emission der Beobachtung in eine Position &gt;= j zurueck (oberhalb des Bandes)
+         *
+         * @param observation Index der Beobachtung
+         * @param j           kleinste Position
+         * @return obere Schranke oder -Infinity, falls j hinter der letzten Position liegt
+         */
+        double above(final int observation, final int j) {
+            double[] values = suffix[observation];
+            if (j >= values.length)
+                return Double.NEGATIVE_INFINITY;
+            return values[Math.max(j, 0)];
+        }
+
+        /**
+         * Liefert den groessten Uebergang von einem beliebigen Zustand in den Zustand to an Position j zurueck
+         *
+         * @param transitionProb gepackte Uebergaenge ({@link ProfilHMM#getTransitionProbPacked()})
+         * @param j              Modell-Position
+         * @param to             Index des Ziel-Zustands
+         * @return groesster Uebergang
+         */
+        private static double maxTransition(final double[] transitionProb, final int j, final int to) {
+            double ret = Double.NEGATIVE_INFINITY;
+            for (int from = 0; from < ProfilHMM.STATE_COUNT; from++) {
+                ret = Math.max(ret, transitionProb[ProfilHMM.transitionIndex(j, from, to)]);
+            }
+            return ret;
+        }
+    }
+}
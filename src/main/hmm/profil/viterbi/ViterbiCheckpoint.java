@@ -0,0 +1,131 @@
+package main.hmm.profil.viterbi;
+
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+
+import java.util.Arrays;
+
+/**
+ * Enthaelt eine speichersparende Implementation des Viterbi-Algorithmus fuer logarithmische Werte.
+ * <p>
+ * Im Gegensatz zu {@link Viterbi} wird nicht die gesamte Viterbi-Matrix gehalten, sondern nur zwei rollierende Zeilen
+ * sowie jede k-te Zeile als Checkpoint (k = Wurzel der Sequenz-Laenge).
+ * Beim Backtrace werden die maximierenden Argumente blockweise ausgehend vom jeweiligen Checkpoint neu berechnet.
+ * Der Speicherbedarf sinkt so von O(length * lengthModel) auf O(sqrt(length) * lengthModel),
+ * waehrend sich die Rechenzeit hoechstens verdoppelt.
+ * <p>
+ * Score und Zustands-Pfad sind identisch zu denen aus {@link Viterbi}.
+ *
+ * @author Soeren Metje
+ */
+public class ViterbiCheckpoint {
+
+    /**
+     * Implementation des Viterbi-Algorithmus fuer bereits logarithmierte Werte mit reduziertem Speicherbedarf.
+     * Liefert den wahrscheinlichsten Zustands-Pfad mit score bei uebergebenen Beobachtungen zurueck.
+     *
+     * @param model    Profil Hidden Markov Model
+     * @param sequence Beobachtungsfolge
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    public static ViterbiPath viterbi(final ProfilHMM model, final Sequence sequence) throws IllegalArgumentException {
+        if (sequence == null)
+            throw new IllegalArgumentException("sequence is null");
+
+        // init
+        int[] observationIndices = model.observationsToIndices(sequence);
+        int length = observationIndices.length + 1;
+        int lengthModel = model.getLengthModel();
+
+        int rowSize = lengthModel * ProfilHMM.STATE_COUNT;
+
+        // rows i with (i + 1) % interval == 0 are stored, block b covers rows [b * interval, (b + 1) * interval)
+        int interval = Math.max(1, (int) Math.ceil(Math.sqrt(length)));
+        int blockCount = (length + interval - 1) / interval;
+        double[][] checkpoints = new double[blockCount][];
+
+        // FILL ROWS -------------------------------------------------------------------------------------
+        double[] rows = new double[2 * rowSize]; // two rolling rows
+        for (int i = 0; i < length; i++) {
+            int prevOffset = ((i + 1) & 1) * rowSize;
+            int curOffset = (i & 1) * rowSize;
+            ViterbiKernel.fillRow(model, observationIndices, i, rows, prevOffset, curOffset, null, 0);
+
+            if ((i + 1) % interval == 0 && i + 1 < length) {
+                checkpoints[(i + 1) / interval] = Arrays.copyOfRange(rows, curOffset, curOffset + rowSize);
+            }
+        }
+
+        // backtrace init / Find path with max prob
+        double[] score = {Double.NEGATIVE_INFINITY};
+        int stateIndexEnd = ViterbiKernel.endState(model, rows, ((length - 1) & 1) * rowSize, score);
+
+        // BACKTRACE -------------------------------------------------------------------------------------
+        char[] buffer = new char[length + lengthModel]; // each step decreases i + j by at least one
+        int start = buffer.length;
+        buffer[--start] = ProfilHMM.STATES[stateIndexEnd];
+
+        int i = length - 1, j = lengthModel - 1;
+        int[] blockArgs = new int[interval * rowSize]; // maximizing arguments of the rows in current block
+        int block = -1;
+        try {
+            while (i >= 0 && j >= 0 && (i > 1 || j > 1)) { // same termination as in Viterbi
+                if (i / interval != block) {
+                    block = i / interval;
+                    recomputeBlock(model, observationIndices, block, interval, length, checkpoints[block], rows, blockArgs);
+                }
+                int stateIndex = blockArgs[((i - block * interval) * lengthModel + j) * ProfilHMM.STATE_COUNT + stateIndexEnd];
+                char state = ProfilHMM.STATES[stateIndex];
+
+                buffer[--start] = state;
+
+                if (state == ProfilHMM.STATE_MATCH) {
+                    i--;
+                    j--;
+                } else if (state == ProfilHMM.STATE_INSERT) {
+                    i--;
+                } else if (state == ProfilHMM.STATE_DELETE) {
+                    j--;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ArrayIndexOutOfBoundsException(e.getMessage() + " i=" + i + " j=" + j + " seq=" + sequence.getDescription());
+        }
+
+        char[] statePath = new char[buffer.length - start];
+        System.arraycopy(buffer, start, statePath, 0, statePath.length);
+
+        return new ViterbiPath(sequence, score[0], statePath);
+    }
+
+    /**
+     * Berechnet die Zeilen des uebergebenen Blocks ausgehend vom Checkpoint neu
+     * und speichert deren maximierende Argumente.
+     *
+     * @param model              Profil Hidden Markov Model
+     * @param observationIndices Index-Folge der Beobachtungen
+     * @param block              Index des Blocks
+     * @param interval           Anzahl der Zeilen pro Block
+     * @param length             Anzahl der Zeilen insgesamt
+     * @param checkpoint         Werte der Zeile vor dem Block (null fuer ersten Block)
+     * @param rows               Puffer fuer zwei Zeilen
+     * @param blockArgs          Feld fuer die maximierenden Argumente der Zeilen des Blocks
+     */
+    private static void recomputeBlock(final ProfilHMM model, final int[] observationIndices, final int block, final int interval,
+                                       final int length, final double[] checkpoint, final double[] rows, final int[] blockArgs) {
+        int rowSize = model.getLengthModel() * ProfilHMM.STATE_COUNT;
+        int from = block * interval;
+        int to = Math.min(from + interval, length);
+
+        // row from - 1 is expected at the rolling position of its index
+        if (checkpoint != null)
+            System.arraycopy(checkpoint, 0, rows, ((from + 1) & 1) * rowSize, rowSize);
+
+        for (int i = from; i < to; i++) {
+            ViterbiKernel.fillRow(model, observationIndices, i, rows, ((i + 1) & 1) * rowSize, (i & 1) * rowSize,
+                    blockArgs, (i - from) * rowSize);
+        }
+    }
+}
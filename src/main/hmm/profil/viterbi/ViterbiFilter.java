@@ -0,0 +1,203 @@
+package main.hmm.profil.viterbi;
+
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+
+/**
+ * Enthaelt eine Implementation des Viterbi-Algorithmus mit quantisierten 16-Bit-Werten als Filter.
+ * <p>
+ * Es werden die quantisierten Wahrscheinlichkeiten des Modells verwendet ({@link ProfilHMM#getTransitionProbQuantized()}).
+ * Die Werte einer Zeile werden nach der Berechnung um ihr Maximum verschoben und als short gespeichert,
+ * Werte unterhalb von {@link ProfilHMM#QUANTIZED_NEG_INF} saettigen zu -Infinity. Die Verschiebungen werden aufsummiert.
+ * <p>
+ * Der Score ist nur eine Naeherung an den Score aus {@link Viterbi}, die Abweichung ist durch
+ * {@link #maxError(ProfilHMM, Sequence)} beschraenkt (ohne gesaettigte Zellen).
+ * Die Laenge des Zustands-Pfades wird wie in {@link ViterbiScorer} mitgefuehrt, kann aber bei knappen Entscheidungen abweichen.
+ *
+ * @author Soeren Metje
+ */
+public class ViterbiFilter {
+
+    /**
+     * -Infinity waehrend der Berechnung einer Zeile (unterhalb aller erreichbaren Werte)
+     */
+    private static final int NEG_INF = Integer.MIN_VALUE;
+
+    private static final int M = ProfilHMM.STATE_MATCH_INDEX;
+    private static final int I = ProfilHMM.STATE_INSERT_INDEX;
+    private static final int D = ProfilHMM.STATE_DELETE_INDEX;
+
+    /**
+     * Berechnet eine Naeherung an den Score und die Laenge des wahrscheinlichsten Zustands-Pfades bei uebergebenen Beobachtungen.
+     * Der zurueckgelieferte {@link ViterbiPath} enthaelt keinen Zustands-Pfad.
+     *
+     * @param model    Profil Hidden Markov Model
+     * @param sequence Beobachtungsfolge
+     * @return genaeherter Score und Laenge des Zustands-Pfades
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    public static ViterbiPath score(final ProfilHMM model, final Sequence sequence) throws IllegalArgumentException {
+        if (sequence == null)
+            throw new IllegalArgumentException("sequence is null");
+
+        // init
+        int[] observationIndices = model.observationsToIndices(sequence);
+        int length = observationIndices.length + 1;
+        int lengthModel = model.getLengthModel();
+        short[] transitionProb = model.getTransitionProbQuantized();
+
+        int rowSize = lengthModel * ProfilHMM.STATE_COUNT;
+
+        short[] rows = new short[2 * rowSize]; // two rolling rows, shifted by their maximum
+        int[] cur = new int[rowSize]; // current row before shifting
+        int[] args = new int[rowSize];
+        int[] pathLengthPrev = new int[rowSize];
+        int[] pathLengthCur = new int[rowSize];
+        long offset = 0; // sum of the shifts
+
+        for (int i = 0; i < length; i++) {
+            int prev = ((i + 1) & 1) * rowSize;
+            if (i == 0) {
+                cur[M] = 0;
+                cur[I] = NEG_INF;
+                args[M] = ViterbiKernel.ARG_START;
+                args[I] = ViterbiKernel.ARG_NONE;
+                for (int j = 1; j < lengthModel; j++) {
+                    cur[j * ProfilHMM.STATE_COUNT + M] = NEG_INF;
+                    cur[j * ProfilHMM.STATE_COUNT + I] = NEG_INF;
+                    args[j * ProfilHMM.STATE_COUNT + M] = ViterbiKernel.ARG_NONE;
+                    args[j * ProfilHMM.STATE_COUNT + I] = ViterbiKernel.ARG_NONE;
+                }
+            } else {
+                short[] emissionProbMatch = model.getEmissionProbMatchQuantized()[observationIndices[i - 1]];
+                short[] emissionProbInsert = model.getEmissionProbInsertQuantized()[observationIndices[i - 1]];
+                for (int j = 0; j < lengthModel; j++) {
+                    int cell = j * ProfilHMM.STATE_COUNT;
+                    if (j == 0) {
+                        cur[M] = NEG_INF;
+                        args[M] = ViterbiKernel.ARG_NONE;
+                    } else {
+                        // Match: (i - 1, j - 1) -> (i, j)
+                        cell(rows, prev + cell - ProfilHMM.STATE_COUNT, transitionProb, ProfilHMM.transitionIndex(j - 1, 0, M),
+                                emissionProbMatch[j], cur, args, cell + M);
+                    }
+                    // Insert: (i - 1, j) -> (i, j)
+                    cell(rows, prev + cell, transitionProb, ProfilHMM.transitionIndex(j, 0, I),
+                            emissionProbInsert[j], cur, args, cell + I);
+                }
+            }
+
+            // Delete: (i, j - 1) -> (i, j), chain along the row
+            cur[D] = NEG_INF;
+            args[D] = ViterbiKernel.ARG_NONE;
+            for (int j = 1; j < lengthModel; j++) {
+                int left = (j - 1) * ProfilHMM.STATE_COUNT;
+                int t = ProfilHMM.transitionIndex(j - 1, 0, D);
+                int maxProb = NEG_INF;
+                int maxArg = -1;
+                for (int s = 0; s < ProfilHMM.STATE_COUNT; s++) {
+                    int prob = add(cur[left + s], transitionProb[t + s * ProfilHMM.STATE_COUNT]);
+                    if (prob > maxProb) {
+                        maxProb = prob;
+                        maxArg = s;
+                    }
+                }
+                cur[j * ProfilHMM.STATE_COUNT + D] = maxProb; // no emission
+                args[j * ProfilHMM.STATE_COUNT + D] = maxArg;
+            }
+
+            // shift row by its maximum and saturate to 16 bit
+            int rowMax = NEG_INF;
+            for (int k = 0; k < rowSize; k++) {
+                rowMax = Math.max(rowMax, cur[k]);
+            }
+            if (rowMax == NEG_INF) // no reachable cell
+                rowMax = 0;
+            int rowOffset = (i & 1) * rowSize;
+            for (int k = 0; k < rowSize; k++) {
+                rows[rowOffset + k] = cur[k] == NEG_INF ? ProfilHMM.QUANTIZED_NEG_INF
+                        : (short) Math.max(cur[k] - rowMax, ProfilHMM.QUANTIZED_NEG_INF);
+            }
+            offset += rowMax;
+
+            ViterbiScorer.fillPathLength(i, lengthModel, args, pathLengthPrev, pathLengthCur);
+            int[] swap = pathLengthPrev;
+            pathLengthPrev = pathLengthCur;
+            pathLengthCur = swap;
+        }
+
+        // backtrace init / Find path with max prob (transition into end state interpreted as match state)
+        int last = ((length - 1) & 1) * rowSize + (lengthModel - 1) * ProfilHMM.STATE_COUNT;
+        int maxProb = NEG_INF;
+        int stateIndexEnd = -1;
+        for (int s = 0; s < ProfilHMM.STATE_COUNT; s++) {
+            int prob = add(rows[last + s] == ProfilHMM.QUANTIZED_NEG_INF ? NEG_INF : rows[last + s],
+                    transitionProb[ProfilHMM.transitionIndex(lengthModel - 1, s, M)]);
+            if (prob > maxProb) {
+                maxProb = prob;
+                stateIndexEnd = s;
+            }
+        }
+        if (stateIndexEnd < 0)
+            return new ViterbiPath(sequence, Double.NEGATIVE_INFINITY, 1);
+
+        double score = (double) (offset + maxProb) / ProfilHMM.QUANTIZATION_SCALE;
+        int pathLength = 1 + pathLengthPrev[(lengthModel - 1) * ProfilHMM.STATE_COUNT + stateIndexEnd];
+        return new ViterbiPath(sequence, score, pathLength);
+    }
+
+    /**
+     * Liefert die maximale Abweichung des Scores aus {@link #score(ProfilHMM, Sequence)} vom exakten Score zurueck.
+     * Jeder Schritt des Zustands-Pfades addiert hoechstens zwei gerundete Werte (Uebergang und Emission).
+     *
+     * @param model    Profil Hidden Markov Model
+     * @param sequence Beobachtungsfolge
+     * @return maximale Abweichung des Scores
+     */
+    public static double maxError(final ProfilHMM model, final Sequence sequence) {
+        long steps = (long) sequence.length() + model.getLengthModel();
+        return (2 * steps + 1) * 0.5 / ProfilHMM.QUANTIZATION_SCALE;
+    }
+
+    /**
+     * Berechnet Zelle (Match oder Insert) aus den drei Zustaenden der Vorgaenger-Zelle in der vorherigen Zeile
+     *
+     * @param rows           rollierende Zeilen
+     * @param from           Beginn der Vorgaenger-Zelle in rows
+     * @param transitionProb quantisierte Uebergaenge
+     * @param t              Index des Uebergangs von Match in den Ziel-Zustand
+     * @param emission       quantisierte Emission
+     * @param cur            aktuelle Zeile
+     * @param args           maximierende Argumente der aktuellen Zeile
+     * @param cell           Index der Zelle in cur
+     */
+    private static void cell(final short[] rows, final int from, final short[] transitionProb, final int t,
+                             final short emission, final int[] cur, final int[] args, final int cell) {
+        int maxProb = NEG_INF;
+        int maxArg = -1;
+        for (int s = 0; s < ProfilHMM.STATE_COUNT; s++) {
+            short value = rows[from + s];
+            int prob = add(value == ProfilHMM.QUANTIZED_NEG_INF ? NEG_INF : value, transitionProb[t + s * ProfilHMM.STATE_COUNT]);
+            if (prob > maxProb) {
+                maxProb = prob;
+                maxArg = s;
+            }
+        }
+        cur[cell] = add(maxProb, emission);
+        args[cell] = maxArg;
+    }
+
+    /**
+     * Addiert einen quantisierten Wert, -Infinity bleibt erhalten
+     *
+     * @param value Wert (NEG_INF fuer -Infinity)
+     * @param prob  quantisierter Wert
+     * @return Summe
+     */
+    private static int add(final int value, final short prob) {
+        if (value == NEG_INF || prob == ProfilHMM.QUANTIZED_NEG_INF)
+            return NEG_INF;
+        return value + prob;
+    }
+}
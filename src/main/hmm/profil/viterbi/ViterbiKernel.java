@@ -0,0 +1,283 @@
+package main.hmm.profil.viterbi;
+
+import main.hmm.profil.ProfilHMM;
+
+/**
+ * Enthaelt die Rekursion des Viterbi-Algorithmus fuer eine einzelne Zeile (eine Beobachtung) der Viterbi-Matrix.
+ * <p>
+ * Die Werte liegen in einem flachen Feld. Die Zelle (i, j) einer Zeile beginnt bei offset + j * STATE_COUNT,
+ * die Zustaende einer Modell-Position liegen also nebeneinander.
+ * Die Uebergaenge werden aus {@link ProfilHMM#getTransitionProbPacked()} gelesen,
+ * die Emissionen aus den nach Nukleotid gruppierten Feldern des Modells.
+ * <p>
+ * Die berechneten Werte und maximierenden Argumente entsprechen exakt denen der urspruenglichen Implementation
+ * (gleiche Reihenfolge der Vergleiche, bei Gleichheit gewinnt der Zustand mit kleinerem Index).
+ *
+ * @author Soeren Metje
+ */
+final class ViterbiKernel {
+
+    /**
+     * Maximierendes Argument fuer Zellen, die nicht erreichbar sind und daher nicht berechnet werden
+     */
+    static final int ARG_NONE = 0;
+
+    /**
+     * Maximierendes Argument der Start-Zelle
+     */
+    static final int ARG_START = -1;
+
+    private static final int M = ProfilHMM.STATE_MATCH_INDEX;
+    private static final int I = ProfilHMM.STATE_INSERT_INDEX;
+    private static final int D = ProfilHMM.STATE_DELETE_INDEX;
+
+    // offsets of the transitions from -> to within the packed transitions of one model position
+    private static final int MM = ProfilHMM.transitionIndex(0, M, M);
+    private static final int IM = ProfilHMM.transitionIndex(0, I, M);
+    private static final int DM = ProfilHMM.transitionIndex(0, D, M);
+    private static final int MI = ProfilHMM.transitionIndex(0, M, I);
+    private static final int II = ProfilHMM.transitionIndex(0, I, I);
+    private static final int DI = ProfilHMM.transitionIndex(0, D, I);
+    private static final int MD = ProfilHMM.transitionIndex(0, M, D);
+    private static final int ID = ProfilHMM.transitionIndex(0, I, D);
+    private static final int DD = ProfilHMM.transitionIndex(0, D, D);
+
+    /**
+     * Keine Instanzen
+     */
+    private ViterbiKernel() {
+    }
+
+    /**
+     * Berechnet die Zeile i der Viterbi-Matrix aus der vorherigen Zeile.
+     *
+     * @param model              Profil Hidden Markov Model
+     * @param observationIndices Index-Folge der Beobachtungen
+     * @param i                  Index der Zeile (0 = vor der ersten Beobachtung)
+     * @param viterbiVar         Feld mit den Werten
+     * @param prevOffset         Beginn der Zeile i - 1 in viterbiVar (wird fuer i == 0 ignoriert)
+     * @param curOffset          Beginn der Zeile i in viterbiVar (wird ueberschrieben)
+     * @param viterbiArg         Feld fuer die maximierenden Argumente oder null
+     * @param argOffset          Beginn der Zeile i in viterbiArg
+     */
+    static void fillRow(final ProfilHMM model, final int[] observationIndices, final int i,
+                        final double[] viterbiVar, final int prevOffset, final int curOffset,
+                        final int[] viterbiArg, final int argOffset) {
+        fillRow(model, observationIndices, i, viterbiVar, prevOffset, curOffset, viterbiArg, argOffset, 0, model.getLengthModel());
+    }
+
+    /**
+     * Berechnet die Spalten [from, to) der Zeile i der Viterbi-Matrix.
+     * Fuer from > 0 muss die Spalte from - 1 der Zeilen i - 1 und i bereits berechnet sein.
+     * Die Offsets duerfen negativ sein, solange nur auf die Spalten [from - 1, to) zugegriffen wird.
+     *
+     * @param model              Profil Hidden Markov Model
+     * @param observationIndices Index-Folge der Beobachtungen
+     * @param i                  Index der Zeile (0 = vor der ersten Beobachtung)
+     * @param viterbiVar         Feld mit den Werten
+     * @param prevOffset         Beginn der Zeile i - 1 in viterbiVar (wird fuer i == 0 ignoriert)
+     * @param curOffset          Beginn der Zeile i in viterbiVar (wird ueberschrieben)
+     * @param viterbiArg         Feld fuer die maximierenden Argumente oder null
+     * @param argOffset          Beginn der Zeile i in viterbiArg
+     * @param from               erste zu berechnende Modell-Position
+     * @param to                 erste nicht mehr zu berechnende Modell-Position
+     */
+    static void fillRow(final ProfilHMM model, final int[] observationIndices, final int i,
+                        final double[] viterbiVar, final int prevOffset, final int curOffset,
+                        final int[] viterbiArg, final int argOffset, final int from, final int to) {
+        final double[] transitionProb = model.getTransitionProbPacked();
+
+        if (i == 0) {
+            if (from == 0) {
+                viterbiVar[curOffset + M] = 0d;
+                viterbiVar[curOffset + I] = Double.NEGATIVE_INFINITY;
+                viterbiVar[curOffset + D] = Double.NEGATIVE_INFINITY;
+                if (viterbiArg != null) {
+                    viterbiArg[argOffset + M] = ARG_START;
+                    viterbiArg[argOffset + I] = ARG_NONE;
+                    viterbiArg[argOffset + D] = ARG_NONE;
+                }
+            }
+            for (int j = Math.max(from, 1); j < to; j++) {
+                int cur = curOffset + j * ProfilHMM.STATE_COUNT;
+                viterbiVar[cur + M] = Double.NEGATIVE_INFINITY;
+                viterbiVar[cur + I] = Double.NEGATIVE_INFINITY;
+                if (viterbiArg != null) {
+                    viterbiArg[argOffset + j * ProfilHMM.STATE_COUNT + M] = ARG_NONE;
+                    viterbiArg[argOffset + j * ProfilHMM.STATE_COUNT + I] = ARG_NONE;
+                }
+                delete(transitionProb, viterbiVar, cur, viterbiArg, argOffset + j * ProfilHMM.STATE_COUNT, j);
+            }
+            return;
+        }
+
+        final int observation = observationIndices[i - 1];
+        final double[] emissionProbMatch = model.getEmissionProbMatchByBase()[observation];
+        final double[] emissionProbInsert = model.getEmissionProbInsertByBase()[observation];
+
+        if (from == 0) {
+            // first column: only Insert-State is reachable
+            viterbiVar[curOffset + M] = Double.NEGATIVE_INFINITY;
+            viterbiVar[curOffset + D] = Double.NEGATIVE_INFINITY;
+            if (viterbiArg != null) {
+                viterbiArg[argOffset + M] = ARG_NONE;
+                viterbiArg[argOffset + D] = ARG_NONE;
+            }
+            insert(transitionProb, emissionProbInsert, viterbiVar, prevOffset, curOffset, viterbiArg, argOffset, 0);
+        }
+        final int start = Math.max(from, 1);
+
+        // Match and Insert only depend on the previous row: no dependency between the cells of the row
+        final int diag = prevOffset + (start - 1) * ProfilHMM.STATE_COUNT;
+        double diagM = viterbiVar[diag + M], diagI = viterbiVar[diag + I], diagD = viterbiVar[diag + D];
+        for (int j = start; j < to; j++) {
+            final int prev = prevOffset + j * ProfilHMM.STATE_COUNT;
+            final int cur = curOffset + j * ProfilHMM.STATE_COUNT;
+            final int tLeft = (j - 1) * ProfilHMM.TRANSITION_COUNT; // transitions of position j - 1
+            final int tUp = j * ProfilHMM.TRANSITION_COUNT; // transitions of position j
+            final double upM = viterbiVar[prev + M], upI = viterbiVar[prev + I], upD = viterbiVar[prev + D];
+
+            // Match: (i - 1, j - 1) -> (i, j)
+            double probM = diagM + transitionProb[tLeft + MM]; // log-space
+            double probI = diagI + transitionProb[tLeft + IM];
+            double probD = diagD + transitionProb[tLeft + DM];
+            int argMatch = probM > Double.NEGATIVE_INFINITY ? M : -1;
+            double maxMatch = probM;
+            argMatch = probI > maxMatch ? I : argMatch;
+            maxMatch = probI > maxMatch ? probI : maxMatch;
+            argMatch = probD > maxMatch ? D : argMatch;
+            maxMatch = probD > maxMatch ? probD : maxMatch;
+
+            // Insert: (i - 1, j) -> (i, j)
+            probM = upM + transitionProb[tUp + MI];
+            probI = upI + transitionProb[tUp + II];
+            probD = upD + transitionProb[tUp + DI];
+            int argInsert = probM > Double.NEGATIVE_INFINITY ? M : -1;
+            double maxInsert = probM;
+            argInsert = probI > maxInsert ? I : argInsert;
+            maxInsert = probI > maxInsert ? probI : maxInsert;
+            argInsert = probD > maxInsert ? D : argInsert;
+            maxInsert = probD > maxInsert ? probD : maxInsert;
+
+            viterbiVar[cur + M] = emissionProbMatch[j] + maxMatch;
+            viterbiVar[cur + I] = emissionProbInsert[j] + maxInsert;
+            if (viterbiArg != null) {
+                final int arg = argOffset + j * ProfilHMM.STATE_COUNT;
+                viterbiArg[arg + M] = argMatch;
+                viterbiArg[arg + I] = argInsert;
+            }
+
+            diagM = upM;
+            diagI = upI;
+            diagD = upD;
+        }
+
+        // Delete: (i, j - 1) -> (i, j), chain along the row
+        double leftD = viterbiVar[curOffset + (start - 1) * ProfilHMM.STATE_COUNT + D];
+        for (int j = start; j < to; j++) {
+            final int cur = curOffset + j * ProfilHMM.STATE_COUNT;
+            final int tLeft = (j - 1) * ProfilHMM.TRANSITION_COUNT;
+
+            double probM = viterbiVar[cur - ProfilHMM.STATE_COUNT + M] + transitionProb[tLeft + MD]; // log-space
+            double probI = viterbiVar[cur - ProfilHMM.STATE_COUNT + I] + transitionProb[tLeft + ID];
+            double probD = leftD + transitionProb[tLeft + DD];
+            int argDelete = probM > Double.NEGATIVE_INFINITY ? M : -1;
+            double maxDelete = probM;
+            argDelete = probI > maxDelete ? I : argDelete;
+            maxDelete = probI > maxDelete ? probI : maxDelete;
+            argDelete = probD > maxDelete ? D : argDelete;
+            maxDelete = probD > maxDelete ? probD : maxDelete;
+
+            viterbiVar[cur + D] = maxDelete; // no emission
+            if (viterbiArg != null)
+                viterbiArg[argOffset + j * ProfilHMM.STATE_COUNT + D] = argDelete;
+            leftD = maxDelete;
+        }
+    }
+
+    /**
+     * Berechnet den Insert-Zustand der Zelle (i, j) aus der Zelle (i - 1, j)
+     */
+    private static void insert(final double[] transitionProb, final double[] emissionProb, final double[] viterbiVar,
+                               final int prev, final int cur, final int[] viterbiArg, final int arg, final int j) {
+        final int t = j * ProfilHMM.TRANSITION_COUNT;
+        double maxProb = Double.NEGATIVE_INFINITY;
+        int maxArg = -1;
+        double prob = viterbiVar[prev + M] + transitionProb[t + MI]; // log-space
+        if (prob > maxProb) {
+            maxProb = prob;
+            maxArg = M;
+        }
+        prob = viterbiVar[prev + I] + transitionProb[t + II];
+        if (prob > maxProb) {
+            maxProb = prob;
+            maxArg = I;
+        }
+        prob = viterbiVar[prev + D] + transitionProb[t + DI];
+        if (prob > maxProb) {
+            maxProb = prob;
+            maxArg = D;
+        }
+        viterbiVar[cur + I] = emissionProb[j] + maxProb;
+        if (viterbiArg != null)
+            viterbiArg[arg + I] = maxArg;
+    }
+
+    /**
+     * Berechnet den Delete-Zustand der Zelle (i, j) aus der Zelle (i, j - 1)
+     */
+    private static void delete(final double[] transitionProb, final double[] viterbiVar,
+                               final int cur, final int[] viterbiArg, final int arg, final int j) {
+        final int t = (j - 1) * ProfilHMM.TRANSITION_COUNT;
+        final int left = cur - ProfilHMM.STATE_COUNT;
+        double maxProb = Double.NEGATIVE_INFINITY;
+        int maxArg = -1;
+        double prob = viterbiVar[left + M] + transitionProb[t + MD]; // log-space
+        if (prob > maxProb) {
+            maxProb = prob;
+            maxArg = M;
+        }
+        prob = viterbiVar[left + I] + transitionProb[t + ID];
+        if (prob > maxProb) {
+            maxProb = prob;
+            maxArg = I;
+        }
+        prob = viterbiVar[left + D] + transitionProb[t + DD];
+        if (prob > maxProb) {
+            maxProb = prob;
+            maxArg = D;
+        }
+        viterbiVar[cur + D] = maxProb; // no emission
+        if (viterbiArg != null)
+            viterbiArg[arg + D] = maxArg;
+    }
+
+    /**
+     * Liefert den Index des Zustands zurueck, mit dem der Zustands-Pfad in der letzten Zelle endet,
+     * und schreibt den zugehoerigen Score in score[0], falls score != null.
+     * Wie in {@link Viterbi} wird der Uebergang in den End-Zustand (als Match-Zustand interpretiert) beruecksichtigt.
+     *
+     * @param model      Profil Hidden Markov Model
+     * @param viterbiVar Feld mit den Werten
+     * @param rowOffset  Beginn der letzten Zeile in viterbiVar
+     * @param score      Feld fuer den Score oder null
+     * @return Index des End-Zustands
+     */
+    static int endState(final ProfilHMM model, final double[] viterbiVar, final int rowOffset, final double[] score) {
+        int j = model.getLengthModel() - 1;
+        int cell = rowOffset + j * ProfilHMM.STATE_COUNT;
+        double[] transitionProb = model.getTransitionProbPacked();
+        double maxProb = Double.NEGATIVE_INFINITY;
+        int stateIndexEnd = -1;
+        for (int stateIndex = 0; stateIndex < ProfilHMM.STATE_COUNT; stateIndex++) {
+            double prob = viterbiVar[cell + stateIndex] + transitionProb[ProfilHMM.transitionIndex(j, stateIndex, M)]; // log-space
+            if (prob > maxProb) {
+                stateIndexEnd = stateIndex;
+                maxProb = prob;
+            }
+        }
+        if (score != null)
+            score[0] = maxProb;
+        return stateIndexEnd;
+    }
+}
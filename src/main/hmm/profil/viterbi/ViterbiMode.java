@@ -0,0 +1,240 @@
+package main.hmm.profil.viterbi;
+
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+import main.logger.Log;
+
+/**
+ * Auswaehlbare Varianten des Viterbi-Algorithmus.
+ * Alle Varianten ausser {@link #FILTER} liefern den gleichen Score und Zustands-Pfad, unterscheiden sich aber im Speicher- und Zeitbedarf.
+ * {@link #SCORE} liefert nur Score und Laenge des Zustands-Pfades.
+ * {@link #FILTER} liefert nur eine Naeherung an Score und Laenge des Zustands-Pfades und darf daher nicht als exaktes Ergebnis verwendet werden.
+ *
+ * @author Soeren Metje
+ */
+public enum ViterbiMode {
+    /**
+     * Haelt die gesamte Viterbi-Matrix im Speicher ({@link Viterbi})
+     */
+    FULL("full") {
+        @Override
+        public ViterbiPath viterbi(ProfilHMM model, Sequence sequence) {
+            return Viterbi.viterbi(model, sequence);
+        }
+
+        @Override
+        public ViterbiPath viterbi(ProfilHMM model, Sequence sequence, ViterbiWorkspace workspace) {
+            return Viterbi.viterbi(model, sequence, workspace);
+        }
+
+        @Override
+        public long estimateBytes(ProfilHMM model, int sequenceLength) {
+            long bytes = fullBytes(model, sequenceLength);
+            if (Log.isPrintDebug()) // the whole matrix instead of two rolling rows is kept for debug output (Viterbi)
+                bytes += Math.max(0, sequenceLength - 1L) * Double.BYTES * rowSize(model);
+            return bytes;
+        }
+    },
+    /**
+     * Haelt nur rollierende Zeilen und Checkpoints im Speicher ({@link ViterbiCheckpoint})
+     */
+    CHECKPOINT("checkpoint") {
+        @Override
+        public ViterbiPath viterbi(ProfilHMM model, Sequence sequence) {
+            return ViterbiCheckpoint.viterbi(model, sequence);
+        }
+
+        @Override
+        public long estimateBytes(ProfilHMM model, int sequenceLength) {
+            long length = sequenceLength + 1L;
+            long interval = (long) Math.ceil(Math.sqrt(length));
+            long blockCount = (length + interval - 1) / interval;
+            // checkpoint rows, arguments of one block, rolling rows
+            return (blockCount * Double.BYTES + interval * Integer.BYTES + 2L * Double.BYTES) * rowSize(model)
+                    + pathBytes(model, sequenceLength);
+        }
+    },
+    /**
+     * Berechnet nur ein Band um die Diagonale und verbreitert es, bis kein Pfad ausserhalb besser sein kann ({@link ViterbiBanded})
+     */
+    BANDED("banded") {
+        @Override
+        public ViterbiPath viterbi(ProfilHMM model, Sequence sequence) {
+            return ViterbiBanded.viterbi(model, sequence);
+        }
+
+        @Override
+        public long estimateBytes(ProfilHMM model, int sequenceLength) {
+            return fullBytes(model, sequenceLength); // band may widen to the full matrix
+        }
+    },
+    /**
+     * Berechnet eine Sequenz parallel in Kacheln entlang der Anti-Diagonalen ({@link ViterbiWavefront})
+     */
+    WAVEFRONT("wavefront") {
+        @Override
+        public ViterbiPath viterbi(ProfilHMM model, Sequence sequence) {
+            return ViterbiWavefront.viterbi(model, sequence);
+        }
+
+        @Override
+        public long estimateBytes(ProfilHMM model, int sequenceLength) {
+            long edgeColumn = (sequenceLength + 1L) * ProfilHMM.STATE_COUNT * Double.BYTES;
+            return fullBytes(model, sequenceLength) + edgeColumn;
+        }
+    },
+    /**
+     * Berechnet nur Score und Laenge des Zustands-Pfades ({@link ViterbiScorer})
+     */
+    SCORE("score") {
+        @Override
+        public ViterbiPath viterbi(ProfilHMM model, Sequence sequence) {
+            return ViterbiScorer.score(model, sequence);
+        }
+
+        @Override
+        public ViterbiPath viterbi(ProfilHMM model, Sequence sequence, ViterbiWorkspace workspace) {
+            return ViterbiScorer.score(model, sequence, workspace);
+        }
+
+        @Override
+        public long estimateBytes(ProfilHMM model, int sequenceLength) {
+            // rolling rows, arguments and two rows of path lengths
+            return (2L * Double.BYTES + 3L * Integer.BYTES) * rowSize(model) + (long) sequenceLength * Integer.BYTES;
+        }
+    },
+    /**
+     * Berechnet eine Naeherung an Score und Laenge des Zustands-Pfades mit quantisierten Werten ({@link ViterbiFilter})
+     */
+    FILTER("filter") {
+        @Override
+        public ViterbiPath viterbi(ProfilHMM model, Sequence sequence) {
+            return ViterbiFilter.score(model, sequence);
+        }
+
+        @Override
+        public long estimateBytes(ProfilHMM model, int sequenceLength) {
+            // rolling rows, current row, arguments and two rows of path lengths
+            return (2L * Short.BYTES + 4L * Integer.BYTES) * rowSize(model) + (long) sequenceLength * Integer.BYTES;
+        }
+    };
+
+    /**
+     * Bezeichnung der Variante, wie sie als Argument uebergeben wird
+     */
+    private final String name;
+
+    /**
+     * Konstruktor
+     *
+     * @param name Bezeichnung der Variante
+     */
+    ViterbiMode(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Fuehrt die Variante des Viterbi-Algorithmus aus und liefert den Zustands-Pfad zurueck.
+     *
+     * @param model    Profil Hidden Markov Model
+     * @param sequence Beobachtungsfolge
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    public abstract ViterbiPath viterbi(ProfilHMM model, Sequence sequence) throws IllegalArgumentException;
+
+    /**
+     * Fuehrt die Variante des Viterbi-Algorithmus mit wiederverwendetem Arbeitsspeicher aus und liefert den Zustands-Pfad zurueck.
+     * Varianten ohne Unterstuetzung fuer {@link ViterbiWorkspace} ignorieren den Arbeitsspeicher.
+     *
+     * @param model     Profil Hidden Markov Model
+     * @param sequence  Beobachtungsfolge
+     * @param workspace Arbeitsspeicher des aufrufenden Threads
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    public ViterbiPath viterbi(ProfilHMM model, Sequence sequence, ViterbiWorkspace workspace) throws IllegalArgumentException {
+        return viterbi(model, sequence);
+    }
+
+    /**
+     * Schaetzt den Speicherbedarf der Variante fuer eine Sequenz der uebergebenen Laenge in Bytes ab
+     * (Matrizen, Zeilen und Zustands-Pfad, ohne Modell und Sequenz).
+     * Bei {@link #FULL} mit Debug-Ausgabe ({@link Log#isPrintDebug()}) ist die gesamte Matrix enthalten.
+     *
+     * @param model          Profil Hidden Markov Model
+     * @param sequenceLength Laenge der Sequenz
+     * @return geschaetzte Anzahl der Bytes
+     */
+    public abstract long estimateBytes(ProfilHMM model, int sequenceLength);
+
+    /**
+     * Liefert die Anzahl der Werte einer Zeile der Viterbi-Matrix zurueck
+     *
+     * @param model Profil Hidden Markov Model
+     * @return Anzahl der Werte
+     */
+    private static long rowSize(final ProfilHMM model) {
+        return (long) model.getLengthModel() * ProfilHMM.STATE_COUNT;
+    }
+
+    /**
+     * Liefert den Speicherbedarf von Index-Folge und Zustands-Pfad (mit Puffer fuer den Backtrace) in Bytes zurueck
+     *
+     * @param model          Profil Hidden Markov Model
+     * @param sequenceLength Laenge der Sequenz
+     * @return Anzahl der Bytes
+     */
+    private static long pathBytes(final ProfilHMM model, final int sequenceLength) {
+        return (long) sequenceLength * Integer.BYTES + 2L * (sequenceLength + 1L + model.getLengthModel()) * Integer.BYTES;
+    }
+
+    /**
+     * Liefert den Speicherbedarf des Viterbi-Algorithmus mit gepackten Argumenten der gesamten Matrix ({@link ViterbiTraceback}) in Bytes zurueck
+     *
+     * @param model          Profil Hidden Markov Model
+     * @param sequenceLength Laenge der Sequenz
+     * @return Anzahl der Bytes
+     */
+    private static long fullBytes(final ProfilHMM model, final int sequenceLength) {
+        long cellCount = (sequenceLength + 1L) * model.getLengthModel();
+        // traceback, rolling rows and argument row
+        return ViterbiTraceback.bytes(cellCount) + (2L * Double.BYTES + Integer.BYTES) * rowSize(model) + pathBytes(model, sequenceLength);
+    }
+
+    /**
+     * Liefert Bezeichnung der Variante zurueck
+     *
+     * @return Bezeichnung
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Liefert die Variante zur uebergebenen Bezeichnung zurueck
+     *
+     * @param name Bezeichnung
+     * @return Variante
+     * @throws IllegalArgumentException falls keine Variante mit der Bezeichnung existiert
+     */
+    public static ViterbiMode fromName(String name) throws IllegalArgumentException {
+        for (ViterbiMode mode : values()) {
+            if (mode.name.equals(name))
+                return mode;
+        }
+        throw new IllegalArgumentException("Viterbi mode " + name + " not found");
+    }
+
+    /**
+     * gibt string-representation zurueck
+     *
+     * @return string-representation
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -1,14 +1,31 @@
 package main.hmm.profil.viterbi;
 
 import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
 import main.hmm.profil.RNAProfilHMM;
 
 /**
  * Wrapper fuer Sequenz {@link Sequence}, die zusaetzlich das Ergebnis des Viterbi-Algo aus {@link RNAProfilHMM} haelt.
+ * <p>
+ * Der Zustands-Pfad wird lauflaengenkodiert gespeichert (je Lauf ein int mit Laenge und Zustand) und erst bei
+ * {@link #getStatePath()} zu einem char[] expandiert. {@link #getCigar()} liefert die kompakte Darstellung (z.B. "12M3I40M2D").
+ * <p>
+ * Schlaegt die Berechnung einer Sequenz fehl, haelt ein Ergebnis von {@link #failed(Sequence, String)} statt Score
+ * und Zustands-Pfad den Grund ({@link #isFailed()}, {@link #getError()}).
  *
  * @author Soeren Metje
  */
 public class ViterbiPath {
+    /**
+     * Anzahl der Bits fuer den Index des Zustands eines Laufs
+     */
+    private static final int RUN_STATE_BITS = 2;
+
+    /**
+     * Maximale Laenge eines Laufs
+     */
+    static final int MAX_RUN_LENGTH = Integer.MAX_VALUE >>> RUN_STATE_BITS;
+
     /**
      * Sequenz {@link Sequence}
      */
@@ -18,9 +35,19 @@ public class ViterbiPath {
      */
     private final double score;
     /**
-     * Zustands-Pfad
+     * Laeufe des Zustands-Pfades (Laenge &lt;&lt; RUN_STATE_BITS | Index des Zustands), null, falls nur der Score berechnet wurde
+     */
+    private final int[] runs;
+
+    /**
+     * Laenge des Zustands-Pfades
+     */
+    private final int pathLength;
+
+    /**
+     * Grund, falls die Berechnung fehlgeschlagen ist, sonst null
      */
-    private final char[] statePath;
+    private final String error;
 
     /**
      * Konstruktor
@@ -32,7 +59,91 @@ public class ViterbiPath {
     public ViterbiPath(Sequence sequence, double score, char[] statePath) {
         this.sequence = sequence;
         this.score = score;
-        this.statePath = statePath;
+        this.runs = encode(statePath);
+        this.pathLength = statePath.length;
+        this.error = null;
+    }
+
+    /**
+     * Konstruktor fuer bereits lauflaengenkodierte Zustands-Pfade (siehe {@link #run(int, int)})
+     *
+     * @param sequence Sequenz
+     * @param score    Bewertung
+     * @param runs     Laeufe des Zustands-Pfades
+     */
+    ViterbiPath(Sequence sequence, double score, int[] runs) {
+        this.sequence = sequence;
+        this.score = score;
+        this.runs = runs;
+        long length = 0;
+        for (int run : runs) {
+            length += runLength(run);
+        }
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("state path of " + sequence.getDescription() + " too long");
+        this.pathLength = (int) length;
+        this.error = null;
+    }
+
+    /**
+     * Konstruktor fuer Ergebnisse ohne Zustands-Pfad (siehe {@link ViterbiScorer})
+     *
+     * @param sequence   Sequenz
+     * @param score      Bewertung
+     * @param pathLength Laenge des Zustands-Pfades
+     */
+    public ViterbiPath(Sequence sequence, double score, int pathLength) {
+        this.sequence = sequence;
+        this.score = score;
+        this.runs = null;
+        this.pathLength = pathLength;
+        this.error = null;
+    }
+
+    /**
+     * Konstruktor fuer fehlgeschlagene Berechnungen
+     *
+     * @param sequence Sequenz
+     * @param error    Grund
+     */
+    private ViterbiPath(Sequence sequence, String error) {
+        this.sequence = sequence;
+        this.score = Double.NaN;
+        this.runs = null;
+        this.pathLength = 0;
+        this.error = error;
+    }
+
+    /**
+     * Liefert ein Ergebnis fuer eine fehlgeschlagene Berechnung zurueck (Score NaN, kein Zustands-Pfad)
+     *
+     * @param sequence Sequenz
+     * @param error    Grund
+     * @return Ergebnis mit Grund
+     * @throws IllegalArgumentException falls uebergebener Grund == null
+     */
+    public static ViterbiPath failed(Sequence sequence, String error) throws IllegalArgumentException {
+        if (error == null)
+            throw new IllegalArgumentException("error is null");
+        return new ViterbiPath(sequence, error);
+    }
+
+    /**
+     * Liefert true zurueck, falls die Berechnung fehlgeschlagen ist. Ansonsten false
+     *
+     * @return true, falls die Berechnung fehlgeschlagen ist
+     */
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    /**
+     * Liefert den Grund zurueck, falls die Berechnung fehlgeschlagen ist
+     *
+     * @return Grund oder null
+     */
+    public String getError() {
+        return error;
     }
 
     /**
@@ -54,14 +165,134 @@ public class ViterbiPath {
     }
 
     /**
-     * Liefert Zustands-Pfad zurueck
+     * Liefert Zustands-Pfad zurueck. Das Feld wird bei jedem Aufruf aus den Laeufen neu erzeugt
      *
-     * @return Zustands-Pfad
+     * @return Zustands-Pfad oder null, falls nur der Score berechnet wurde
      */
     public char[] getStatePath() {
+        if (runs == null)
+            return null;
+        char[] statePath = new char[pathLength];
+        int k = 0;
+        for (int run : runs) {
+            char state = ProfilHMM.STATES[runStateIndex(run)];
+            for (int end = k + runLength(run); k < end; k++) {
+                statePath[k] = state;
+            }
+        }
         return statePath;
     }
 
+    /**
+     * Liefert den lauflaengenkodierten Zustands-Pfad zurueck (z.B. "12M3I40M2D")
+     *
+     * @return lauflaengenkodierter Zustands-Pfad oder null, falls nur der Score berechnet wurde
+     */
+    public String getCigar() {
+        if (runs == null)
+            return null;
+        StringBuilder cigar = new StringBuilder(runs.length * 4);
+        for (int run : runs) {
+            cigar.append(runLength(run)).append(ProfilHMM.STATES[runStateIndex(run)]);
+        }
+        return cigar.toString();
+    }
+
+    /**
+     * Liefert die Anzahl der Laeufe des Zustands-Pfades zurueck
+     *
+     * @return Anzahl der Laeufe oder 0, falls nur der Score berechnet wurde
+     */
+    public int getRunCount() {
+        return runs == null ? 0 : runs.length;
+    }
+
+    /**
+     * Liefert true zurueck, falls der Zustands-Pfad vorhanden ist. Ansonsten false
+     *
+     * @return true, falls der Zustands-Pfad vorhanden ist. Ansonsten false
+     */
+    public boolean hasStatePath() {
+        return runs != null;
+    }
+
+    /**
+     * Liefert Laenge des Zustands-Pfades zurueck
+     *
+     * @return Laenge des Zustands-Pfades
+     */
+    public int getPathLength() {
+        return pathLength;
+    }
+
+    /**
+     * Kodiert einen Lauf von runLength gleichen Zustaenden
+     *
+     * @param stateIndex Index des Zustands
+     * @param runLength  Laenge des Laufs (hoechstens {@link #MAX_RUN_LENGTH})
+     * @return kodierter Lauf
+     */
+    static int run(final int stateIndex, final int runLength) {
+        return runLength << RUN_STATE_BITS | stateIndex;
+    }
+
+    /**
+     * Liefert die Laenge eines kodierten Laufs zurueck
+     *
+     * @param run kodierter Lauf
+     * @return Laenge
+     */
+    private static int runLength(final int run) {
+        return run >>> RUN_STATE_BITS;
+    }
+
+    /**
+     * Liefert den Index des Zustands eines kodierten Laufs zurueck
+     *
+     * @param run kodierter Lauf
+     * @return Index des Zustands
+     */
+    private static int runStateIndex(final int run) {
+        return run & ((1 << RUN_STATE_BITS) - 1);
+    }
+
+    /**
+     * Kodiert einen Zustands-Pfad in Laeufe
+     *
+     * @param statePath Zustands-Pfad
+     * @return Laeufe
+     */
+    private static int[] encode(final char[] statePath) {
+        int runCount = 0;
+        for (int k = 0; k < statePath.length; k++) {
+            if (k == 0 || statePath[k] != statePath[k - 1] || k % MAX_RUN_LENGTH == 0)
+                runCount++;
+        }
+        int[] runs = new int[runCount];
+        int r = -1;
+        for (int k = 0; k < statePath.length; k++) {
+            if (k == 0 || statePath[k] != statePath[k - 1] || k % MAX_RUN_LENGTH == 0)
+                runs[++r] = run(stateIndex(statePath[k]), 0);
+            runs[r] += 1 << RUN_STATE_BITS;
+        }
+        return runs;
+    }
+
+    /**
+     * Liefert den Index des Zustands zurueck
+     *
+     * @param state Zustand
+     * @return Index des Zustands
+     * @throws IllegalArgumentException falls der Zustand unbekannt ist
+     */
+    private static int stateIndex(final char state) throws IllegalArgumentException {
+        for (int s = 0; s < ProfilHMM.STATE_COUNT; s++) {
+            if (ProfilHMM.STATES[s] == state)
+                return s;
+        }
+        throw new IllegalArgumentException("unknown state " + state);
+    }
+
     /**
      * Liefert String mit Infos ueber den Zustands-Pfad zurueck
      *
@@ -69,6 +300,6 @@ public class ViterbiPath {
      */
     @Override
     public String toString() {
-        return "path " + sequence.getDescription();
+        return "path " + (sequence == null ? "without sequence" : sequence.getDescription()); // e.g. only score and length kept
     }
 }
@@ -0,0 +1,116 @@
+package main.hmm.profil.viterbi;
+
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+
+/**
+ * Enthaelt eine Implementation des Viterbi-Algorithmus fuer logarithmische Werte, die nur den Score berechnet.
+ * <p>
+ * Es werden weder die maximierenden Argumente gespeichert noch ein Backtrace durchgefuehrt.
+ * Stattdessen wird parallel zu den Viterbi-Werten fuer jeden Zustand die Laenge des Zustands-Pfades mitgefuehrt,
+ * den der Backtrace aus {@link Viterbi} ausgehend von der jeweiligen Zelle liefern wuerde.
+ * Dadurch werden nur zwei rollierende Zeilen benoetigt (Speicherbedarf O(lengthModel)).
+ * <p>
+ * Score und Laenge des Zustands-Pfades sind identisch zu denen aus {@link Viterbi}.
+ *
+ * @author Soeren Metje
+ */
+public class ViterbiScorer {
+
+    /**
+     * Berechnet den Score und die Laenge des wahrscheinlichsten Zustands-Pfades bei uebergebenen Beobachtungen.
+     * Der zurueckgelieferte {@link ViterbiPath} enthaelt keinen Zustands-Pfad.
+     *
+     * @param model    Profil Hidden Markov Model
+     * @param sequence Beobachtungsfolge
+     * @return Score und Laenge des Zustands-Pfades
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    public static ViterbiPath score(final ProfilHMM model, final Sequence sequence) throws IllegalArgumentException {
+        return score(model, sequence, new ViterbiWorkspace());
+    }
+
+    /**
+     * Berechnet den Score und die Laenge des wahrscheinlichsten Zustands-Pfades bei uebergebenen Beobachtungen.
+     * Die Index-Folge der Beobachtungen wird im Arbeitsspeicher abgelegt und bei gleicher Sequenz wiederverwendet.
+     *
+     * @param model     Profil Hidden Markov Model
+     * @param sequence  Beobachtungsfolge
+     * @param workspace Arbeitsspeicher (nicht gleichzeitig von mehreren Threads verwenden)
+     * @return Score und Laenge des Zustands-Pfades
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     * @see #score(ProfilHMM, Sequence)
+     */
+    public static ViterbiPath score(final ProfilHMM model, final Sequence sequence, final ViterbiWorkspace workspace) throws IllegalArgumentException {
+        if (sequence == null)
+            throw new IllegalArgumentException("sequence is null");
+
+        // init
+        int[] observationIndices = workspace.observationIndices(model, sequence); // may be longer than the sequence
+        int length = sequence.length() + 1;
+        int lengthModel = model.getLengthModel();
+
+        int rowSize = lengthModel * ProfilHMM.STATE_COUNT;
+
+        double[] rows = new double[2 * rowSize]; // two rolling rows
+        int[] args = new int[rowSize];
+        // pathLength[j * STATE_COUNT + s]: length of the backtrace starting in cell (i, j) following the arguments of state s
+        int[] pathLengthPrev = new int[rowSize];
+        int[] pathLengthCur = new int[rowSize];
+
+        for (int i = 0; i < length; i++) {
+            ViterbiKernel.fillRow(model, observationIndices, i, rows, ((i + 1) & 1) * rowSize, (i & 1) * rowSize, args, 0);
+            fillPathLength(i, lengthModel, args, pathLengthPrev, pathLengthCur);
+
+            int[] swap = pathLengthPrev;
+            pathLengthPrev = pathLengthCur;
+            pathLengthCur = swap;
+        }
+
+        double[] score = {Double.NEGATIVE_INFINITY};
+        int stateIndexEnd = ViterbiKernel.endState(model, rows, ((length - 1) & 1) * rowSize, score);
+
+        // end state + backtrace starting in last cell
+        int pathLength = 1 + pathLengthPrev[(lengthModel - 1) * ProfilHMM.STATE_COUNT + stateIndexEnd];
+
+        return new ViterbiPath(sequence, score[0], pathLength);
+    }
+
+    /**
+     * Berechnet fuer jeden Zustand s die Laenge des Backtrace, der in Zelle (i, j) beginnt und den
+     * maximierenden Argumenten von s folgt. Die Abbruchbedingung entspricht der aus {@link Viterbi}.
+     *
+     * @param i              Index der Zeile
+     * @param lengthModel    Laenge des Modells
+     * @param args           maximierende Argumente der Zeile i
+     * @param pathLengthPrev Laengen der Zeile i - 1
+     * @param pathLengthCur  Laengen der Zeile i (wird ueberschrieben)
+     */
+    static void fillPathLength(final int i, final int lengthModel, final int[] args,
+                                       final int[] pathLengthPrev, final int[] pathLengthCur) {
+        for (int j = 0; j < lengthModel; j++) {
+            for (int s = 0; s < ProfilHMM.STATE_COUNT; s++) {
+                int cell = j * ProfilHMM.STATE_COUNT + s;
+                if (i <= 1 && j <= 1) {
+                    pathLengthCur[cell] = 0;
+                    continue;
+                }
+                int next;
+                int a = args[cell];
+                if (a == ProfilHMM.STATE_MATCH_INDEX) {
+                    next = i > 0 && j > 0 ? pathLengthPrev[cell - ProfilHMM.STATE_COUNT] : 0;
+                } else if (a == ProfilHMM.STATE_INSERT_INDEX) {
+                    next = i > 0 ? pathLengthPrev[cell] : 0;
+                } else if (a == ProfilHMM.STATE_DELETE_INDEX) {
+                    next = j > 0 ? pathLengthCur[cell - ProfilHMM.STATE_COUNT] : 0;
+                } else {
+                    pathLengthCur[cell] = 0; // no predecessor
+                    continue;
+                }
+                pathLengthCur[cell] = 1 + next;
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package main.hmm.profil.viterbi;
+
+import main.hmm.profil.ProfilHMM;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Speichert die maximierenden Argumente der Viterbi-Matrix gepackt mit 2 Bit je Zustand (6 Bit je Zelle) in einem long[].
+ * <p>
+ * Das Argument des Zustands s in Zelle c liegt ab Bit (c * STATE_COUNT + s) * 2.
+ * Die Werte 0, 1, 2 stehen fuer Match, Insert und Delete, der Wert 3 fuer -1 (kein Vorgaenger).
+ * Nicht gesetzte Zellen liefern {@link ViterbiKernel#ARG_NONE}.
+ * <p>
+ * Disjunkte Bereiche von Zellen koennen parallel gesetzt werden ({@link #setRow(long, int[], int, int)}).
+ *
+ * @author Soeren Metje
+ */
+final class ViterbiTraceback {
+
+    /**
+     * Anzahl der Bits je Argument
+     */
+    private static final int BITS_PER_ARG = 2;
+
+    /**
+     * Maske eines Arguments
+     */
+    private static final int MASK = (1 << BITS_PER_ARG) - 1;
+
+    /**
+     * Anzahl der Bits je Zelle
+     */
+    private static final int BITS_PER_CELL = BITS_PER_ARG * ProfilHMM.STATE_COUNT;
+
+    /**
+     * Zugriff auf die Woerter mit atomarem Oder (fuer Woerter, die mehrere Bereiche enthalten)
+     */
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private long[] words;
+
+    /**
+     * Konstruktor
+     *
+     * @param cellCount Anzahl der Zellen
+     * @throws IllegalArgumentException falls die Zellen nicht in ein Feld passen ({@link #fits(long)})
+     */
+    ViterbiTraceback(final long cellCount) throws IllegalArgumentException {
+        if (!fits(cellCount))
+            throw new IllegalArgumentException("too many cells for traceback: " + cellCount);
+        this.words = new long[(int) wordCount(cellCount)];
+    }
+
+    /**
+     * Leert die Argumente fuer cellCount Zellen, das Feld wird nur vergroessert ({@link ViterbiWorkspace})
+     *
+     * @param cellCount Anzahl der Zellen
+     * @throws IllegalArgumentException falls die Zellen nicht in ein Feld passen ({@link #fits(long)})
+     */
+    void reset(final long cellCount) throws IllegalArgumentException {
+        if (!fits(cellCount))
+            throw new IllegalArgumentException("too many cells for traceback: " + cellCount);
+        int wordCount = (int) wordCount(cellCount);
+        if (words.length < wordCount)
+            words = new long[wordCount];
+        else
+            Arrays.fill(words, 0, wordCount, 0L);
+    }
+
+    /**
+     * Liefert zurueck, ob die uebergebene Anzahl an Zellen gespeichert werden kann
+     *
+     * @param cellCount Anzahl der Zellen
+     * @return true, falls die Zellen in ein Feld passen
+     */
+    static boolean fits(final long cellCount) {
+        return cellCount >= 0 && cellCount <= Long.MAX_VALUE / BITS_PER_CELL && wordCount(cellCount) <= Integer.MAX_VALUE - 8;
+    }
+
+    /**
+     * Liefert den Speicherbedarf der Argumente fuer cellCount Zellen in Bytes zurueck
+     *
+     * @param cellCount Anzahl der Zellen
+     * @return Anzahl der Bytes
+     */
+    static long bytes(final long cellCount) {
+        return wordCount(cellCount) * Long.BYTES;
+    }
+
+    /**
+     * Liefert die Anzahl der benoetigten Woerter zurueck
+     *
+     * @param cellCount Anzahl der Zellen
+     * @return Anzahl der Woerter
+     */
+    private static long wordCount(final long cellCount) {
+        return (cellCount * BITS_PER_CELL + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * Setzt die Argumente von count aufeinander folgenden Zellen ab Zelle cell.
+     * Die Argumente liegen wie in {@link ViterbiKernel} ab args[argOffset] mit STATE_COUNT Werten je Zelle.
+     * Jede Zelle darf nur einmal gesetzt werden.
+     *
+     * @param cell      erste Zelle
+     * @param args      maximierende Argumente
+     * @param argOffset Beginn der ersten Zelle in args
+     * @param count     Anzahl der Zellen
+     */
+    void setRow(final long cell, final int[] args, final int argOffset, final int count) {
+        long bit = cell * BITS_PER_CELL;
+        int word = (int) (bit / Long.SIZE);
+        int shift = (int) (bit % Long.SIZE);
+        boolean shared = shift != 0; // first word may contain cells of another range
+        long value = 0;
+        int end = argOffset + count * ProfilHMM.STATE_COUNT;
+        for (int k = argOffset; k < end; k++) {
+            value |= (long) (args[k] & MASK) << shift;
+            shift += BITS_PER_ARG;
+            if (shift == Long.SIZE) {
+                if (shared) {
+                    long ignored = (long) WORDS.getAndBitwiseOr(words, word, value);
+                    shared = false;
+                } else {
+                    words[word] = value;
+                }
+                word++;
+                shift = 0;
+                value = 0;
+            }
+        }
+        if (shift != 0) { // last word may contain cells of another range
+            long ignored = (long) WORDS.getAndBitwiseOr(words, word, value);
+        }
+    }
+
+    /**
+     * Liefert das maximierende Argument eines Zustands einer Zelle zurueck
+     *
+     * @param cell  Zelle
+     * @param state Index des Zustands
+     * @return Index des Vorgaenger-Zustands oder -1
+     */
+    int get(final long cell, final int state) {
+        long bit = cell * BITS_PER_CELL + (long) state * BITS_PER_ARG;
+        int code = (int) (words[(int) (bit / Long.SIZE)] >>> (bit % Long.SIZE)) & MASK;
+        return code == MASK ? -1 : code;
+    }
+}
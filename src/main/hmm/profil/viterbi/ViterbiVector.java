@@ -0,0 +1,341 @@
+package main.hmm.profil.viterbi;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+
+import java.util.Arrays;
+
+/**
+ * Enthaelt eine mittels der Vector API (jdk.incubator.vector) vektorisierte Implementation des Viterbi-Algorithmus
+ * fuer logarithmische Werte.
+ * <p>
+ * Die Werte einer Zeile liegen je Zustand in einem eigenen Feld (Match, Insert, Delete), die Modell-Positionen sind also
+ * fortlaufend. Match und Insert haengen nur von der vorherigen Zeile ab und werden fuer mehrere Modell-Positionen
+ * gleichzeitig berechnet. Fuer Delete werden die Kandidaten aus Match und Insert ebenfalls vektorisiert bestimmt,
+ * nur die Kette Delete -> Delete entlang der Zeile wird skalar berechnet.
+ * <p>
+ * Es wird mit double gerechnet und die Vergleiche erfolgen in derselben Reihenfolge wie in {@link ViterbiKernel},
+ * Score und Zustands-Pfad sind daher identisch zu denen aus {@link Viterbi}.
+ * <p>
+ * Die Klasse darf nur geladen werden, wenn das Modul jdk.incubator.vector verfuegbar ist ({@link Viterbi#isVectorAvailable()}).
+ *
+ * @author Soeren Metje
+ */
+final class ViterbiVector {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private static final int LANES = SPECIES.length();
+
+    private static final int M = ProfilHMM.STATE_MATCH_INDEX;
+    private static final int I = ProfilHMM.STATE_INSERT_INDEX;
+    private static final int D = ProfilHMM.STATE_DELETE_INDEX;
+
+    /**
+     * Keine Instanzen
+     */
+    private ViterbiVector() {
+    }
+
+    /**
+     * Liefert zurueck, ob die Hardware mehrere double-Werte gleichzeitig verarbeiten kann
+     *
+     * @return true, falls Vektorisierung lohnt
+     */
+    static boolean isSupported() {
+        return LANES >= 2;
+    }
+
+    /**
+     * Implementation des Viterbi-Algorithmus fuer bereits logarithmierte Werte.
+     * Liefert den wahrscheinlichsten Zustands-Pfad mit score bei uebergebenen Beobachtungen zurueck.
+     *
+     * @param model     Profil Hidden Markov Model
+     * @param sequence  Beobachtungsfolge
+     * @param workspace Arbeitsspeicher
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    static ViterbiPath viterbi(final ProfilHMM model, final Sequence sequence, final ViterbiWorkspace workspace) throws IllegalArgumentException {
+        if (sequence == null)
+            throw new IllegalArgumentException("sequence is null");
+
+        // init
+        int[] observationIndices = workspace.observationIndices(model, sequence);
+        int length = sequence.length() + 1;
+        int lengthModel = model.getLengthModel();
+
+        // rows are padded, so every vector load and store stays inside the row
+        int stride = (lengthModel + LANES - 1) / LANES * LANES + LANES;
+        if (!ViterbiTraceback.fits((long) length * lengthModel))
+            throw new IllegalArgumentException("sequence " + sequence.getDescription() + " too long for full Viterbi matrix");
+
+        // model tables per transition type and per base, indexed by model position
+        Tables tables = workspace.vectorTables(model);
+        if (tables == null) {
+            tables = new Tables(model, stride);
+            workspace.setVectorTables(model, tables);
+        }
+        final double[][] transitionProb = tables.transitionProb;
+        final double[][] emissionProbMatch = tables.emissionProbMatch;
+        final double[][] emissionProbInsert = tables.emissionProbInsert;
+        final double[] tMM = transitionProb[ProfilHMM.transitionIndex(0, M, M)];
+        final double[] tIM = transitionProb[ProfilHMM.transitionIndex(0, I, M)];
+        final double[] tDM = transitionProb[ProfilHMM.transitionIndex(0, D, M)];
+        final double[] tMI = transitionProb[ProfilHMM.transitionIndex(0, M, I)];
+        final double[] tII = transitionProb[ProfilHMM.transitionIndex(0, I, I)];
+        final double[] tDI = transitionProb[ProfilHMM.transitionIndex(0, D, I)];
+        final double[] tMD = transitionProb[ProfilHMM.transitionIndex(0, M, D)];
+        final double[] tID = transitionProb[ProfilHMM.transitionIndex(0, I, D)];
+        final double[] tDD = transitionProb[ProfilHMM.transitionIndex(0, D, D)];
+
+        // two rolling rows per state
+        double[][][] rows = workspace.vectorRows(stride);
+        double[][] rowM = rows[M], rowI = rows[I], rowD = rows[D];
+        for (int r = 0; r < 2; r++) {
+            Arrays.fill(rowM[r], 0, stride, Double.NEGATIVE_INFINITY);
+            Arrays.fill(rowI[r], 0, stride, Double.NEGATIVE_INFINITY);
+            Arrays.fill(rowD[r], 0, stride, Double.NEGATIVE_INFINITY);
+        }
+        // maximizing arguments are computed as double lanes (conversion to int is not intrinsified in JDK 17)
+        double[] candidateD = workspace.vectorBuffer(0, stride);
+        double[] candidateArgD = workspace.vectorBuffer(1, stride);
+        double[] argRowM = workspace.vectorBuffer(2, stride), argRowI = workspace.vectorBuffer(3, stride);
+        // maximizing arguments of the current row as in ViterbiKernel, packed into the traceback after each row
+        int[] argRow = workspace.argRow(lengthModel * ProfilHMM.STATE_COUNT);
+        Arrays.fill(argRow, 0, lengthModel * ProfilHMM.STATE_COUNT, ViterbiKernel.ARG_NONE);
+        ViterbiTraceback traceback = workspace.traceback((long) length * lengthModel);
+
+        // FILL MATRIX ----------------------------------------------------------------------------------
+        {
+            // first row: only Delete-State is reachable (from the start cell)
+            double[] curM = rowM[0], curI = rowI[0], curD = rowD[0];
+            curM[0] = 0d;
+            argRow[M] = ViterbiKernel.ARG_START;
+            for (int j = 1; j < lengthModel; j++) {
+                double maxProb = Double.NEGATIVE_INFINITY;
+                int maxArg = -1;
+                double prob = curM[j - 1] + tMD[j - 1]; // log-space
+                if (prob > maxProb) {
+                    maxProb = prob;
+                    maxArg = M;
+                }
+                prob = curI[j - 1] + tID[j - 1];
+                if (prob > maxProb) {
+                    maxProb = prob;
+                    maxArg = I;
+                }
+                prob = curD[j - 1] + tDD[j - 1];
+                if (prob > maxProb) {
+                    maxProb = prob;
+                    maxArg = D;
+                }
+                curD[j] = maxProb;
+                argRow[j * ProfilHMM.STATE_COUNT + D] = maxArg;
+            }
+            traceback.setRow(0, argRow, 0, lengthModel);
+        }
+
+        for (int i = 1; i < length; i++) {
+            final double[] prevM = rowM[(i + 1) & 1], prevI = rowI[(i + 1) & 1], prevD = rowD[(i + 1) & 1];
+            final double[] curM = rowM[i & 1], curI = rowI[i & 1], curD = rowD[i & 1];
+            final double[] emM = emissionProbMatch[observationIndices[i - 1]];
+            final double[] emI = emissionProbInsert[observationIndices[i - 1]];
+
+            // first column: only Insert-State is reachable
+            {
+                double maxProb = Double.NEGATIVE_INFINITY;
+                int maxArg = -1;
+                double prob = prevM[0] + tMI[0]; // log-space
+                if (prob > maxProb) {
+                    maxProb = prob;
+                    maxArg = M;
+                }
+                prob = prevI[0] + tII[0];
+                if (prob > maxProb) {
+                    maxProb = prob;
+                    maxArg = I;
+                }
+                prob = prevD[0] + tDI[0];
+                if (prob > maxProb) {
+                    maxProb = prob;
+                    maxArg = D;
+                }
+                curM[0] = Double.NEGATIVE_INFINITY;
+                curI[0] = emI[0] + maxProb;
+                curD[0] = Double.NEGATIVE_INFINITY;
+                argRow[M] = ViterbiKernel.ARG_NONE;
+                argRow[I] = maxArg;
+                argRow[D] = ViterbiKernel.ARG_NONE;
+            }
+
+            // Match: (i - 1, j - 1) -> (i, j) and Insert: (i - 1, j) -> (i, j), only depend on the previous row
+            maxOfThree(prevM, prevI, prevD, 1, tMM, tIM, tDM, emM, curM, argRowM, lengthModel);
+            maxOfThree(prevM, prevI, prevD, 0, tMI, tII, tDI, emI, curI, argRowI, lengthModel);
+
+            // Delete: candidates from Match and Insert of the current row (i, j - 1)
+            maxOfTwo(curM, curI, tMD, tID, candidateD, candidateArgD, lengthModel);
+
+            // Delete: chain (i, j - 1) -> (i, j) along the row
+            double leftD = curD[0];
+            for (int j = 1; j < lengthModel; j++) {
+                double probD = leftD + tDD[j - 1]; // log-space
+                double maxD = candidateD[j];
+                int arg = (int) candidateArgD[j];
+                if (probD > maxD) {
+                    maxD = probD;
+                    arg = D;
+                }
+                curD[j] = maxD; // no emission
+                argRow[j * ProfilHMM.STATE_COUNT + D] = arg;
+                leftD = maxD;
+            }
+            for (int j = 1; j < lengthModel; j++) { // store maximizing arguments of Match and Insert
+                argRow[j * ProfilHMM.STATE_COUNT + M] = (int) argRowM[j];
+                argRow[j * ProfilHMM.STATE_COUNT + I] = (int) argRowI[j];
+            }
+            traceback.setRow((long) i * lengthModel, argRow, 0, lengthModel);
+        }
+
+        // BACKTRACE -------------------------------------------------------------------------------------
+        // backtrace init / Find path with max prob (transition into end state interpreted as match state)
+        int last = (length - 1) & 1;
+        int j = lengthModel - 1;
+        double score = Double.NEGATIVE_INFINITY;
+        int stateIndexEnd = -1;
+        for (int stateIndex = 0; stateIndex < ProfilHMM.STATE_COUNT; stateIndex++) {
+            double prob = rows[stateIndex][last][j] + transitionProb[ProfilHMM.transitionIndex(0, stateIndex, M)][j]; // log-space
+            if (prob > score) {
+                stateIndexEnd = stateIndex;
+                score = prob;
+            }
+        }
+
+        int[] runs = workspace.runBuffer(length + lengthModel);
+        int start = Viterbi.backtrace(traceback, length, lengthModel, stateIndexEnd, runs, sequence);
+
+        return new ViterbiPath(sequence, score, Arrays.copyOfRange(runs, start, length + lengthModel));
+    }
+
+    /**
+     * Berechnet fuer die Modell-Positionen [1, lengthModel) das Maximum ueber die drei Vorgaenger-Zustaende
+     * (Vorgaenger an Position j - shift) und addiert die Emission an Position j.
+     *
+     * @param fromM       Werte des Vorgaengers Match
+     * @param fromI       Werte des Vorgaengers Insert
+     * @param fromD       Werte des Vorgaengers Delete
+     * @param shift       Abstand der Vorgaenger-Position (1 = diagonal, 0 = darueber)
+     * @param tM          Uebergaenge aus Match
+     * @param tI          Uebergaenge aus Insert
+     * @param tD          Uebergaenge aus Delete
+     * @param emission    Emissionen
+     * @param dest        Feld fuer die Werte
+     * @param destArg     Feld fuer die maximierenden Argumente
+     * @param lengthModel Laenge des Modells
+     */
+    private static void maxOfThree(final double[] fromM, final double[] fromI, final double[] fromD, final int shift,
+                                   final double[] tM, final double[] tI, final double[] tD, final double[] emission,
+                                   final double[] dest, final double[] destArg, final int lengthModel) {
+        final DoubleVector negInf = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        final DoubleVector argNone = DoubleVector.broadcast(SPECIES, -1);
+        final DoubleVector argMatch = DoubleVector.broadcast(SPECIES, M);
+        final DoubleVector argInsert = DoubleVector.broadcast(SPECIES, I);
+        final DoubleVector argDelete = DoubleVector.broadcast(SPECIES, D);
+        for (int j = 1; j < lengthModel; j += LANES) {
+            int k = j - shift;
+            DoubleVector probM = DoubleVector.fromArray(SPECIES, fromM, k).add(DoubleVector.fromArray(SPECIES, tM, k)); // log-space
+            DoubleVector probI = DoubleVector.fromArray(SPECIES, fromI, k).add(DoubleVector.fromArray(SPECIES, tI, k));
+            DoubleVector probD = DoubleVector.fromArray(SPECIES, fromD, k).add(DoubleVector.fromArray(SPECIES, tD, k));
+            // same order of comparisons as in ViterbiKernel
+            DoubleVector max = probM;
+            DoubleVector arg = argNone.blend(argMatch, probM.compare(VectorOperators.GT, negInf));
+            VectorMask<Double> greater = probI.compare(VectorOperators.GT, max);
+            arg = arg.blend(argInsert, greater);
+            max = max.blend(probI, greater);
+            greater = probD.compare(VectorOperators.GT, max);
+            arg = arg.blend(argDelete, greater);
+            max = max.blend(probD, greater);
+            max.add(DoubleVector.fromArray(SPECIES, emission, j)).intoArray(dest, j);
+            arg.intoArray(destArg, j);
+        }
+    }
+
+    /**
+     * Berechnet fuer die Modell-Positionen [1, lengthModel) das Maximum ueber die Vorgaenger Match und Insert
+     * an Position j - 1 der aktuellen Zeile (Kandidaten fuer Delete).
+     *
+     * @param fromM       Werte des Vorgaengers Match
+     * @param fromI       Werte des Vorgaengers Insert
+     * @param tM          Uebergaenge aus Match
+     * @param tI          Uebergaenge aus Insert
+     * @param dest        Feld fuer die Werte
+     * @param destArg     Feld fuer die maximierenden Argumente
+     * @param lengthModel Laenge des Modells
+     */
+    private static void maxOfTwo(final double[] fromM, final double[] fromI, final double[] tM, final double[] tI,
+                                 final double[] dest, final double[] destArg, final int lengthModel) {
+        final DoubleVector negInf = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        final DoubleVector argNone = DoubleVector.broadcast(SPECIES, -1);
+        final DoubleVector argMatch = DoubleVector.broadcast(SPECIES, M);
+        final DoubleVector argInsert = DoubleVector.broadcast(SPECIES, I);
+        for (int j = 1; j < lengthModel; j += LANES) {
+            DoubleVector probM = DoubleVector.fromArray(SPECIES, fromM, j - 1).add(DoubleVector.fromArray(SPECIES, tM, j - 1)); // log-space
+            DoubleVector probI = DoubleVector.fromArray(SPECIES, fromI, j - 1).add(DoubleVector.fromArray(SPECIES, tI, j - 1));
+            DoubleVector arg = argNone.blend(argMatch, probM.compare(VectorOperators.GT, negInf));
+            VectorMask<Double> greater = probI.compare(VectorOperators.GT, probM);
+            probM.blend(probI, greater).intoArray(dest, j);
+            arg.blend(argInsert, greater).intoArray(destArg, j);
+        }
+    }
+
+    /**
+     * Tabellen des Modells je Uebergangs-Typ und je Base, indiziert nach Modell-Position
+     * und mit -Infinity auf die Laenge einer Zeile aufgefuellt. Werden im {@link ViterbiWorkspace} wiederverwendet.
+     */
+    static final class Tables {
+        private final double[][] transitionProb;
+        private final double[][] emissionProbMatch;
+        private final double[][] emissionProbInsert;
+
+        /**
+         * Konstruktor
+         *
+         * @param model  Modell
+         * @param stride Laenge einer Zeile
+         */
+        private Tables(final ProfilHMM model, final int stride) {
+            int lengthModel = model.getLengthModel();
+            double[] transitionProbPacked = model.getTransitionProbPacked();
+            this.transitionProb = new double[ProfilHMM.TRANSITION_COUNT][];
+            for (int t = 0; t < ProfilHMM.TRANSITION_COUNT; t++) {
+                transitionProb[t] = new double[stride];
+                Arrays.fill(transitionProb[t], Double.NEGATIVE_INFINITY);
+                for (int j = 0; j < lengthModel; j++)
+                    transitionProb[t][j] = transitionProbPacked[j * ProfilHMM.TRANSITION_COUNT + t];
+            }
+            this.emissionProbMatch = pad(model.getEmissionProbMatchByBase(), stride);
+            this.emissionProbInsert = pad(model.getEmissionProbInsertByBase(), stride);
+        }
+    }
+
+    /**
+     * Kopiert die Zeilen in Felder der uebergebenen Laenge, aufgefuellt mit -Infinity
+     *
+     * @param values Zeilen
+     * @param length Laenge der Kopien
+     * @return aufgefuellte Kopien
+     */
+    private static double[][] pad(final double[][] values, final int length) {
+        double[][] padded = new double[values.length][];
+        for (int k = 0; k < values.length; k++) {
+            padded[k] = Arrays.copyOf(values[k], length);
+            Arrays.fill(padded[k], values[k].length, length, Double.NEGATIVE_INFINITY);
+        }
+        return padded;
+    }
+}
@@ -0,0 +1,218 @@
+package main.hmm.profil.viterbi;
+
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Enthaelt eine innerhalb einer Sequenz parallelisierte Implementation des Viterbi-Algorithmus fuer logarithmische Werte.
+ * <p>
+ * Die Viterbi-Matrix wird in Kacheln (Zeilen x Modell-Positionen) zerlegt.
+ * Eine Kachel haengt nur von ihrer linken, oberen und links-oberen Nachbar-Kachel ab,
+ * daher sind alle Kacheln einer Anti-Diagonale unabhaengig voneinander und werden in einem {@link ForkJoinPool} parallel berechnet.
+ * Die Anti-Diagonalen werden nacheinander abgearbeitet (Wellenfront).
+ * <p>
+ * Zwischen den Kacheln werden nur deren Raender ausgetauscht, die Werte werden also nicht als gesamte Matrix gehalten.
+ * Die maximierenden Argumente werden wie in {@link Viterbi} vollstaendig gespeichert.
+ * Score und Zustands-Pfad sind identisch zu denen aus {@link Viterbi}.
+ *
+ * @author Soeren Metje
+ */
+public class ViterbiWavefront {
+
+    /**
+     * Kantenlaenge einer Kachel (Anzahl Zeilen und Modell-Positionen)
+     */
+    public static final int TILE_SIZE = 64;
+
+    /**
+     * Implementation des Viterbi-Algorithmus fuer bereits logarithmierte Werte, parallelisiert im {@link ForkJoinPool#commonPool()}.
+     * Liefert den wahrscheinlichsten Zustands-Pfad mit score bei uebergebenen Beobachtungen zurueck.
+     *
+     * @param model    Profil Hidden Markov Model
+     * @param sequence Beobachtungsfolge
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    public static ViterbiPath viterbi(final ProfilHMM model, final Sequence sequence) throws IllegalArgumentException {
+        return viterbi(model, sequence, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Implementation des Viterbi-Algorithmus fuer bereits logarithmierte Werte, parallelisiert im uebergebenen Pool.
+     * Liefert den wahrscheinlichsten Zustands-Pfad mit score bei uebergebenen Beobachtungen zurueck.
+     *
+     * @param model    Profil Hidden Markov Model
+     * @param sequence Beobachtungsfolge
+     * @param pool     Pool, in dem die Kacheln berechnet werden
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    public static ViterbiPath viterbi(final ProfilHMM model, final Sequence sequence, final ForkJoinPool pool) throws IllegalArgumentException {
+        return viterbi(model, sequence, pool, TILE_SIZE);
+    }
+
+    /**
+     * Implementation des Viterbi-Algorithmus mit uebergebener Kachel-Groesse.
+     *
+     * @param model    Profil Hidden Markov Model
+     * @param sequence Beobachtungsfolge
+     * @param pool     Pool, in dem die Kacheln berechnet werden
+     * @param tileSize Kantenlaenge einer Kachel
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls uebergebene Sequenz {@link Sequence} == null
+     *                                  oder falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    static ViterbiPath viterbi(final ProfilHMM model, final Sequence sequence, final ForkJoinPool pool, final int tileSize) throws IllegalArgumentException {
+        if (sequence == null)
+            throw new IllegalArgumentException("sequence is null");
+
+        // init
+        int[] observationIndices = model.observationsToIndices(sequence);
+        int length = observationIndices.length + 1;
+        int lengthModel = model.getLengthModel();
+        if (!ViterbiTraceback.fits((long) length * lengthModel))
+            throw new IllegalArgumentException("sequence " + sequence.getDescription() + " too long for full Viterbi matrix");
+
+        // FILL MATRIX ----------------------------------------------------------------------------------
+        Wavefront wavefront = new Wavefront(model, observationIndices, tileSize);
+        for (int diagonal = 0; diagonal < wavefront.tileRows + wavefront.tileColumns - 1; diagonal++) {
+            int fromTileRow = Math.max(0, diagonal - wavefront.tileColumns + 1);
+            int toTileRow = Math.min(diagonal, wavefront.tileRows - 1) + 1;
+            pool.invoke(new DiagonalTask(wavefront, diagonal, fromTileRow, toTileRow));
+        }
+
+        // BACKTRACE -------------------------------------------------------------------------------------
+        // edgeRow holds the last row after all tiles are finished
+        double[] maxScore = {Double.NEGATIVE_INFINITY};
+        int stateIndexEnd = ViterbiKernel.endState(model, wavefront.edgeRow, 0, maxScore);
+
+        int[] runs = new int[length + lengthModel];
+        int start = Viterbi.backtrace(wavefront.traceback, length, lengthModel, stateIndexEnd, runs, sequence);
+
+        return new ViterbiPath(sequence, maxScore[0], Arrays.copyOfRange(runs, start, runs.length));
+    }
+
+    /**
+     * Gemeinsamer Zustand einer Berechnung: maximierende Argumente und Raender der Kacheln
+     */
+    private static class Wavefront {
+        private final ProfilHMM model;
+        private final int[] observationIndices;
+        private final int tileSize;
+        private final int length;
+        private final int lengthModel;
+        private final int tileRows;
+        private final int tileColumns;
+
+        /**
+         * maximierende Argumente, gepackt wie in {@link Viterbi}
+         */
+        private final ViterbiTraceback traceback;
+
+        /**
+         * letzte berechnete Zeile je Kachel-Spalte
+         */
+        private final double[] edgeRow;
+
+        /**
+         * letzte berechnete Spalte je Kachel-Zeile
+         */
+        private final double[] edgeColumn;
+
+        /**
+         * Zelle unten rechts je Kachel, wird von der rechts-unteren Nachbar-Kachel gelesen
+         */
+        private final double[] corners;
+
+        Wavefront(ProfilHMM model, int[] observationIndices, int tileSize) {
+            this.model = model;
+            this.observationIndices = observationIndices;
+            this.tileSize = tileSize;
+            this.length = observationIndices.length + 1;
+            this.lengthModel = model.getLengthModel();
+            this.tileRows = (length + tileSize - 1) / tileSize;
+            this.tileColumns = (lengthModel + tileSize - 1) / tileSize;
+            this.traceback = new ViterbiTraceback((long) length * lengthModel);
+            this.edgeRow = new double[lengthModel * ProfilHMM.STATE_COUNT];
+            this.edgeColumn = new double[length * ProfilHMM.STATE_COUNT];
+            this.corners = new double[tileRows * tileColumns * ProfilHMM.STATE_COUNT];
+        }
+
+        /**
+         * Berechnet die Kachel (tileRow, tileColumn).
+         * Alle Kacheln links und oberhalb muessen bereits berechnet sein.
+         */
+        void computeTile(int tileRow, int tileColumn) {
+            final int rowFrom = tileRow * tileSize, rowTo = Math.min(rowFrom + tileSize, length);
+            final int from = tileColumn * tileSize, to = Math.min(from + tileSize, lengthModel);
+
+            // two local rolling rows covering the columns [from - 1, to)
+            final int columnStart = Math.max(from - 1, 0);
+            final int width = (to - columnStart) * ProfilHMM.STATE_COUNT;
+            final double[] rows = new double[2 * width];
+            final int shift = columnStart * ProfilHMM.STATE_COUNT; // local offset = row start - shift
+            final int[] argRow = new int[(to - from) * ProfilHMM.STATE_COUNT]; // maximizing arguments of the columns [from, to)
+
+            if (rowFrom > 0) {
+                // row above the tile: bottom row of the tile above and bottom right cell of the tile above left
+                int prev = ((rowFrom + 1) & 1) * width;
+                if (from > 0)
+                    System.arraycopy(corners, ((tileRow - 1) * tileColumns + tileColumn - 1) * ProfilHMM.STATE_COUNT, rows, prev, ProfilHMM.STATE_COUNT);
+                System.arraycopy(edgeRow, from * ProfilHMM.STATE_COUNT, rows, prev + (from - columnStart) * ProfilHMM.STATE_COUNT,
+                        (to - from) * ProfilHMM.STATE_COUNT);
+            }
+
+            for (int i = rowFrom; i < rowTo; i++) {
+                int cur = (i & 1) * width;
+                if (from > 0) // last column of the tile left
+                    System.arraycopy(edgeColumn, i * ProfilHMM.STATE_COUNT, rows, cur, ProfilHMM.STATE_COUNT);
+                ViterbiKernel.fillRow(model, observationIndices, i, rows, ((i + 1) & 1) * width - shift, cur - shift,
+                        argRow, -from * ProfilHMM.STATE_COUNT, from, to);
+                traceback.setRow((long) i * lengthModel + from, argRow, 0, to - from);
+                System.arraycopy(rows, cur + width - ProfilHMM.STATE_COUNT, edgeColumn, i * ProfilHMM.STATE_COUNT, ProfilHMM.STATE_COUNT);
+            }
+
+            int last = ((rowTo - 1) & 1) * width;
+            System.arraycopy(rows, last + (from - columnStart) * ProfilHMM.STATE_COUNT, edgeRow, from * ProfilHMM.STATE_COUNT,
+                    (to - from) * ProfilHMM.STATE_COUNT);
+            System.arraycopy(rows, last + width - ProfilHMM.STATE_COUNT, corners, (tileRow * tileColumns + tileColumn) * ProfilHMM.STATE_COUNT,
+                    ProfilHMM.STATE_COUNT);
+        }
+    }
+
+    /**
+     * Berechnet die Kacheln [fromTileRow, toTileRow) einer Anti-Diagonale, teilt den Bereich bei Bedarf auf
+     */
+    private static class DiagonalTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Wavefront wavefront;
+        private final int diagonal;
+        private final int fromTileRow;
+        private final int toTileRow;
+
+        DiagonalTask(Wavefront wavefront, int diagonal, int fromTileRow, int toTileRow) {
+            this.wavefront = wavefront;
+            this.diagonal = diagonal;
+            this.fromTileRow = fromTileRow;
+            this.toTileRow = toTileRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (toTileRow - fromTileRow == 1) {
+                wavefront.computeTile(fromTileRow, diagonal - fromTileRow);
+            } else {
+                int mid = (fromTileRow + toTileRow) >>> 1;
+                invokeAll(new DiagonalTask(wavefront, diagonal, fromTileRow, mid),
+                        new DiagonalTask(wavefront, diagonal, mid, toTileRow));
+            }
+        }
+    }
+}
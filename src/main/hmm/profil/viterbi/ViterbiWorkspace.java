@@ -0,0 +1,200 @@
+package main.hmm.profil.viterbi;
+
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+
+import java.util.Arrays;
+
+/**
+ * Arbeitsspeicher fuer wiederholte Aufrufe des Viterbi-Algorithmus ({@link Viterbi#viterbi(ProfilHMM, Sequence, ViterbiWorkspace)}).
+ * <p>
+ * Die Felder wachsen nur und werden bei jedem Aufruf wiederverwendet, sodass pro Sequenz nur das Ergebnis
+ * ({@link ViterbiPath}) neu angelegt wird. Der Speicher richtet sich nach der laengsten bisher berechneten Sequenz.
+ * Die Index-Folge der zuletzt berechneten Sequenz wird behalten: Wird dieselbe Sequenz nacheinander mit mehreren Modellen
+ * gleicher Basen berechnet (z.B. {@link main.hmm.profil.viterbi.parallel.ViterbiPanel}), wird sie nur einmal kodiert.
+ * <p>
+ * Nicht threadsicher: Jeder Thread (z.B. {@link main.hmm.profil.viterbi.parallel.ParallelizationSupporter}) verwendet einen eigenen Arbeitsspeicher.
+ *
+ * @author Soeren Metje
+ */
+public final class ViterbiWorkspace {
+
+    /**
+     * Anzahl der Hilfs-Zeilen von {@link ViterbiVector}
+     */
+    static final int VECTOR_BUFFER_COUNT = 4;
+
+    /**
+     * Index-Folge der Beobachtungen
+     */
+    private int[] observationIndices = new int[0];
+
+    /**
+     * Sequenz, deren Index-Folge in observationIndices steht, oder null
+     */
+    private Sequence encodedSequence;
+
+    /**
+     * Basen des Modells, mit dem encodedSequence kodiert wurde
+     */
+    private char[] encodedBases;
+
+    /**
+     * Werte der Viterbi-Matrix (rollierende Zeilen)
+     */
+    private double[] values = new double[0];
+
+    /**
+     * maximierende Argumente der aktuellen Zeile
+     */
+    private int[] argRow = new int[0];
+
+    /**
+     * gepackte maximierende Argumente der gesamten Matrix
+     */
+    private final ViterbiTraceback traceback = new ViterbiTraceback(0);
+
+    /**
+     * Puffer fuer die Laeufe des Zustands-Pfades
+     */
+    private int[] runBuffer = new int[0];
+
+    /**
+     * Zwei rollierende Zeilen je Zustand von {@link ViterbiVector}
+     */
+    private final double[][][] vectorRows = new double[ProfilHMM.STATE_COUNT][2][0];
+
+    /**
+     * Hilfs-Zeilen von {@link ViterbiVector}
+     */
+    private final double[][] vectorBuffers = new double[VECTOR_BUFFER_COUNT][0];
+
+    /**
+     * Modell, zu dem die aufgefuellten Tabellen von {@link ViterbiVector} gehoeren
+     */
+    private ProfilHMM vectorModel;
+
+    /**
+     * aufgefuellte Tabellen von {@link ViterbiVector} oder null
+     */
+    private ViterbiVector.Tables vectorTables;
+
+    /**
+     * Mappt die Beobachtungen der Sequenz auf Indizes und liefert das Feld zurueck.
+     * Das Feld kann laenger als die Sequenz sein.
+     * Wurde dieselbe Sequenz zuletzt mit den gleichen Basen kodiert, wird die vorhandene Index-Folge zurueck geliefert.
+     *
+     * @param model    Modell
+     * @param sequence Sequenz
+     * @return Index-Folge der Beobachtungen
+     * @throws IllegalArgumentException falls Beobachtung nicht im Feld entsprechenden gefunden wird
+     */
+    int[] observationIndices(final ProfilHMM model, final Sequence sequence) throws IllegalArgumentException {
+        if (sequence == encodedSequence && Arrays.equals(model.getBases(), encodedBases))
+            return observationIndices; // sequences are immutable
+        encodedSequence = null; // invalid until encoding succeeded
+        if (observationIndices.length < sequence.length())
+            observationIndices = new int[sequence.length()];
+        model.observationsToIndices(sequence, observationIndices);
+        encodedSequence = sequence;
+        encodedBases = model.getBases();
+        return observationIndices;
+    }
+
+    /**
+     * Liefert ein Feld fuer die Werte der Viterbi-Matrix mit mindestens size Eintraegen zurueck (Inhalt undefiniert)
+     *
+     * @param size Anzahl der Eintraege
+     * @return Feld
+     */
+    double[] values(final int size) {
+        if (values.length < size)
+            values = new double[size];
+        return values;
+    }
+
+    /**
+     * Liefert ein Feld fuer die maximierenden Argumente einer Zeile mit mindestens size Eintraegen zurueck (Inhalt undefiniert)
+     *
+     * @param size Anzahl der Eintraege
+     * @return Feld
+     */
+    int[] argRow(final int size) {
+        if (argRow.length < size)
+            argRow = new int[size];
+        return argRow;
+    }
+
+    /**
+     * Liefert die geleerten gepackten maximierenden Argumente fuer cellCount Zellen zurueck
+     *
+     * @param cellCount Anzahl der Zellen
+     * @return gepackte maximierende Argumente
+     */
+    ViterbiTraceback traceback(final long cellCount) {
+        traceback.reset(cellCount);
+        return traceback;
+    }
+
+    /**
+     * Liefert einen Puffer fuer die Laeufe des Zustands-Pfades mit mindestens size Eintraegen zurueck (Inhalt undefiniert)
+     *
+     * @param size Anzahl der Eintraege
+     * @return Puffer
+     */
+    int[] runBuffer(final int size) {
+        if (runBuffer.length < size)
+            runBuffer = new int[size];
+        return runBuffer;
+    }
+
+    /**
+     * Liefert die rollierenden Zeilen [Zustand][Zeile] von {@link ViterbiVector} mit mindestens size Eintraegen zurueck (Inhalt undefiniert)
+     *
+     * @param size Anzahl der Eintraege je Zeile
+     * @return Zeilen
+     */
+    double[][][] vectorRows(final int size) {
+        for (double[][] rows : vectorRows) {
+            for (int r = 0; r < rows.length; r++) {
+                if (rows[r].length < size)
+                    rows[r] = new double[size];
+            }
+        }
+        return vectorRows;
+    }
+
+    /**
+     * Liefert die Hilfs-Zeile index von {@link ViterbiVector} mit mindestens size Eintraegen zurueck (Inhalt undefiniert)
+     *
+     * @param index Index der Hilfs-Zeile
+     * @param size  Anzahl der Eintraege
+     * @return Hilfs-Zeile
+     */
+    double[] vectorBuffer(final int index, final int size) {
+        if (vectorBuffers[index].length < size)
+            vectorBuffers[index] = new double[size];
+        return vectorBuffers[index];
+    }
+
+    /**
+     * Liefert die aufgefuellten Tabellen von {@link ViterbiVector} zum uebergebenen Modell zurueck, falls vorhanden
+     *
+     * @param model Modell
+     * @return Tabellen oder null
+     */
+    ViterbiVector.Tables vectorTables(final ProfilHMM model) {
+        return model == vectorModel ? vectorTables : null;
+    }
+
+    /**
+     * Speichert die aufgefuellten Tabellen von {@link ViterbiVector} zum uebergebenen Modell
+     *
+     * @param model  Modell
+     * @param tables Tabellen
+     */
+    void setVectorTables(final ProfilHMM model, final ViterbiVector.Tables tables) {
+        this.vectorModel = model;
+        this.vectorTables = tables;
+    }
+}
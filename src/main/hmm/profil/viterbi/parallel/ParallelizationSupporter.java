@@ -1,15 +1,25 @@
 package main.hmm.profil.viterbi.parallel;
 
 import main.fastaparser.Sequence;
+import main.fastaparser.UncheckedFastaParserException;
 import main.hmm.profil.ProfilHMM;
 import main.hmm.profil.RNAProfilHMM;
+import main.hmm.profil.viterbi.ViterbiMode;
 import main.hmm.profil.viterbi.ViterbiPath;
+import main.hmm.profil.viterbi.ViterbiWavefront;
 import main.logger.Log;
 
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Enthaelt Methode zur parallelisierten Ausfuehrung des Viterbi-Algorithmus fuer mehrere Sequenzen.
@@ -18,48 +28,308 @@ import java.util.Queue;
  */
 public class ParallelizationSupporter {
 
+    /**
+     * Anzahl der Zellen (Laenge der Sequenz * Laenge des Modells), ab der eine Sequenz
+     * innerhalb der Sequenz parallelisiert wird ({@link ViterbiWavefront})
+     */
+    public static final long WAVEFRONT_CELL_THRESHOLD = 1L << 24;
+
     /**
      * Fuehrt Viterbi-Algorithmus parallelisiert aus und liefert die berechneten Zustands-Pfade {@link ViterbiPath} zurueck.
      * <p>
-     * Es werden so viele Threads erstellt, wie logische Kerne der JVM zur verfuegung stehen.
-     * Die Threads berechnen anhand des uebergebenen Models fuer jede Sequenz den Zustands-Pfad.
-     * Abschlissend wird auf die Threads gewartet und eine Liste mit den Zustands-Pfaden {@link ViterbiPath} zurueck geliefert.
+     * Es werden so viele Aufgaben in einem {@link ExecutorService} gestartet, wie logische Kerne der JVM zur verfuegung stehen.
+     * Die Aufgaben berechnen anhand des uebergebenen Models fuer jede Sequenz den Zustands-Pfad.
+     * Abschlissend wird auf die Aufgaben gewartet und eine Liste mit den Zustands-Pfaden {@link ViterbiPath} zurueck geliefert.
      *
      * @param model     {@link RNAProfilHMM} Modell
      * @param sequences {@link Sequence} Sequenz
      * @return Liste mit den Zustands-Pfaden {@link ViterbiPath}
      */
     public static List<ViterbiPath> viterbiParallelized(ProfilHMM model, List<Sequence> sequences) {
-        int sequenceCount = sequences.size();
+        return viterbiParallelized(model, sequences, ViterbiMode.FULL);
+    }
+
+    /**
+     * Fuehrt uebergebene Variante des Viterbi-Algorithmus parallelisiert aus und liefert die berechneten Zustands-Pfade {@link ViterbiPath} zurueck.
+     * <p>
+     * Bei {@link ViterbiMode#FULL} wird zusaetzlich innerhalb einer Sequenz parallelisiert ({@link ViterbiWavefront}),
+     * falls weniger Sequenzen als Kerne vorhanden sind oder die Sequenz mehr als {@link #WAVEFRONT_CELL_THRESHOLD} Zellen hat.
+     * Die Sequenzen werden absteigend nach Kosten verteilt ({@link ViterbiSchedule#LONGEST_FIRST}).
+     *
+     * @param model     {@link RNAProfilHMM} Modell
+     * @param sequences {@link Sequence} Sequenz
+     * @param mode      Variante des Viterbi-Algorithmus
+     * @return Liste mit den Zustands-Pfaden {@link ViterbiPath}
+     * @see #viterbiParallelized(ProfilHMM, List)
+     */
+    public static List<ViterbiPath> viterbiParallelized(ProfilHMM model, List<Sequence> sequences, ViterbiMode mode) {
+        return viterbiParallelized(model, sequences, mode, ViterbiSchedule.LONGEST_FIRST);
+    }
+
+    /**
+     * Fuehrt uebergebene Variante des Viterbi-Algorithmus parallelisiert aus und liefert die berechneten Zustands-Pfade {@link ViterbiPath}
+     * in der Reihenfolge der Sequenzen zurueck. Die Sequenzen werden in der Reihenfolge der uebergebenen {@link ViterbiSchedule} verteilt.
+     *
+     * @param model     {@link RNAProfilHMM} Modell
+     * @param sequences {@link Sequence} Sequenz
+     * @param mode      Variante des Viterbi-Algorithmus
+     * @param schedule  Reihenfolge der Verteilung
+     * @return Liste mit den Zustands-Pfaden {@link ViterbiPath}
+     * @see #viterbiParallelized(ProfilHMM, List, ViterbiMode)
+     */
+    public static List<ViterbiPath> viterbiParallelized(ProfilHMM model, List<? extends Sequence> sequences, ViterbiMode mode,
+                                                        ViterbiSchedule schedule) {
+        return viterbiParallelized(model, sequences, mode, schedule, ViterbiMemoryBudget.fromMaxMemory());
+    }
+
+    /**
+     * Wie {@link #viterbiParallelized(ProfilHMM, List, ViterbiMode, ViterbiSchedule)}, reserviert den Speicherbedarf
+     * jeder Berechnung aber gegen das uebergebene Budget. Mehrere gleichzeitige Aufrufe koennen sich ein Budget teilen.
+     *
+     * @param model     {@link RNAProfilHMM} Modell
+     * @param sequences {@link Sequence} Sequenz
+     * @param mode      Variante des Viterbi-Algorithmus
+     * @param schedule  Reihenfolge der Verteilung
+     * @param budget    Speicherbudget
+     * @return Liste mit den Zustands-Pfaden {@link ViterbiPath}
+     */
+    public static List<ViterbiPath> viterbiParallelized(ProfilHMM model, List<? extends Sequence> sequences, ViterbiMode mode,
+                                                        ViterbiSchedule schedule, ViterbiMemoryBudget budget) {
+        return viterbiParallelized(model, sequences, null, mode, schedule, budget);
+    }
+
+    /**
+     * Fuehrt uebergebene Variante des Viterbi-Algorithmus parallelisiert fuer die Sequenzen des Iterators aus
+     * und liefert die berechneten Zustands-Pfade {@link ViterbiPath} in der Reihenfolge der Sequenzen zurueck.
+     * <p>
+     * Die Sequenzen werden erst bei Bedarf vom Iterator abgefragt, die Berechnung beginnt also mit der ersten Sequenz,
+     * waehrend z.B. ein {@link main.fastaparser.FastaReader} noch einliesst. Es werden nur die Ergebnisse gehalten.
+     * Da die Sequenzen vorab nicht bekannt sind, werden sie in der Reihenfolge des Iterators verteilt.
+     *
+     * @param model     {@link RNAProfilHMM} Modell
+     * @param sequences {@link Sequence} Sequenzen, werden von mehreren Threads synchronisiert abgefragt
+     * @param mode      Variante des Viterbi-Algorithmus
+     * @return Liste mit den Zustands-Pfaden {@link ViterbiPath}
+     * @throws UncheckedIOException          falls der Iterator beim Einlesen scheitert
+     * @throws UncheckedFastaParserException falls der Iterator beim Parsen scheitert
+     * @see #viterbiParallelized(ProfilHMM, List, ViterbiMode)
+     */
+    public static List<ViterbiPath> viterbiParallelized(ProfilHMM model, Iterator<? extends Sequence> sequences, ViterbiMode mode) {
+        return viterbiParallelized(model, sequences, mode, ViterbiMemoryBudget.fromMaxMemory());
+    }
+
+    /**
+     * Wie {@link #viterbiParallelized(ProfilHMM, Iterator, ViterbiMode)}, reserviert den Speicherbedarf
+     * jeder Berechnung aber gegen das uebergebene Budget. Mehrere gleichzeitige Aufrufe koennen sich ein Budget teilen.
+     *
+     * @param model     {@link RNAProfilHMM} Modell
+     * @param sequences {@link Sequence} Sequenzen, werden von mehreren Threads synchronisiert abgefragt
+     * @param mode      Variante des Viterbi-Algorithmus
+     * @param budget    Speicherbudget
+     * @return Liste mit den Zustands-Pfaden {@link ViterbiPath}
+     * @throws UncheckedIOException          falls der Iterator beim Einlesen scheitert
+     * @throws UncheckedFastaParserException falls der Iterator beim Parsen scheitert
+     */
+    public static List<ViterbiPath> viterbiParallelized(ProfilHMM model, Iterator<? extends Sequence> sequences, ViterbiMode mode,
+                                                        ViterbiMemoryBudget budget) {
+        return viterbiParallelized(model, null, sequences, mode, ViterbiSchedule.INPUT_ORDER, budget);
+    }
+
+    /**
+     * Fuehrt uebergebene Variante des Viterbi-Algorithmus parallelisiert aus.
+     * <p>
+     * Aller Zustand liegt in einem eigenen {@link ViterbiRun}, mehrere Aufrufe (z.B. fuer verschiedene Modelle)
+     * koennen also gleichzeitig laufen.
+     * Die Sequenzen werden von einer Aufgabe je Thread eines eigenen {@link ExecutorService} abgearbeitet.
+     * Wird der aufrufende Thread beim Warten unterbrochen oder scheitert das Einlesen der Sequenzen, werden die Aufgaben abgebrochen.
+     * <p>
+     * Vor jeder Berechnung wird ihr geschaetzter Speicherbedarf ({@link ViterbiMode#estimateBytes(ProfilHMM, int)}) gegen das Budget reserviert,
+     * reicht der Speicher nicht, wartet der Thread. Uebersteigt der Bedarf einer Sequenz das gesamte Budget,
+     * wird sie mit {@link ViterbiMode#CHECKPOINT} berechnet (falls das weniger Speicher benoetigt) und sonst allein,
+     * statt den Aufruf mit einem OutOfMemoryError abzubrechen.
+     * <p>
+     * Schlaegt die Berechnung einer Sequenz fehl (ungueltiges Zeichen oder OutOfMemoryError auch nach Wiederholung mit
+     * {@link ViterbiMode#CHECKPOINT}), steht an ihrer Position {@link ViterbiPath#failed(Sequence, String)}, die uebrigen
+     * Sequenzen werden weiter berechnet. Abschliessend wird eine Zusammenfassung ausgegeben.
+     *
+     * @param model     {@link RNAProfilHMM} Modell
+     * @param list      {@link Sequence} Sequenzen als Liste oder null
+     * @param iterator  {@link Sequence} Sequenzen als Iterator, falls list == null
+     * @param mode      Variante des Viterbi-Algorithmus
+     * @param schedule  Reihenfolge der Verteilung, nur fuer list
+     * @param budget    Speicherbudget
+     * @return Liste mit den Zustands-Pfaden {@link ViterbiPath}
+     * @throws IllegalArgumentException      falls uebergebenes Budget == null
+     * @throws CancellationException         falls der aufrufende Thread beim Warten unterbrochen wird
+     * @throws UncheckedIOException          falls der Iterator beim Einlesen scheitert
+     * @throws UncheckedFastaParserException falls der Iterator beim Parsen scheitert
+     */
+    private static List<ViterbiPath> viterbiParallelized(ProfilHMM model, List<? extends Sequence> list,
+                                                         Iterator<? extends Sequence> iterator, ViterbiMode mode,
+                                                         ViterbiSchedule schedule, ViterbiMemoryBudget budget) throws IllegalArgumentException {
+        if (budget == null)
+            throw new IllegalArgumentException("budget is null");
+        int sequenceCount = list == null ? -1 : list.size();
         int coreCount = Runtime.getRuntime().availableProcessors(); // returns count of logical cores available to JVM
         Log.dLine("available Cores = " + coreCount);
-        // Init sequenceQueue
-        Queue<Sequence> sequenceQueue = new LinkedList<>(sequences); // synchronisation in ThreadViterbi
 
         // Create and Start Threads
-        int threadCount = Math.min(coreCount, sequenceQueue.size());
-        Log.iLine("Creating and starting " + threadCount + " Threads running Viterbi-Algo for " + sequenceCount + " Test-Sequences");
+        int threadCount = sequenceCount < 0 ? coreCount : Math.min(coreCount, sequenceCount);
+        Log.iLine("Creating and starting " + threadCount + " Threads running Viterbi-Algo (" + mode + ") for "
+                + (sequenceCount < 0 ? "streamed" : String.valueOf(sequenceCount)) + " Test-Sequences");
+        if (list != null)
+            Log.dLine("Schedule: " + schedule);
+        Log.dLine("Memory budget = " + budget.getCapacity() + " bytes");
         Log.iLine("Waiting for async Output...");
-        ViterbiPath[] viterbiPaths = new ViterbiPath[sequenceCount];// list to hold results created in Threads
-        Queue<Thread> threads = new LinkedList<>();
+
+        // Parallelization within a sequence
+        ForkJoinPool wavefrontPool = null;
+        long wavefrontCellThreshold = WAVEFRONT_CELL_THRESHOLD;
+        if (coreCount > 1 && (mode == ViterbiMode.FULL || mode == ViterbiMode.WAVEFRONT)) {
+            wavefrontPool = new ForkJoinPool(coreCount);
+            if (mode == ViterbiMode.WAVEFRONT || (sequenceCount >= 0 && sequenceCount < coreCount))
+                wavefrontCellThreshold = 0; // every sequence
+            Log.dLine("Wavefront parallelization for sequences with more than " + wavefrontCellThreshold + " cells");
+        }
+
+        ViterbiRun run = list != null
+                ? new ViterbiRun(model, mode, wavefrontPool, wavefrontCellThreshold, budget, threadCount, list, schedule)
+                : new ViterbiRun(model, mode, wavefrontPool, wavefrontCellThreshold, budget, threadCount, iterator);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+        List<Future<Integer>> tasks = new ArrayList<>(threadCount);
         for (int i = 0; i < threadCount; i++) {
-            Thread thread = new ThreadViterbi(model, sequenceQueue, sequenceCount, viterbiPaths);
-            threads.add(thread);
-            thread.start();
+            tasks.add(executor.submit(new ClaimTask(run)));
+        }
+        executor.shutdown(); // threads end with the last task
+
+        // Waiting for tasks to finish
+        int retryCount = 0;
+        try {
+            for (Future<Integer> task : tasks) {
+                retryCount += await(task);
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting for Viterbi-Tasks");
+        } catch (RuntimeException | Error e) { // reading the sequences failed
+            executor.shutdownNow();
+            throw e;
+        } finally {
+            if (wavefrontPool != null)
+                wavefrontPool.shutdown();
         }
 
-        // Waiting for threads to finish
-        while (!threads.isEmpty()) {
-            Thread thread = threads.poll();
-            try {
-                thread.join();
-                Log.dLine(thread.getName() + " finished");
-            } catch (InterruptedException e) {
-                Log.eLine("ERROR: " + thread.getName() + " got interrupted");
+        List<ViterbiPath> ret = run.results(); // results are visible after Future.get
+        List<ViterbiPath> failed = new ArrayList<>();
+        for (ViterbiPath path : ret) {
+            if (path.isFailed())
+                failed.add(path);
+        }
+        ViterbiWorker.logSummary(ret.size(), failed, retryCount);
+        return ret;
+    }
+
+    /**
+     * Wartet auf die Aufgabe und liefert ihr Ergebnis zurueck.
+     * Eine Ausnahme der Aufgabe wird unveraendert (ohne {@link ExecutionException}) weitergeworfen.
+     *
+     * @param task Aufgabe
+     * @param <T>  Typ des Ergebnisses
+     * @return Ergebnis der Aufgabe
+     * @throws InterruptedException falls der aufrufende Thread beim Warten unterbrochen wird
+     */
+    static <T> T await(final Future<T> task) throws InterruptedException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause); // tasks throw no other checked exceptions
+        }
+    }
+
+    /**
+     * Aufgabe, die Sequnzen {@link Sequence} eines Aufrufs {@link ViterbiRun} abarbeitet.
+     * Dabei wird fuer jede Sequenz anhand des Modells mittels des Viterbi-Algorithmus der maximierende Zustands-Pfad berechnet.
+     * Der Score und der Zustands-Pfad der Sequenz wird dann mittles der Wrapper-Klasse {@link ViterbiPath}
+     * an entsprechender Position im Aufruf gespeichert.
+     * Die Sequenzen werden blockweise beansprucht ({@link ViterbiRun#claim(ViterbiRun.Batch)}).
+     * Ausgegeben wird der Zustands-Pfad lauflaengenkodiert ({@link ViterbiPath#getCigar()}).
+     * Fehler einer Sequenz beenden die Aufgabe nicht ({@link ViterbiWorker}), nur Fehler beim Einlesen beenden die Aufgabe
+     * und werden an den aufrufenden Thread weitergegeben.
+     * Liefert die Anzahl der nach einem OutOfMemoryError wiederholten Sequenzen zurueck.
+     */
+    private static final class ClaimTask implements Callable<Integer> {
+
+        /**
+         * Aufruf, zu dem diese Aufgabe gehoert
+         */
+        private final ViterbiRun run;
+
+        /**
+         * beanspruchter Block von Sequenzen
+         */
+        private final ViterbiRun.Batch batch = new ViterbiRun.Batch();
+
+        /**
+         * Berechnung mit Arbeitsspeicher dieser Aufgabe
+         */
+        private final ViterbiWorker worker;
+
+        /**
+         * Konstruktor
+         *
+         * @param run Aufruf mit Modell, Variante des Viterbi-Algorithmus und Sequenzen, wird von allen Aufgaben gemeinsam verwendet
+         */
+        ClaimTask(ViterbiRun run) {
+            this.run = run;
+            this.worker = new ViterbiWorker(run.model, run.mode, run.wavefrontPool, run.wavefrontCellThreshold, run.budget, run.retainLimit);
+        }
+
+        @Override
+        public Integer call() {
+            Log.dLine(Thread.currentThread().getName() + " started");
+            while (!Thread.currentThread().isInterrupted() && run.claim(batch)) { // interrupted by shutdownNow
+                for (int i = 0; i < batch.count; i++) {
+                    Sequence sequence = batch.sequences[i];
+                    batch.sequences[i] = null; // release for garbage collection
+                    run.complete(batch.indices[i], viterbi(sequence));
+                }
             }
+            Log.dLine(Thread.currentThread().getName() + " finished");
+            return worker.getRetryCount();
         }
-        // all Threads finished
 
-        return Arrays.asList(viterbiPaths);
+        /**
+         * Berechnet den Zustands-Pfad der Sequenz mit {@link ViterbiWorker} und gibt ihn aus.
+         * Schlaegt die Berechnung fehl, wird der Grund ausgegeben und {@link ViterbiPath#failed(Sequence, String)} zurueck geliefert.
+         *
+         * @param sequence Sequenz
+         * @return Zustands-Pfad
+         */
+        private ViterbiPath viterbi(final Sequence sequence) {
+            long millis = System.currentTimeMillis(); // measure calc time
+            ViterbiPath viterbiPath = worker.calculate(sequence);
+            millis = (System.currentTimeMillis() - millis); // calc time of viterbi
+            float time = (float) millis / 1000; // in sec
+
+            synchronized (run.outputMonitor) {
+                Log.iLine(String.format("(%.2fsec) %s -----------------------------", time, sequence.getDescription()));
+                Log.iLine(sequence.getNucleotideSequence());
+                if (viterbiPath.isFailed())
+                    Log.iLine("failed: " + viterbiPath.getError());
+                else if (viterbiPath.hasStatePath())
+                    Log.iLine(viterbiPath.getCigar()); // run-length encoded, e.g. 12M3I40M2D
+                else
+                    Log.iLine(String.format("score %f, path length %d", viterbiPath.getScore(), viterbiPath.getPathLength()));
+                Log.iLine();
+            }
+            return viterbiPath;
+        }
     }
 }
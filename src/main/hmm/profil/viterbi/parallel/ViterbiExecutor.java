@@ -0,0 +1,242 @@
+package main.hmm.profil.viterbi.parallel;
+
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+import main.hmm.profil.viterbi.ViterbiMode;
+import main.hmm.profil.viterbi.ViterbiPath;
+import main.hmm.profil.viterbi.ViterbiWorkspace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Berechnet Zustands-Pfade als Aufgaben in einem uebergebenen {@link Executor} (z.B. {@link ForkJoinPool} oder
+ * {@link java.util.concurrent.ExecutorService}), statt eigene Threads zu starten.
+ * Der Pool kann so ueber mehrere Aufrufe und Modelle wiederverwendet werden.
+ * <p>
+ * Jede Sequenz liefert ein {@link CompletableFuture}. Fehler einer Sequenz (z.B. ungueltiges Zeichen oder OutOfMemoryError)
+ * schliessen nur deren Future mit einer Ausnahme ab, das Programm wird nicht beendet.
+ * Eine abgebrochene ({@link CompletableFuture#cancel(boolean)}) oder abgelaufene Aufgabe, die noch nicht begonnen hat, wird uebersprungen.
+ * Eine bereits laufende Berechnung kann nicht unterbrochen werden, sie wird zu Ende gefuehrt und ihr Ergebnis verworfen.
+ * Die Zeitbegrenzung je Aufgabe beginnt mit dem Start der Berechnung, nicht mit dem Einreichen.
+ * <p>
+ * Der Speicherbedarf jeder Berechnung wird wie bei {@link ParallelizationSupporter} gegen ein {@link ViterbiMemoryBudget} reserviert.
+ * Jeder Thread des Pools verwendet seinen eigenen {@link ViterbiWorkspace}, die Berechnungen gehoeren daher in einen Pool
+ * mit wiederverwendeten Threads. Ein- und Ausgabe um die Berechnungen herum (z.B. {@link main.fastaparser.FastaReader})
+ * koennen in einem eigenen Executor laufen und die Futures verketten.
+ * <p>
+ * Threadsicher.
+ *
+ * @author Soeren Metje
+ */
+public class ViterbiExecutor {
+
+    /**
+     * Arbeitsspeicher je Thread des Pools
+     */
+    private static final ThreadLocal<ViterbiWorkspace> WORKSPACE = new ThreadLocal<ViterbiWorkspace>() {
+        @Override
+        protected ViterbiWorkspace initialValue() {
+            return new ViterbiWorkspace();
+        }
+    };
+
+    /**
+     * Pool, in dem die Berechnungen laufen
+     */
+    private final Executor executor;
+
+    /**
+     * Modell
+     */
+    private final ProfilHMM model;
+
+    /**
+     * Variante des Viterbi-Algorithmus
+     */
+    private final ViterbiMode mode;
+
+    /**
+     * Speicherbudget
+     */
+    private final ViterbiMemoryBudget budget;
+
+    /**
+     * maximale Dauer einer Berechnung in Millisekunden oder 0 fuer unbegrenzt
+     */
+    private final long timeoutMillis;
+
+    /**
+     * Konstruktor ohne Zeitbegrenzung mit Speicherbudget {@link ViterbiMemoryBudget#fromMaxMemory()}
+     *
+     * @param executor Pool, in dem die Berechnungen laufen
+     * @param model    Modell
+     * @param mode     Variante des Viterbi-Algorithmus
+     * @throws IllegalArgumentException falls uebergebener Pool, Modell oder Variante == null
+     */
+    public ViterbiExecutor(Executor executor, ProfilHMM model, ViterbiMode mode) throws IllegalArgumentException {
+        this(executor, model, mode, ViterbiMemoryBudget.fromMaxMemory(), 0);
+    }
+
+    /**
+     * Konstruktor
+     *
+     * @param executor      Pool, in dem die Berechnungen laufen
+     * @param model         Modell
+     * @param mode          Variante des Viterbi-Algorithmus
+     * @param budget        Speicherbudget, kann mit anderen Aufrufen geteilt werden
+     * @param timeoutMillis maximale Dauer einer Berechnung in Millisekunden oder 0 fuer unbegrenzt
+     * @throws IllegalArgumentException falls uebergebener Pool, Modell, Variante oder Budget == null oder timeoutMillis &lt; 0
+     */
+    public ViterbiExecutor(Executor executor, ProfilHMM model, ViterbiMode mode, ViterbiMemoryBudget budget,
+                           long timeoutMillis) throws IllegalArgumentException {
+        if (executor == null)
+            throw new IllegalArgumentException("executor is null");
+        if (model == null)
+            throw new IllegalArgumentException("model is null");
+        if (mode == null)
+            throw new IllegalArgumentException("mode is null");
+        if (budget == null)
+            throw new IllegalArgumentException("budget is null");
+        if (timeoutMillis < 0)
+            throw new IllegalArgumentException("timeoutMillis < 0");
+        this.executor = executor;
+        this.model = model;
+        this.mode = mode;
+        this.budget = budget;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Reicht die Berechnung des Zustands-Pfades der Sequenz ein
+     *
+     * @param sequence Sequenz
+     * @return Future, wird mit dem Zustands-Pfad oder der Ausnahme der Berechnung abgeschlossen
+     * (bei Zeitueberschreitung mit {@link java.util.concurrent.TimeoutException})
+     * @throws IllegalArgumentException falls uebergebene Sequenz == null
+     */
+    public CompletableFuture<ViterbiPath> submit(final Sequence sequence) throws IllegalArgumentException {
+        if (sequence == null)
+            throw new IllegalArgumentException("sequence is null");
+
+        final CompletableFuture<ViterbiPath> future = new CompletableFuture<>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    calculate(sequence, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Reicht die Berechnungen der Zustands-Pfade aller Sequenzen ein.
+     * Die Sequenzen werden absteigend nach Kosten eingereicht ({@link ViterbiSchedule#LONGEST_FIRST}).
+     *
+     * @param sequences Sequenzen
+     * @return Futures in der Reihenfolge der Sequenzen
+     * @throws IllegalArgumentException falls uebergebene Liste oder eine Sequenz == null
+     */
+    public List<CompletableFuture<ViterbiPath>> submitAll(final List<? extends Sequence> sequences) throws IllegalArgumentException {
+        if (sequences == null)
+            throw new IllegalArgumentException("sequences is null");
+
+        long[] costs = new long[sequences.size()];
+        for (int i = 0; i < costs.length; i++) {
+            if (sequences.get(i) == null)
+                throw new IllegalArgumentException("sequence " + i + " is null");
+            costs[i] = ViterbiSchedule.cost(model, sequences.get(i));
+        }
+
+        List<CompletableFuture<ViterbiPath>> ret = new ArrayList<>(Collections.<CompletableFuture<ViterbiPath>>nCopies(costs.length, null));
+        for (int index : ViterbiSchedule.LONGEST_FIRST.order(costs)) {
+            ret.set(index, submit(sequences.get(index)));
+        }
+        return ret;
+    }
+
+    /**
+     * Berechnet die Zustands-Pfade aller Sequenzen und wartet auf das Ergebnis.
+     * Schlaegt eine Berechnung fehl oder wird der aufrufende Thread unterbrochen, werden die uebrigen Berechnungen abgebrochen.
+     *
+     * @param sequences Sequenzen
+     * @return Liste mit den Zustands-Pfaden {@link ViterbiPath} in der Reihenfolge der Sequenzen
+     * @throws ExecutionException       falls eine Berechnung fehlschlaegt, abgebrochen wird oder die Zeit ueberschreitet (Ursache als cause)
+     * @throws InterruptedException     falls der aufrufende Thread beim Warten unterbrochen wird
+     * @throws IllegalArgumentException falls uebergebene Liste oder eine Sequenz == null
+     */
+    public List<ViterbiPath> invokeAll(final List<? extends Sequence> sequences)
+            throws ExecutionException, InterruptedException, IllegalArgumentException {
+        List<CompletableFuture<ViterbiPath>> futures = submitAll(sequences);
+        List<ViterbiPath> ret = new ArrayList<>(futures.size());
+        boolean done = false;
+        try {
+            for (CompletableFuture<ViterbiPath> future : futures) {
+                try {
+                    ret.add(future.get());
+                } catch (CancellationException e) {
+                    throw new ExecutionException(e);
+                }
+            }
+            done = true;
+        } finally {
+            if (!done)
+                cancelAll(futures);
+        }
+        return ret;
+    }
+
+    /**
+     * Bricht alle noch nicht abgeschlossenen Berechnungen ab
+     *
+     * @param futures Futures von {@link #submit(Sequence)} oder {@link #submitAll(List)}
+     */
+    public static void cancelAll(final List<? extends CompletableFuture<ViterbiPath>> futures) {
+        for (CompletableFuture<ViterbiPath> future : futures) {
+            future.cancel(false); // running calculations cannot be interrupted
+        }
+    }
+
+    /**
+     * Berechnet den Zustands-Pfad der Sequenz im aktuellen Thread des Pools und schliesst das Future ab
+     *
+     * @param sequence Sequenz
+     * @param future   Future der Sequenz
+     */
+    private void calculate(final Sequence sequence, final CompletableFuture<ViterbiPath> future) {
+        if (future.isDone())
+            return; // cancelled before start
+        if (timeoutMillis > 0)
+            future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+
+        ViterbiMode routed = budget.route(model, sequence.length(), mode, sequence.getDescription());
+        long reserved = 0;
+        try {
+            reserved = budget.acquire(routed.estimateBytes(model, sequence.length()));
+            if (future.isDone())
+                return; // cancelled or timed out while waiting for memory
+            future.complete(routed.viterbi(model, sequence, WORKSPACE.get()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            future.completeExceptionally(e);
+        } finally {
+            budget.release(reserved);
+            if (reserved > budget.getCapacity() / Runtime.getRuntime().availableProcessors())
+                WORKSPACE.remove(); // do not keep buffers of an oversized sequence
+        }
+    }
+}
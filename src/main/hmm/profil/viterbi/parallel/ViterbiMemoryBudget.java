@@ -0,0 +1,151 @@
+package main.hmm.profil.viterbi.parallel;
+
+import main.hmm.profil.ProfilHMM;
+import main.hmm.profil.viterbi.ViterbiMode;
+import main.logger.Log;
+
+import java.util.ArrayDeque;
+
+/**
+ * Speicherbudget fuer gleichzeitig laufende Viterbi-Berechnungen.
+ * <p>
+ * Vor jeder Berechnung wird der geschaetzte Speicherbedarf ({@link main.hmm.profil.viterbi.ViterbiMode#estimateBytes})
+ * reserviert und danach wieder frei gegeben. Reicht der freie Speicher nicht aus, wartet der Thread.
+ * Die Reservierungen werden in der Reihenfolge der Anfragen bedient, eine grosse Berechnung wird also nicht
+ * von nachfolgenden kleinen ueberholt. Eine Anfrage ueber der Kapazitaet reserviert die gesamte Kapazitaet
+ * und laeuft damit allein.
+ * <p>
+ * Threadsicher, kann von mehreren Aufrufen gemeinsam verwendet werden.
+ *
+ * @author Soeren Metje
+ */
+public class ViterbiMemoryBudget {
+
+    /**
+     * Anteil von {@link Runtime#maxMemory()}, der standardmaessig fuer Viterbi-Berechnungen verwendet wird.
+     * Der Rest bleibt fuer Modell, Sequenzen und Ergebnisse.
+     */
+    public static final double DEFAULT_FRACTION = 0.5;
+
+    /**
+     * Kapazitaet in Bytes
+     */
+    private final long capacity;
+
+    /**
+     * freie Bytes
+     */
+    private long available;
+
+    /**
+     * wartende Threads in der Reihenfolge ihrer Anfragen
+     */
+    private final ArrayDeque<Thread> waiting = new ArrayDeque<>();
+
+    /**
+     * Konstruktor
+     *
+     * @param capacity Kapazitaet in Bytes
+     * @throws IllegalArgumentException falls capacity &lt; 1
+     */
+    public ViterbiMemoryBudget(long capacity) throws IllegalArgumentException {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity < 1");
+        this.capacity = capacity;
+        this.available = capacity;
+    }
+
+    /**
+     * Liefert ein Budget mit {@link #DEFAULT_FRACTION} von {@link Runtime#maxMemory()} zurueck
+     *
+     * @return Budget
+     */
+    public static ViterbiMemoryBudget fromMaxMemory() {
+        return new ViterbiMemoryBudget(Math.max(1, (long) (Runtime.getRuntime().maxMemory() * DEFAULT_FRACTION)));
+    }
+
+    /**
+     * Liefert die Kapazitaet in Bytes zurueck
+     *
+     * @return Kapazitaet
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Liefert die freien Bytes zurueck
+     *
+     * @return freie Bytes
+     */
+    public synchronized long getAvailable() {
+        return available;
+    }
+
+    /**
+     * Liefert die Variante zurueck, mit der eine Sequenz der uebergebenen Laenge berechnet wird.
+     * Uebersteigt der Speicherbedarf der Variante die Kapazitaet, wird {@link ViterbiMode#CHECKPOINT} geliefert,
+     * falls das weniger Speicher benoetigt und das gleiche Ergebnis liefert.
+     *
+     * @param model          Modell
+     * @param sequenceLength Laenge der Sequenz
+     * @param mode           gewuenschte Variante
+     * @param description    Beschreibung der Sequenz fuer die Debug-Ausgabe
+     * @return zu verwendende Variante
+     */
+    public ViterbiMode route(final ProfilHMM model, final int sequenceLength, final ViterbiMode mode, final String description) {
+        if (!isRoutable(mode))
+            return mode;
+        long bytes = mode.estimateBytes(model, sequenceLength);
+        if (bytes <= capacity)
+            return mode;
+        long checkpointBytes = ViterbiMode.CHECKPOINT.estimateBytes(model, sequenceLength);
+        if (checkpointBytes >= bytes) // checkpoints only pay off for long sequences
+            return mode;
+        Log.dLine(String.format("%s needs about %d bytes with %s, routed to %s", description, bytes, mode, ViterbiMode.CHECKPOINT));
+        return ViterbiMode.CHECKPOINT;
+    }
+
+    /**
+     * Liefert zurueck, ob die Variante durch {@link ViterbiMode#CHECKPOINT} ersetzt werden darf (gleiches Ergebnis bei geringerem Speicherbedarf)
+     *
+     * @param mode Variante des Viterbi-Algorithmus
+     * @return true, falls die Variante den vollstaendigen Zustands-Pfad liefert und nicht selbst Checkpoints verwendet
+     */
+    static boolean isRoutable(final ViterbiMode mode) {
+        return mode == ViterbiMode.FULL || mode == ViterbiMode.BANDED || mode == ViterbiMode.WAVEFRONT;
+    }
+
+    /**
+     * Reserviert bytes (hoechstens die Kapazitaet) und wartet, bis genug Speicher frei ist
+     *
+     * @param bytes geschaetzter Speicherbedarf
+     * @return reservierte Bytes, mit {@link #release(long)} frei zu geben
+     * @throws InterruptedException falls der Thread beim Warten unterbrochen wird
+     */
+    public synchronized long acquire(long bytes) throws InterruptedException {
+        long reserved = Math.max(0, Math.min(bytes, capacity));
+        Thread current = Thread.currentThread();
+        waiting.add(current);
+        try {
+            while (waiting.peek() != current || available < reserved) {
+                wait();
+            }
+        } finally {
+            waiting.remove(current); // also if interrupted, so the next request is served
+            notifyAll();
+        }
+        available -= reserved;
+        return reserved;
+    }
+
+    /**
+     * Gibt reservierte Bytes frei
+     *
+     * @param reserved Rueckgabe von {@link #acquire(long)}
+     */
+    public synchronized void release(long reserved) {
+        available += reserved;
+        notifyAll();
+    }
+}
@@ -0,0 +1,263 @@
+package main.hmm.profil.viterbi.parallel;
+
+import main.fastaparser.Sequence;
+import main.fastaparser.UncheckedFastaParserException;
+import main.hmm.profil.ProfilHMM;
+import main.hmm.profil.viterbi.ViterbiMode;
+import main.hmm.profil.viterbi.ViterbiPath;
+import main.logger.Log;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Berechnet die Scores mehrerer Modelle (z.B. 16S, 23S, 5S und 18S rRNA) fuer jede Sequenz eines Datenstroms in einem Durchlauf.
+ * Die Sequenzen werden nur einmal eingelesen und liefern als Ergebnis die Score-Matrix und das beste Modell je Sequenz ({@link ViterbiPanelResult}).
+ * <p>
+ * Die Paare (Modell, Sequenz) werden sequenzweise auf Aufgaben eines {@link ExecutorService} verteilt:
+ * Eine Aufgabe beansprucht eine Sequenz und berechnet sie
+ * nacheinander mit allen Modellen. Die Sequenz wird dabei nur einmal kodiert (Index-Folge im {@link main.hmm.profil.viterbi.ViterbiWorkspace}
+ * der Aufgabe, fuer Modelle mit gleichen Basen und Varianten mit Arbeitsspeicher wie {@link ViterbiMode#SCORE} und {@link ViterbiMode#FULL})
+ * und bleibt ueber alle Modelle im Cache.
+ * <p>
+ * Der Speicherbedarf wird wie bei {@link ParallelizationSupporter} gegen ein {@link ViterbiMemoryBudget} reserviert.
+ * Fehler eines Paares liefern den Score {@link Double#NaN}, die uebrigen Paare werden weiter berechnet ({@link ViterbiWorker}).
+ * Fehler beim Einlesen brechen die Berechnung ab und werden von {@link #score(Iterator, int)} weitergeworfen.
+ *
+ * @author Soeren Metje
+ */
+public class ViterbiPanel {
+
+    /**
+     * Modelle
+     */
+    private final ProfilHMM[] models;
+
+    /**
+     * Variante des Viterbi-Algorithmus
+     */
+    private final ViterbiMode mode;
+
+    /**
+     * Speicherbudget
+     */
+    private final ViterbiMemoryBudget budget;
+
+    /**
+     * Konstruktor mit Variante {@link ViterbiMode#SCORE} und Speicherbudget {@link ViterbiMemoryBudget#fromMaxMemory()}
+     *
+     * @param models Modelle
+     * @throws IllegalArgumentException falls uebergebene Liste leer ist oder ein Modell == null
+     */
+    public ViterbiPanel(List<? extends ProfilHMM> models) throws IllegalArgumentException {
+        this(models, ViterbiMode.SCORE, ViterbiMemoryBudget.fromMaxMemory());
+    }
+
+    /**
+     * Konstruktor
+     *
+     * @param models Modelle
+     * @param mode   Variante des Viterbi-Algorithmus
+     * @param budget Speicherbudget, kann mit anderen Aufrufen geteilt werden
+     * @throws IllegalArgumentException falls uebergebene Liste leer ist oder Liste, ein Modell, Variante oder Budget == null
+     */
+    public ViterbiPanel(List<? extends ProfilHMM> models, ViterbiMode mode, ViterbiMemoryBudget budget) throws IllegalArgumentException {
+        if (models == null)
+            throw new IllegalArgumentException("models is null");
+        if (models.isEmpty())
+            throw new IllegalArgumentException("models is empty");
+        if (mode == null)
+            throw new IllegalArgumentException("mode is null");
+        if (budget == null)
+            throw new IllegalArgumentException("budget is null");
+        this.models = models.toArray(new ProfilHMM[0]);
+        for (int m = 0; m < this.models.length; m++) {
+            if (this.models[m] == null)
+                throw new IllegalArgumentException("model " + m + " is null");
+        }
+        this.mode = mode;
+        this.budget = budget;
+    }
+
+    /**
+     * Berechnet die Scores aller Modelle fuer die Sequenzen mit einem Thread je Prozessor
+     *
+     * @param sequences Sequenzen, werden nur einmal durchlaufen
+     * @return Score-Matrix und bestes Modell je Sequenz in der Reihenfolge der Sequenzen
+     * @throws IllegalArgumentException falls uebergebener Iterator == null
+     */
+    public ViterbiPanelResult score(Iterator<? extends Sequence> sequences) throws IllegalArgumentException {
+        return score(sequences, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Berechnet die Scores aller Modelle fuer die Sequenzen
+     *
+     * @param sequences   Sequenzen, werden nur einmal durchlaufen
+     * @param threadCount Anzahl der Threads
+     * @return Score-Matrix und bestes Modell je Sequenz in der Reihenfolge der Sequenzen
+     * @throws IllegalArgumentException      falls uebergebener Iterator == null oder threadCount &lt; 1
+     * @throws UncheckedIOException          falls der Iterator beim Einlesen scheitert
+     * @throws UncheckedFastaParserException falls der Iterator beim Parsen scheitert
+     * @throws CancellationException         falls der aufrufende Thread beim Warten unterbrochen wird
+     */
+    public ViterbiPanelResult score(Iterator<? extends Sequence> sequences, int threadCount) throws IllegalArgumentException {
+        if (sequences == null)
+            throw new IllegalArgumentException("sequences is null");
+        if (threadCount < 1)
+            throw new IllegalArgumentException("threadCount < 1");
+
+        Log.iLine("Panel: " + models.length + " models, " + threadCount + " Threads running Viterbi-Algo (" + mode + ")");
+        long millis = System.currentTimeMillis();
+
+        Source source = new Source(sequences);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<PanelTask> tasks = new ArrayList<>(threadCount);
+        List<Future<Integer>> futures = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            PanelTask task = new PanelTask(source, new ViterbiWorker(models[0], mode, null, 0, budget, budget.getCapacity() / threadCount));
+            tasks.add(task);
+            futures.add(executor.submit(task));
+        }
+        executor.shutdown(); // threads end with the last task
+
+        int retryCount = 0;
+        try {
+            for (Future<Integer> future : futures) {
+                retryCount += ParallelizationSupporter.await(future);
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting for panel");
+        } catch (RuntimeException | Error e) { // reading the sequences failed
+            executor.shutdownNow();
+            throw e;
+        }
+
+        // merge rows of all tasks in input order, visible after Future.get
+        int count = source.count;
+        Sequence[] resultSequences = new Sequence[count];
+        double[][] scores = new double[count][];
+        String[] errors = new String[count];
+        int failedCount = 0;
+        for (PanelTask task : tasks) {
+            for (Row row : task.rows) {
+                resultSequences[row.index] = row.sequence;
+                scores[row.index] = row.scores;
+                errors[row.index] = row.error;
+                failedCount += row.failedCount;
+            }
+        }
+
+        millis = System.currentTimeMillis() - millis;
+        Log.iLine(String.format("Panel finished: %d sequences x %d models in %.3f sec, %d failed, %d retried with %s",
+                count, models.length, millis / 1e3, failedCount, retryCount, ViterbiMode.CHECKPOINT));
+        for (int i = 0; i < count; i++) {
+            if (errors[i] != null)
+                Log.eLine("FAILED: " + resultSequences[i].getDescription() + ": " + errors[i]);
+        }
+        return new ViterbiPanelResult(resultSequences, scores, errors, models.length);
+    }
+
+    /**
+     * Gemeinsame Quelle der Aufgaben eines Aufrufs, vergibt die Positionen der Sequenzen
+     */
+    private static class Source {
+        private final Iterator<? extends Sequence> sequences;
+
+        /**
+         * Anzahl der bisher beanspruchten Sequenzen, nach Ende aller Aufgaben die Anzahl der Sequenzen
+         */
+        private int count;
+
+        /**
+         * true, nachdem der Iterator eine Ausnahme geworfen hat
+         */
+        private boolean failed;
+
+        Source(Iterator<? extends Sequence> sequences) {
+            this.sequences = sequences;
+        }
+
+        /**
+         * Beansprucht die naechste Sequenz
+         *
+         * @return Zeile mit Position und Sequenz oder null, falls keine Sequenzen mehr vorhanden sind oder der Iterator bereits gescheitert ist
+         * @throws UncheckedIOException          falls der Iterator beim Einlesen scheitert
+         * @throws UncheckedFastaParserException falls der Iterator beim Parsen scheitert
+         */
+        synchronized Row claim() {
+            if (failed)
+                return null;
+            try {
+                if (!sequences.hasNext())
+                    return null;
+                return new Row(count++, sequences.next());
+            } catch (RuntimeException e) {
+                failed = true; // the other tasks stop claiming
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Scores einer Sequenz mit allen Modellen
+     */
+    private static class Row {
+        private final int index;
+        private final Sequence sequence;
+        private double[] scores;
+        private String error;
+        private int failedCount;
+
+        Row(int index, Sequence sequence) {
+            this.index = index;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Aufgabe, die Sequenzen beansprucht und jeweils mit allen Modellen berechnet.
+     * Liefert die Anzahl der nach einem OutOfMemoryError wiederholten Berechnungen zurueck.
+     */
+    private class PanelTask implements Callable<Integer> {
+        private final Source source;
+        private final ViterbiWorker worker;
+        private final List<Row> rows = new ArrayList<>();
+
+        PanelTask(Source source, ViterbiWorker worker) {
+            this.source = source;
+            this.worker = worker;
+        }
+
+        @Override
+        public Integer call() {
+            Log.dLine(Thread.currentThread().getName() + " started");
+            Row row;
+            while (!Thread.currentThread().isInterrupted() && (row = source.claim()) != null) { // interrupted by shutdownNow
+                row.scores = new double[models.length];
+                for (int m = 0; m < models.length; m++) { // sequence-major: encoded sequence stays hot
+                    ViterbiPath path = worker.calculate(models[m], row.sequence);
+                    if (path.isFailed()) {
+                        row.scores[m] = Double.NaN;
+                        row.failedCount++;
+                        if (row.error == null)
+                            row.error = "model " + m + ": " + path.getError();
+                    } else {
+                        row.scores[m] = path.getScore();
+                    }
+                }
+                rows.add(row);
+            }
+            return worker.getRetryCount();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package main.hmm.profil.viterbi.parallel;
+
+import main.fastaparser.Sequence;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Ergebnis von {@link ViterbiPanel}: Score-Matrix (Sequenz x Modell) und das Modell mit dem hoechsten Score je Sequenz.
+ * Sequenzen und Modelle werden ueber ihre Position in der Eingabe bzw. der Liste der Modelle angesprochen.
+ * Fehlgeschlagene Berechnungen haben den Score {@link Double#NaN} und werden bei der Auswahl des besten Modells ignoriert.
+ *
+ * @author Soeren Metje
+ */
+public class ViterbiPanelResult {
+
+    /**
+     * Sequenzen in der Reihenfolge der Eingabe
+     */
+    private final Sequence[] sequences;
+
+    /**
+     * Scores je Sequenz und Modell, {@link Double#NaN} falls fehlgeschlagen
+     */
+    private final double[][] scores;
+
+    /**
+     * erster Fehler je Sequenz oder null
+     */
+    private final String[] errors;
+
+    /**
+     * Position des besten Modells je Sequenz oder -1
+     */
+    private final int[] bestModels;
+
+    /**
+     * Anzahl der Modelle
+     */
+    private final int modelCount;
+
+    /**
+     * Konstruktor, bestimmt das beste Modell je Sequenz
+     *
+     * @param sequences  Sequenzen in der Reihenfolge der Eingabe
+     * @param scores     Scores je Sequenz und Modell, {@link Double#NaN} falls fehlgeschlagen
+     * @param errors     erster Fehler je Sequenz oder null
+     * @param modelCount Anzahl der Modelle
+     */
+    ViterbiPanelResult(Sequence[] sequences, double[][] scores, String[] errors, int modelCount) {
+        this.sequences = sequences;
+        this.scores = scores;
+        this.errors = errors;
+        this.modelCount = modelCount;
+        this.bestModels = new int[sequences.length];
+        for (int i = 0; i < sequences.length; i++) {
+            int best = -1;
+            for (int m = 0; m < modelCount; m++) {
+                if (!Double.isNaN(scores[i][m]) && (best < 0 || scores[i][m] > scores[i][best]))
+                    best = m; // first model wins on equal scores
+            }
+            bestModels[i] = best;
+        }
+    }
+
+    /**
+     * Liefert die Anzahl der Sequenzen zurueck
+     *
+     * @return Anzahl der Sequenzen
+     */
+    public int getSequenceCount() {
+        return sequences.length;
+    }
+
+    /**
+     * Liefert die Anzahl der Modelle zurueck
+     *
+     * @return Anzahl der Modelle
+     */
+    public int getModelCount() {
+        return modelCount;
+    }
+
+    /**
+     * Liefert die Sequenz an Position sequenceIndex zurueck
+     *
+     * @param sequenceIndex Position der Sequenz
+     * @return Sequenz
+     */
+    public Sequence getSequence(int sequenceIndex) {
+        return sequences[sequenceIndex];
+    }
+
+    /**
+     * Liefert den Score der Sequenz mit dem Modell zurueck
+     *
+     * @param sequenceIndex Position der Sequenz
+     * @param modelIndex    Position des Modells
+     * @return Score oder {@link Double#NaN}, falls die Berechnung fehlgeschlagen ist
+     */
+    public double getScore(int sequenceIndex, int modelIndex) {
+        return scores[sequenceIndex][modelIndex];
+    }
+
+    /**
+     * Liefert die Scores der Sequenz mit allen Modellen zurueck (Kopie)
+     *
+     * @param sequenceIndex Position der Sequenz
+     * @return Scores in der Reihenfolge der Modelle
+     */
+    public double[] getScores(int sequenceIndex) {
+        return scores[sequenceIndex].clone();
+    }
+
+    /**
+     * Liefert die Position des Modells mit dem hoechsten Score fuer die Sequenz zurueck
+     *
+     * @param sequenceIndex Position der Sequenz
+     * @return Position des Modells oder -1, falls alle Berechnungen der Sequenz fehlgeschlagen sind
+     */
+    public int getBestModel(int sequenceIndex) {
+        return bestModels[sequenceIndex];
+    }
+
+    /**
+     * Liefert den hoechsten Score der Sequenz zurueck
+     *
+     * @param sequenceIndex Position der Sequenz
+     * @return Score oder {@link Double#NaN}, falls alle Berechnungen der Sequenz fehlgeschlagen sind
+     */
+    public double getBestScore(int sequenceIndex) {
+        int best = bestModels[sequenceIndex];
+        return best < 0 ? Double.NaN : scores[sequenceIndex][best];
+    }
+
+    /**
+     * Liefert den ersten Fehler der Sequenz zurueck
+     *
+     * @param sequenceIndex Position der Sequenz
+     * @return Grund oder null, falls keine Berechnung der Sequenz fehlgeschlagen ist
+     */
+    public String getError(int sequenceIndex) {
+        return errors[sequenceIndex];
+    }
+
+    /**
+     * Liefert die Score-Matrix als Tabelle zurueck: je Sequenz eine Zeile mit Beschreibung, Score je Modell und bestem Modell,
+     * getrennt durch ';'. Fehlgeschlagene Berechnungen werden als "failed" ausgegeben, ein fehlendes bestes Modell als "-".
+     *
+     * @return Tabelle mit Kopfzeile
+     */
+    public String toTable() {
+        DecimalFormat format = new DecimalFormat("#0.000");
+        format.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
+
+        StringBuilder out = new StringBuilder("sequence");
+        for (int m = 0; m < modelCount; m++) {
+            out.append(";model ").append(m);
+        }
+        out.append(";best\n");
+        for (int i = 0; i < sequences.length; i++) {
+            out.append(sequences[i].getDescription());
+            for (int m = 0; m < modelCount; m++) {
+                out.append(';').append(Double.isNaN(scores[i][m]) ? "failed" : format.format(scores[i][m]));
+            }
+            out.append(';').append(bestModels[i] < 0 ? "-" : String.valueOf(bestModels[i])).append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,361 @@
+package main.hmm.profil.viterbi.parallel;
+
+import main.fastaparser.Sequence;
+import main.fastaparser.UncheckedFastaParserException;
+import main.hmm.profil.ProfilHMM;
+import main.hmm.profil.viterbi.ViterbiMode;
+import main.hmm.profil.viterbi.ViterbiPath;
+import main.logger.Log;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Berechnet den Viterbi-Algorithmus als Pipeline aus drei Stufen, die als Aufgaben eines {@link ExecutorService} gleichzeitig laufen:
+ * <p>
+ * - Einlesen: eine Aufgabe fragt die Sequenzen vom Iterator ab (z.B. {@link main.fastaparser.FastaReader})
+ * <p>
+ * - Viterbi: mehrere Aufgaben berechnen die Zustands-Pfade
+ * <p>
+ * - Ausgabe: eine Aufgabe uebergibt die Ergebnisse in der Reihenfolge der Sequenzen an den {@link ResultWriter}
+ * <p>
+ * Die Stufen sind durch beschraenkte Warteschlangen verbunden. Zusaetzlich begrenzt eine Semaphore die Anzahl der Sequenzen,
+ * die eingelesen aber noch nicht ausgegeben sind (Warteschlangen, Berechnung und Puffer zum Sortieren der Ergebnisse).
+ * Ist die Grenze erreicht, wartet das Einlesen, der Speicherbedarf haengt also nicht von der Anzahl der Sequenzen ab.
+ * Der Speicherbedarf der Berechnungen wird wie bei {@link ParallelizationSupporter} gegen ein {@link ViterbiMemoryBudget} reserviert.
+ * Die Laufzeit naehert sich so dem Maximum der Laufzeiten der Stufen statt ihrer Summe.
+ * <p>
+ * Schlaegt die Berechnung einer Sequenz fehl, erhaelt der {@link ResultWriter} {@link ViterbiPath#failed(Sequence, String)}
+ * und die Pipeline laeuft weiter ({@link ViterbiWorker}).
+ * Wirft dagegen der {@link ResultWriter} eine Ausnahme, wird nichts mehr eingelesen, die bereits eingelesenen Sequenzen
+ * werden ohne Ausgabe abgearbeitet und die Ausnahme anschliessend von {@link #run} weitergeworfen.
+ * Scheitert das Einlesen, werden die Stufen abgebrochen und die Ausnahme des Iterators von {@link #run} weitergeworfen.
+ *
+ * @author Soeren Metje
+ */
+public class ViterbiPipeline {
+
+    /**
+     * Anzahl der Sequenzen je Viterbi-Thread, die gleichzeitig in der Pipeline sein duerfen
+     */
+    public static final int CAPACITY_PER_WORKER = 4;
+
+    /**
+     * Empfaenger der Ergebnisse
+     */
+    public interface ResultWriter {
+        /**
+         * Wird von der Ausgabe-Stufe fuer jedes Ergebnis in der Reihenfolge der Sequenzen aufgerufen
+         *
+         * @param index Position der Sequenz
+         * @param path  Zustands-Pfad
+         */
+        void write(int index, ViterbiPath path);
+    }
+
+    /**
+     * Element der Warteschlangen
+     */
+    private static final class Item {
+        private final int index;
+        private final Sequence sequence;
+        private final ViterbiPath path;
+
+        Item(int index, Sequence sequence, ViterbiPath path) {
+            this.index = index;
+            this.sequence = sequence;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Markiert das Ende der Sequenzen bzw. Ergebnisse
+     */
+    private static final Item END = new Item(-1, null, null);
+
+    /**
+     * Berechnet die Zustands-Pfade der Sequenzen mit so vielen Viterbi-Threads, wie logische Kerne verfuegbar sind,
+     * und Speicherbudget {@link ViterbiMemoryBudget#fromMaxMemory()}
+     *
+     * @param model     Modell
+     * @param sequences Sequenzen, werden nur von der Einlese-Stufe abgefragt
+     * @param mode      Variante des Viterbi-Algorithmus
+     * @param writer    Empfaenger der Ergebnisse
+     * @return Anzahl der berechneten Sequenzen
+     */
+    public static int run(ProfilHMM model, Iterator<? extends Sequence> sequences, ViterbiMode mode, ResultWriter writer) {
+        return run(model, sequences, mode, ViterbiMemoryBudget.fromMaxMemory(), writer);
+    }
+
+    /**
+     * Berechnet die Zustands-Pfade der Sequenzen mit so vielen Viterbi-Threads, wie logische Kerne verfuegbar sind
+     *
+     * @param model     Modell
+     * @param sequences Sequenzen, werden nur von der Einlese-Stufe abgefragt
+     * @param mode      Variante des Viterbi-Algorithmus
+     * @param budget    Speicherbudget
+     * @param writer    Empfaenger der Ergebnisse
+     * @return Anzahl der berechneten Sequenzen
+     * @throws IllegalArgumentException falls uebergebenes Budget == null
+     */
+    public static int run(ProfilHMM model, Iterator<? extends Sequence> sequences, ViterbiMode mode,
+                          ViterbiMemoryBudget budget, ResultWriter writer) throws IllegalArgumentException {
+        int workerCount = Runtime.getRuntime().availableProcessors();
+        return run(model, sequences, mode, workerCount, workerCount * CAPACITY_PER_WORKER, budget, writer);
+    }
+
+    /**
+     * Berechnet die Zustands-Pfade der Sequenzen mit Speicherbudget {@link ViterbiMemoryBudget#fromMaxMemory()}
+     *
+     * @param model       Modell
+     * @param sequences   Sequenzen, werden nur von der Einlese-Stufe abgefragt
+     * @param mode        Variante des Viterbi-Algorithmus
+     * @param workerCount Anzahl der Viterbi-Threads
+     * @param capacity    maximale Anzahl der eingelesenen, noch nicht ausgegebenen Sequenzen
+     * @param writer      Empfaenger der Ergebnisse
+     * @return Anzahl der berechneten Sequenzen
+     * @throws IllegalArgumentException falls workerCount oder capacity &lt; 1
+     */
+    public static int run(ProfilHMM model, Iterator<? extends Sequence> sequences, ViterbiMode mode,
+                          int workerCount, int capacity, ResultWriter writer) throws IllegalArgumentException {
+        return run(model, sequences, mode, workerCount, capacity, ViterbiMemoryBudget.fromMaxMemory(), writer);
+    }
+
+    /**
+     * Berechnet die Zustands-Pfade der Sequenzen.
+     * Jeder Viterbi-Thread verwirft seinen Arbeitsspeicher nach Berechnungen ueber seinem Anteil am Budget.
+     *
+     * @param model       Modell
+     * @param sequences   Sequenzen, werden nur von der Einlese-Stufe abgefragt
+     * @param mode        Variante des Viterbi-Algorithmus
+     * @param workerCount Anzahl der Viterbi-Threads
+     * @param capacity    maximale Anzahl der eingelesenen, noch nicht ausgegebenen Sequenzen
+     * @param budget      Speicherbudget, kann mit anderen Aufrufen geteilt werden
+     * @param writer      Empfaenger der Ergebnisse
+     * @return Anzahl der ausgegebenen Sequenzen
+     * @throws IllegalArgumentException falls workerCount oder capacity &lt; 1 oder uebergebenes Budget == null
+     * @throws RuntimeException         bzw. {@link Error}, falls der {@link ResultWriter} eine Ausnahme wirft
+     *                                  oder der Iterator scheitert ({@link UncheckedIOException}, {@link UncheckedFastaParserException})
+     * @throws CancellationException    falls der aufrufende Thread beim Warten unterbrochen wird (die Stufen werden abgebrochen)
+     */
+    public static int run(ProfilHMM model, Iterator<? extends Sequence> sequences, ViterbiMode mode,
+                          int workerCount, int capacity, ViterbiMemoryBudget budget, ResultWriter writer) throws IllegalArgumentException {
+        if (workerCount < 1)
+            throw new IllegalArgumentException("workerCount < 1");
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity < 1");
+        if (budget == null)
+            throw new IllegalArgumentException("budget is null");
+
+        Log.iLine("Pipeline: 1 reader, " + workerCount + " Threads running Viterbi-Algo (" + mode + "), 1 writer, capacity " + capacity);
+        Log.dLine("Memory budget = " + budget.getCapacity() + " bytes");
+
+        Semaphore inFlight = new Semaphore(capacity);
+        AtomicBoolean aborted = new AtomicBoolean(); // set by the writer stage on failure
+        BlockingQueue<Item> input = new ArrayBlockingQueue<>(capacity + workerCount); // room for the end markers
+        BlockingQueue<Item> output = new ArrayBlockingQueue<>(capacity + workerCount);
+
+        ReaderStage reader = new ReaderStage(sequences, input, inFlight, aborted, workerCount);
+        List<WorkerStage> workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(new WorkerStage(new ViterbiWorker(model, mode, null, 0, budget, budget.getCapacity() / workerCount), input, output));
+        }
+        WriterStage writerStage = new WriterStage(output, inFlight, aborted, workerCount, writer);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount + 2); // every stage blocks on its queues
+        long millis = System.currentTimeMillis();
+        List<Future<Void>> tasks = new ArrayList<>(workerCount + 2);
+        tasks.add(executor.submit(reader));
+        for (WorkerStage worker : workers) {
+            tasks.add(executor.submit(worker));
+        }
+        tasks.add(executor.submit(writerStage));
+        executor.shutdown(); // threads end with the last stage
+
+        try {
+            for (Future<Void> task : tasks) {
+                ParallelizationSupporter.await(task);
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow(); // interrupts all stages
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting for pipeline");
+        } catch (RuntimeException | Error e) { // reading the sequences failed
+            executor.shutdownNow();
+            throw e;
+        }
+        millis = System.currentTimeMillis() - millis;
+
+        long workerNanos = 0;
+        int retryCount = 0;
+        for (WorkerStage worker : workers) { // visible after Future.get
+            workerNanos += worker.busyNanos;
+            retryCount += worker.worker.getRetryCount();
+        }
+
+        Log.dLine(String.format("Pipeline stage times: reader %.3fsec, viterbi %.3fsec (per thread), writer %.3fsec, total %.3fsec",
+                reader.busyNanos / 1e9, workerNanos / 1e9 / workerCount, writerStage.busyNanos / 1e9, millis / 1e3));
+        if (writerStage.error != null) {
+            Log.eLine("ERROR: pipeline aborted after " + writerStage.count + " results: " + writerStage.error);
+            if (writerStage.error instanceof Error)
+                throw (Error) writerStage.error;
+            throw (RuntimeException) writerStage.error;
+        }
+        ViterbiWorker.logSummary(writerStage.count, writerStage.failed, retryCount);
+        return writerStage.count;
+    }
+
+    /**
+     * Einlese-Stufe
+     */
+    private static class ReaderStage implements Callable<Void> {
+        private final Iterator<? extends Sequence> sequences;
+        private final BlockingQueue<Item> input;
+        private final Semaphore inFlight;
+        private final AtomicBoolean aborted;
+        private final int workerCount;
+        private long busyNanos;
+
+        ReaderStage(Iterator<? extends Sequence> sequences, BlockingQueue<Item> input, Semaphore inFlight, AtomicBoolean aborted,
+                    int workerCount) {
+            this.sequences = sequences;
+            this.input = input;
+            this.inFlight = inFlight;
+            this.aborted = aborted;
+            this.workerCount = workerCount;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            int index = 0;
+            try {
+                while (true) {
+                    inFlight.acquire();
+                    if (aborted.get())
+                        break;
+
+                    long nanos = System.nanoTime();
+                    Sequence sequence = sequences.hasNext() ? sequences.next() : null; // failures end the pipeline
+                    busyNanos += System.nanoTime() - nanos;
+
+                    if (sequence == null)
+                        break;
+                    input.put(new Item(index++, sequence, null));
+                }
+            } finally {
+                for (int i = 0; i < workerCount; i++) { // also after a failure, so that the workers end
+                    input.put(END);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Viterbi-Stufe
+     */
+    private static class WorkerStage implements Callable<Void> {
+        private final ViterbiWorker worker;
+        private final BlockingQueue<Item> input;
+        private final BlockingQueue<Item> output;
+        private long busyNanos;
+
+        WorkerStage(ViterbiWorker worker, BlockingQueue<Item> input, BlockingQueue<Item> output) {
+            this.worker = worker;
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            Item item;
+            while ((item = input.take()) != END) {
+                long nanos = System.nanoTime();
+                ViterbiPath path = worker.calculate(item.sequence); // failures are returned as failed paths
+                busyNanos += System.nanoTime() - nanos;
+                output.put(new Item(item.index, null, path));
+            }
+            output.put(END);
+            return null;
+        }
+    }
+
+    /**
+     * Ausgabe-Stufe, sortiert die Ergebnisse in die Reihenfolge der Sequenzen
+     */
+    private static class WriterStage implements Callable<Void> {
+        private final BlockingQueue<Item> output;
+        private final Semaphore inFlight;
+        private final AtomicBoolean aborted;
+        private final int workerCount;
+        private final ResultWriter writer;
+        private final Map<Integer, ViterbiPath> reorderBuffer = new HashMap<>();
+        private final List<ViterbiPath> failed = new ArrayList<>();
+        private int count;
+        private long busyNanos;
+
+        /**
+         * Ausnahme des {@link ResultWriter} oder null
+         */
+        private Throwable error;
+
+        WriterStage(BlockingQueue<Item> output, Semaphore inFlight, AtomicBoolean aborted, int workerCount, ResultWriter writer) {
+            this.output = output;
+            this.inFlight = inFlight;
+            this.aborted = aborted;
+            this.workerCount = workerCount;
+            this.writer = writer;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            int finishedWorkers = 0;
+            while (finishedWorkers < workerCount) {
+                Item item = output.take();
+                if (item == END) {
+                    finishedWorkers++;
+                    continue;
+                }
+
+                if (error != null) { // drain remaining results, reader stops after the next permit
+                    inFlight.release();
+                    continue;
+                }
+
+                long nanos = System.nanoTime();
+                reorderBuffer.put(item.index, item.path);
+                ViterbiPath path;
+                while ((path = reorderBuffer.remove(count)) != null) {
+                    try {
+                        writer.write(count, path);
+                    } catch (RuntimeException | Error e) {
+                        error = e;
+                        aborted.set(true);
+                        inFlight.release(reorderBuffer.size() + 1); // this result and all buffered ones
+                        reorderBuffer.clear();
+                        break;
+                    }
+                    if (path.isFailed())
+                        failed.add(path);
+                    count++;
+                    inFlight.release();
+                }
+                busyNanos += System.nanoTime() - nanos;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package main.hmm.profil.viterbi.parallel;
+
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+import main.hmm.profil.viterbi.ViterbiMode;
+import main.hmm.profil.viterbi.ViterbiPath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Zustand eines Aufrufs von {@link ParallelizationSupporter}, wird von dessen Aufgaben gemeinsam verwendet.
+ * <p>
+ * Liegen die Sequenzen als Liste vor, werden sie in der Reihenfolge einer {@link ViterbiSchedule} ohne Sperre
+ * ueber einen {@link AtomicInteger} verteilt. Dazu werden die Sequenzen vorab in Bloecke mit aehnlichen Kosten
+ * ({@link ViterbiSchedule#cost(ProfilHMM, Sequence)}) eingeteilt: lange Sequenzen bilden einen eigenen Block,
+ * viele kurze Sequenzen werden zusammengefasst. Die Ergebnisse werden in ein Feld an die Position der Sequenz geschrieben.
+ * Liegen die Sequenzen als Iterator vor (z.B. {@link main.fastaparser.FastaReader}), wird der Iterator unter der Sperre
+ * dieses Aufrufs abgefragt. Da aller Zustand zum Aufruf gehoert, koennen mehrere Aufrufe gleichzeitig laufen.
+ *
+ * @author Soeren Metje
+ */
+final class ViterbiRun {
+
+    /**
+     * maximale Anzahl der Sequenzen, die ein Thread auf einmal beansprucht
+     */
+    static final int MAX_CLAIM = 64;
+
+    /**
+     * angestrebte Anzahl der Bloecke je Thread, wenn die Sequenzen als Liste vorliegen (bestimmt die Kosten eines Blocks)
+     */
+    private static final int CLAIMS_PER_THREAD = 16;
+
+    /**
+     * Anzahl der Sequenzen, die ein Thread auf einmal vom Iterator abfragt
+     */
+    private static final int STREAM_CLAIM = 4;
+
+    /**
+     * Block beanspruchter Sequenzen eines Threads
+     */
+    static final class Batch {
+        /**
+         * Positionen der Sequenzen
+         */
+        final int[] indices = new int[MAX_CLAIM];
+
+        /**
+         * Anzahl der Sequenzen
+         */
+        int count;
+
+        /**
+         * Sequenzen
+         */
+        final Sequence[] sequences = new Sequence[MAX_CLAIM];
+    }
+
+    /**
+     * Modell
+     */
+    final ProfilHMM model;
+
+    /**
+     * Variante des Viterbi-Algorithmus
+     */
+    final ViterbiMode mode;
+
+    /**
+     * Pool fuer die Parallelisierung innerhalb einer Sequenz oder null
+     */
+    final ForkJoinPool wavefrontPool;
+
+    /**
+     * Anzahl der Zellen, ab der eine Sequenz im wavefrontPool berechnet wird
+     */
+    final long wavefrontCellThreshold;
+
+    /**
+     * Speicherbudget, gegen das jede Berechnung reserviert wird
+     */
+    final ViterbiMemoryBudget budget;
+
+    /**
+     * Reservierung, ab der ein Thread seinen Arbeitsspeicher nach der Berechnung verwirft ({@link ViterbiWorker}),
+     * damit wiederverwendete Puffer nicht dauerhaft mehr als seinen Anteil am Budget belegen
+     */
+    final long retainLimit;
+
+    /**
+     * Monitor, um die Ausgabe der Threads dieses Aufrufs zu synchronisieren
+     */
+    final Object outputMonitor = new Object();
+
+    /**
+     * Sequenzen als Feld oder null, falls sie als Iterator vorliegen
+     */
+    private final Sequence[] sequences;
+
+    /**
+     * Ergebnisse zu {@link #sequences}, jede Position wird von genau einem Thread geschrieben
+     */
+    private final ViterbiPath[] results;
+
+    /**
+     * Positionen der Sequenzen in der Reihenfolge der Verteilung
+     */
+    private final int[] order;
+
+    /**
+     * Ende (exklusiv) jedes Blocks in {@link #order}
+     */
+    private final int[] blockEnds;
+
+    /**
+     * naechster noch nicht beanspruchter Block
+     */
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    /**
+     * Sequenzen als Iterator oder null, wird unter {@link #sourceMonitor} abgefragt
+     */
+    private final Iterator<? extends Sequence> source;
+
+    /**
+     * Ergebnisse zu {@link #source}, wird unter {@link #sourceMonitor} veraendert
+     */
+    private final List<ViterbiPath> streamedResults;
+
+    /**
+     * Monitor fuer {@link #source} und {@link #streamedResults}
+     */
+    private final Object sourceMonitor = new Object();
+
+    /**
+     * true, nachdem der Iterator eine Ausnahme geworfen hat, wird unter {@link #sourceMonitor} veraendert
+     */
+    private boolean sourceFailed;
+
+    /**
+     * Konstruktor fuer Sequenzen als Liste
+     *
+     * @param model                  Modell
+     * @param mode                   Variante des Viterbi-Algorithmus
+     * @param wavefrontPool          Pool fuer die Parallelisierung innerhalb einer Sequenz oder null
+     * @param wavefrontCellThreshold Anzahl der Zellen, ab der eine Sequenz im wavefrontPool berechnet wird
+     * @param budget                 Speicherbudget
+     * @param threadCount            Anzahl der Threads
+     * @param sequences              Sequenzen
+     * @param schedule               Reihenfolge der Verteilung
+     */
+    ViterbiRun(ProfilHMM model, ViterbiMode mode, ForkJoinPool wavefrontPool, long wavefrontCellThreshold,
+               ViterbiMemoryBudget budget, int threadCount, List<? extends Sequence> sequences, ViterbiSchedule schedule) {
+        this.model = model;
+        this.mode = mode;
+        this.wavefrontPool = wavefrontPool;
+        this.wavefrontCellThreshold = wavefrontCellThreshold;
+        this.budget = budget;
+        this.retainLimit = budget.getCapacity() / Math.max(1, threadCount);
+        this.sequences = sequences.toArray(new Sequence[0]);
+        this.results = new ViterbiPath[this.sequences.length];
+        long[] costs = new long[this.sequences.length];
+        long totalCost = 0;
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = ViterbiSchedule.cost(model, this.sequences[i]);
+            totalCost += costs[i];
+        }
+        this.order = schedule.order(costs);
+        this.blockEnds = blocks(order, costs, Math.max(1, totalCost / ((long) Math.max(1, threadCount) * CLAIMS_PER_THREAD)));
+        this.source = null;
+        this.streamedResults = null;
+    }
+
+    /**
+     * Konstruktor fuer Sequenzen als Iterator
+     *
+     * @param model                  Modell
+     * @param mode                   Variante des Viterbi-Algorithmus
+     * @param wavefrontPool          Pool fuer die Parallelisierung innerhalb einer Sequenz oder null
+     * @param wavefrontCellThreshold Anzahl der Zellen, ab der eine Sequenz im wavefrontPool berechnet wird
+     * @param budget                 Speicherbudget
+     * @param threadCount            Anzahl der Threads
+     * @param sequences              Sequenzen
+     */
+    ViterbiRun(ProfilHMM model, ViterbiMode mode, ForkJoinPool wavefrontPool, long wavefrontCellThreshold,
+               ViterbiMemoryBudget budget, int threadCount, Iterator<? extends Sequence> sequences) {
+        this.model = model;
+        this.mode = mode;
+        this.wavefrontPool = wavefrontPool;
+        this.wavefrontCellThreshold = wavefrontCellThreshold;
+        this.budget = budget;
+        this.retainLimit = budget.getCapacity() / Math.max(1, threadCount);
+        this.sequences = null;
+        this.results = null;
+        this.order = null;
+        this.blockEnds = null;
+        this.source = sequences;
+        this.streamedResults = new ArrayList<>();
+    }
+
+    /**
+     * Teilt die Sequenzen in der Reihenfolge order in Bloecke ein.
+     * Ein Block endet, sobald die naechste Sequenz die Kosten ueber blockCost heben wuerde oder er {@link #MAX_CLAIM} Sequenzen enthaelt,
+     * jeder Block enthaelt aber mindestens eine Sequenz.
+     *
+     * @param order     Positionen der Sequenzen in der Reihenfolge der Verteilung
+     * @param costs     Kosten je Sequenz
+     * @param blockCost angestrebte Kosten eines Blocks
+     * @return Ende (exklusiv) jedes Blocks in order
+     */
+    private static int[] blocks(final int[] order, final long[] costs, final long blockCost) {
+        int[] ret = new int[order.length];
+        int blockCount = 0;
+        int count = 0;
+        long cost = 0;
+        for (int k = 0; k < order.length; k++) {
+            long c = costs[order[k]];
+            if (count > 0 && (count == MAX_CLAIM || cost + c > blockCost)) {
+                ret[blockCount++] = k;
+                count = 0;
+                cost = 0;
+            }
+            count++;
+            cost += c;
+        }
+        if (count > 0)
+            ret[blockCount++] = order.length;
+        return Arrays.copyOf(ret, blockCount);
+    }
+
+    /**
+     * Beansprucht den naechsten Block von Sequenzen
+     *
+     * @param batch Block, wird ueberschrieben
+     * @return false, falls keine Sequenzen mehr vorhanden sind oder der Iterator bereits gescheitert ist
+     * @throws java.io.UncheckedIOException                     falls der Iterator beim Einlesen scheitert
+     * @throws main.fastaparser.UncheckedFastaParserException falls der Iterator beim Parsen scheitert
+     */
+    boolean claim(final Batch batch) {
+        if (sequences != null) {
+            int block = cursor.getAndIncrement();
+            if (block >= blockEnds.length)
+                return false;
+            int start = block == 0 ? 0 : blockEnds[block - 1];
+            batch.count = blockEnds[block] - start;
+            for (int i = 0; i < batch.count; i++) {
+                int index = order[start + i];
+                batch.indices[i] = index;
+                batch.sequences[i] = sequences[index];
+            }
+            return true;
+        }
+
+        synchronized (sourceMonitor) {
+            batch.count = 0;
+            if (sourceFailed)
+                return false;
+            try {
+                while (batch.count < STREAM_CLAIM && source.hasNext()) {
+                    batch.indices[batch.count] = streamedResults.size();
+                    batch.sequences[batch.count++] = source.next();
+                    streamedResults.add(null); // placeholder, set after calculation
+                }
+            } catch (RuntimeException e) {
+                sourceFailed = true; // the other tasks stop claiming
+                throw e;
+            }
+        }
+        return batch.count > 0;
+    }
+
+    /**
+     * Speichert das Ergebnis der Sequenz an Position index
+     *
+     * @param index Position der Sequenz
+     * @param path  Zustands-Pfad
+     */
+    void complete(final int index, final ViterbiPath path) {
+        if (results != null) {
+            results[index] = path; // each index is written by exactly one task, published by Future.get
+            return;
+        }
+        synchronized (sourceMonitor) {
+            streamedResults.set(index, path);
+        }
+    }
+
+    /**
+     * Liefert die Ergebnisse in der Reihenfolge der Sequenzen zurueck. Erst nach Ende aller Aufgaben aufrufen.
+     *
+     * @return Liste mit den Zustands-Pfaden
+     */
+    List<ViterbiPath> results() {
+        if (results != null)
+            return new ArrayList<>(Arrays.asList(results));
+        return streamedResults;
+    }
+}
@@ -0,0 +1,121 @@
+package main.hmm.profil.viterbi.parallel;
+
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Auswaehlbare Reihenfolgen, in der {@link ParallelizationSupporter} die Sequenzen einer Liste an die Threads verteilt.
+ * Die Ergebnisse werden unabhaengig von der Reihenfolge in der Reihenfolge der Sequenzen zurueck geliefert.
+ *
+ * @author Soeren Metje
+ */
+public enum ViterbiSchedule {
+    /**
+     * Reihenfolge der Sequenzen
+     */
+    INPUT_ORDER("input") {
+        @Override
+        public int[] order(long[] costs) {
+            int[] ret = new int[costs.length];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = i;
+            }
+            return ret;
+        }
+    },
+    /**
+     * Absteigend nach Kosten (Longest Processing Time first).
+     * Lange Sequenzen werden zuerst berechnet, die kurzen fuellen am Ende die Luecken der Threads.
+     * Damit wartet nicht ein Thread auf eine lange Sequenz am Ende der Liste, waehrend alle anderen Threads nichts zu tun haben.
+     */
+    LONGEST_FIRST("lpt") {
+        @Override
+        public int[] order(final long[] costs) {
+            Integer[] indices = new Integer[costs.length];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = i;
+            }
+            Arrays.sort(indices, new Comparator<Integer>() { // stable, equal costs stay in input order
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(costs[b], costs[a]);
+                }
+            });
+            int[] ret = new int[indices.length];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = indices[i];
+            }
+            return ret;
+        }
+    };
+
+    /**
+     * Bezeichnung der Reihenfolge, wie sie als Argument uebergeben wird
+     */
+    private final String name;
+
+    /**
+     * Konstruktor
+     *
+     * @param name Bezeichnung der Reihenfolge
+     */
+    ViterbiSchedule(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Liefert die geschaetzten Kosten der Sequenz zurueck (Anzahl der Zellen der Viterbi-Matrix: Laenge der Sequenz * Laenge des Modells)
+     *
+     * @param model    Modell
+     * @param sequence Sequenz
+     * @return Kosten
+     */
+    public static long cost(ProfilHMM model, Sequence sequence) {
+        return (long) sequence.length() * model.getLengthModel();
+    }
+
+    /**
+     * Liefert die Positionen der Sequenzen in der Reihenfolge der Verteilung zurueck
+     *
+     * @param costs Kosten je Sequenz ({@link #cost(ProfilHMM, Sequence)})
+     * @return Positionen der Sequenzen
+     */
+    public abstract int[] order(long[] costs);
+
+    /**
+     * Liefert Bezeichnung der Reihenfolge zurueck
+     *
+     * @return Bezeichnung
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Liefert die Reihenfolge zur uebergebenen Bezeichnung zurueck
+     *
+     * @param name Bezeichnung
+     * @return Reihenfolge
+     * @throws IllegalArgumentException falls keine Reihenfolge mit der Bezeichnung existiert
+     */
+    public static ViterbiSchedule fromName(String name) throws IllegalArgumentException {
+        for (ViterbiSchedule schedule : values()) {
+            if (schedule.name.equals(name))
+                return schedule;
+        }
+        throw new IllegalArgumentException("Viterbi schedule " + name + " not found");
+    }
+
+    /**
+     * gibt string-representation zurueck
+     *
+     * @return string-representation
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
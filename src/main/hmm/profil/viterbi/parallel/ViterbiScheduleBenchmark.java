@@ -0,0 +1,183 @@
+package main.hmm.profil.viterbi.parallel;
+
+import main.argparser.*;
+import main.fastaparser.FastaParser;
+import main.fastaparser.FastaParserException;
+import main.fastaparser.Sequence;
+import main.hmm.profil.RNAProfilHMM;
+import main.hmm.profil.viterbi.ViterbiMode;
+import main.hmm.profil.viterbi.ViterbiWorkspace;
+import main.logger.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ausfuehrbare Klasse zum Vergleich der Reihenfolgen {@link ViterbiSchedule} bei ungleich langen Sequenzen.
+ * Bekommt wie {@link main.hmm.profil.RNAProfilHMMMain} die Trainings-Sequenzen (-filetrain <Path>) und Test-Sequenzen (-filetest <Path>) uebergeben.
+ * Optional koennen die Variante des Viterbi-Algorithmus (-viterbi <Name>), die Anzahl der Wiederholungen (-repeat <Anzahl>),
+ * die Laenge der langen Sequenz als Vielfaches der mittleren Laenge (-skew <Faktor>)
+ * und die Anzahl der Threads fuer die Simulation (-threads <Anzahl>) uebergeben werden.
+ * <p>
+ * An das Ende der Test-Sequenzen wird eine lange Sequenz angehaengt (der unguenstigste Fall fuer die Reihenfolge der Datei).
+ * Fuer jede Reihenfolge wird die Laufzeit von {@link ParallelizationSupporter} gemessen.
+ * Zusaetzlich wird mit den einzeln gemessenen Laufzeiten der Sequenzen simuliert, wann die Threads fertig werden:
+ * ausgegeben werden die Gesamtlaufzeit und die Zeit, in der nur noch ein Teil der Threads rechnet (Tail).
+ * Die Simulation zeigt den Effekt auch auf Rechnern mit wenigen Kernen.
+ *
+ * @author Soeren Metje
+ */
+public class ViterbiScheduleBenchmark {
+
+    /**
+     * Standard-Anzahl der Wiederholungen
+     */
+    private static final int DEFAULT_REPEAT = 5;
+
+    /**
+     * Standard-Laenge der langen Sequenz als Vielfaches der mittleren Laenge
+     */
+    private static final int DEFAULT_SKEW = 25;
+
+    /**
+     * Ausfuehrbare Methode
+     *
+     * @param args Argumente
+     */
+    public static void main(String[] args) {
+        ParameterSet parameterSet = new ParameterSet();
+        Setting paramFileTrain = new Setting("filetrain", true);
+        Setting paramFileTest = new Setting("filetest", true);
+        Setting paramViterbi = new Setting("viterbi", false);
+        Setting paramRepeat = new Setting("repeat", false);
+        Setting paramSkew = new Setting("skew", false);
+        Setting paramThreads = new Setting("threads", false);
+        parameterSet.addSetting(paramFileTrain);
+        parameterSet.addSetting(paramFileTest);
+        parameterSet.addSetting(paramViterbi);
+        parameterSet.addSetting(paramRepeat);
+        parameterSet.addSetting(paramSkew);
+        parameterSet.addSetting(paramThreads);
+
+        ViterbiMode mode = ViterbiMode.FULL;
+        int repeat = DEFAULT_REPEAT;
+        int skew = DEFAULT_SKEW;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        List<Sequence> sequences = null;
+        RNAProfilHMM model = null;
+        try {
+            ArgumentParser parser = new ArgumentParser(parameterSet);
+            parser.parseArgs(args);
+            if (paramViterbi.isSet())
+                mode = ViterbiMode.fromName(paramViterbi.getValue());
+            if (paramRepeat.isSet())
+                repeat = Integer.parseInt(paramRepeat.getValue());
+            if (paramSkew.isSet())
+                skew = Integer.parseInt(paramSkew.getValue());
+            if (paramThreads.isSet())
+                threadCount = Integer.parseInt(paramThreads.getValue());
+            if (repeat < 1 || skew < 1 || threadCount < 1)
+                throw new IllegalArgumentException("repeat, skew and threads have to be positive");
+            model = new RNAProfilHMM(FastaParser.parseFile(paramFileTrain.getValue()));
+            sequences = skewed(FastaParser.parseFile(paramFileTest.getValue()), skew);
+        } catch (ArgumentParserException | FastaParserException | IllegalArgumentException | IOException e) {
+            Log.eLine("ERROR: " + e.getMessage());
+            System.exit(1);
+        }
+
+        Sequence longest = sequences.get(sequences.size() - 1);
+        Log.iLine(String.format("Benchmark Schedule (%s): %d sequences, longest %d nt (last), model length %d, %d repetitions",
+                mode, sequences.size(), longest.length(), model.getLengthModel(), repeat));
+
+        // single-threaded time of each sequence (second pass, first pass is warm up)
+        long[] nanos = new long[sequences.size()];
+        ViterbiWorkspace workspace = new ViterbiWorkspace();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < nanos.length; i++) {
+                long start = System.nanoTime();
+                mode.viterbi(model, sequences.get(i), workspace);
+                nanos[i] = System.nanoTime() - start;
+            }
+        }
+
+        long[] costs = new long[sequences.size()];
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = ViterbiSchedule.cost(model, sequences.get(i));
+        }
+
+        for (ViterbiSchedule schedule : ViterbiSchedule.values()) {
+            long[] simulated = simulate(schedule.order(costs), nanos, threadCount);
+
+            Log.setPrintInfo(false); // per-sequence output of the Viterbi tasks
+            ParallelizationSupporter.viterbiParallelized(model, sequences, mode, schedule); // warm up
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < repeat; r++) {
+                long start = System.nanoTime();
+                ParallelizationSupporter.viterbiParallelized(model, sequences, mode, schedule);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            Log.setPrintInfo(true);
+
+            Log.iLine(String.format("%-6s measured %8.3f sec (%d cores), simulated %d threads: %8.3f sec, tail %8.3f sec",
+                    schedule, best / 1e9, Runtime.getRuntime().availableProcessors(), threadCount,
+                    simulated[0] / 1e9, simulated[1] / 1e9));
+        }
+    }
+
+    /**
+     * Liefert die Test-Sequenzen mit einer angehaengten langen Sequenz zurueck
+     *
+     * @param sequences Test-Sequenzen
+     * @param skew      Laenge der langen Sequenz als Vielfaches der mittleren Laenge
+     * @return Sequenzen
+     * @throws IllegalArgumentException falls keine Test-Sequenzen vorhanden oder alle leer sind
+     */
+    private static List<Sequence> skewed(final List<Sequence> sequences, final int skew) throws IllegalArgumentException {
+        long totalLength = 0;
+        for (Sequence sequence : sequences) {
+            totalLength += sequence.length();
+        }
+        if (totalLength == 0)
+            throw new IllegalArgumentException("no test sequences");
+        long length = Math.max(1, totalLength / sequences.size()) * skew;
+
+        StringBuilder nucleotides = new StringBuilder();
+        for (int i = 0; nucleotides.length() < length; i = (i + 1) % sequences.size()) {
+            nucleotides.append(sequences.get(i).getNucleotideSequence());
+        }
+        nucleotides.setLength((int) length);
+
+        List<Sequence> ret = new ArrayList<>(sequences);
+        ret.add(new Sequence("skewed", "", nucleotides.toString()));
+        return ret;
+    }
+
+    /**
+     * Simuliert die Verteilung der Sequenzen in der Reihenfolge order auf threadCount Threads.
+     * Jede Sequenz wird dem Thread zugeteilt, der als erster frei wird.
+     *
+     * @param order       Positionen der Sequenzen in der Reihenfolge der Verteilung
+     * @param nanos       Laufzeit je Sequenz
+     * @param threadCount Anzahl der Threads
+     * @return Gesamtlaufzeit und Tail (Zeit vom ersten bis zum letzten Thread, der fertig wird)
+     */
+    private static long[] simulate(final int[] order, final long[] nanos, final int threadCount) {
+        long[] finish = new long[threadCount];
+        for (int index : order) {
+            int earliest = 0;
+            for (int t = 1; t < threadCount; t++) {
+                if (finish[t] < finish[earliest])
+                    earliest = t;
+            }
+            finish[earliest] += nanos[index];
+        }
+        long first = Long.MAX_VALUE;
+        long last = 0;
+        for (long f : finish) {
+            first = Math.min(first, f);
+            last = Math.max(last, f);
+        }
+        return new long[]{last, last - first};
+    }
+}
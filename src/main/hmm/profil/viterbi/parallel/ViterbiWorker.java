@@ -0,0 +1,222 @@
+package main.hmm.profil.viterbi.parallel;
+
+import main.fastaparser.Sequence;
+import main.hmm.profil.ProfilHMM;
+import main.hmm.profil.viterbi.ViterbiMode;
+import main.hmm.profil.viterbi.ViterbiPath;
+import main.hmm.profil.viterbi.ViterbiWavefront;
+import main.hmm.profil.viterbi.ViterbiWorkspace;
+import main.logger.Log;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Berechnet die Zustands-Pfade fuer einen Thread von {@link ParallelizationSupporter} oder {@link ViterbiPipeline}.
+ * <p>
+ * Fehler einer Sequenz (ungueltiges Zeichen, OutOfMemoryError) beenden nicht das Programm, sondern liefern ein
+ * Ergebnis {@link ViterbiPath#failed(Sequence, String)}, die uebrigen Sequenzen werden weiter berechnet.
+ * Nach einem OutOfMemoryError wird der Arbeitsspeicher verworfen und die Sequenz einmal mit {@link ViterbiMode#CHECKPOINT} wiederholt,
+ * falls die Variante das gleiche Ergebnis liefert.
+ * <p>
+ * Mit {@link #calculate(ProfilHMM, Sequence)} kann derselbe Worker (und damit dieselbe kodierte Sequenz im Arbeitsspeicher)
+ * fuer mehrere Modelle verwendet werden ({@link ViterbiPanel}).
+ * <p>
+ * Nicht threadsicher: Jeder Thread verwendet einen eigenen Worker.
+ *
+ * @author Soeren Metje
+ */
+final class ViterbiWorker {
+
+    /**
+     * Modell von {@link #calculate(Sequence)}
+     */
+    private final ProfilHMM model;
+
+    /**
+     * Variante des Viterbi-Algorithmus
+     */
+    private final ViterbiMode mode;
+
+    /**
+     * Pool fuer die Parallelisierung innerhalb einer Sequenz oder null
+     */
+    private final ForkJoinPool wavefrontPool;
+
+    /**
+     * Anzahl der Zellen, ab der eine Sequenz im wavefrontPool berechnet wird
+     */
+    private final long wavefrontCellThreshold;
+
+    /**
+     * Speicherbudget oder null
+     */
+    private final ViterbiMemoryBudget budget;
+
+    /**
+     * Reservierung, ab der der Arbeitsspeicher nach der Berechnung verworfen wird
+     */
+    private final long retainLimit;
+
+    /**
+     * Arbeitsspeicher, wird fuer alle Sequenzen wiederverwendet (ausser nach einer Berechnung ueber {@link #retainLimit})
+     */
+    private ViterbiWorkspace workspace = new ViterbiWorkspace();
+
+    /**
+     * Anzahl der nach einem OutOfMemoryError wiederholten Sequenzen
+     */
+    private int retryCount;
+
+    /**
+     * Konstruktor
+     *
+     * @param model                  Modell von {@link #calculate(Sequence)}
+     * @param mode                   Variante des Viterbi-Algorithmus
+     * @param wavefrontPool          Pool fuer die Parallelisierung innerhalb einer Sequenz oder null
+     * @param wavefrontCellThreshold Anzahl der Zellen, ab der eine Sequenz im wavefrontPool berechnet wird
+     * @param budget                 Speicherbudget oder null
+     * @param retainLimit            Reservierung, ab der der Arbeitsspeicher nach der Berechnung verworfen wird
+     */
+    ViterbiWorker(ProfilHMM model, ViterbiMode mode, ForkJoinPool wavefrontPool, long wavefrontCellThreshold,
+                  ViterbiMemoryBudget budget, long retainLimit) {
+        this.model = model;
+        this.mode = mode;
+        this.wavefrontPool = wavefrontPool;
+        this.wavefrontCellThreshold = wavefrontCellThreshold;
+        this.budget = budget;
+        this.retainLimit = retainLimit;
+    }
+
+    /**
+     * Berechnet den Zustands-Pfad der Sequenz.
+     * Der geschaetzte Speicherbedarf wird vorher gegen das Budget reserviert ({@link ViterbiMemoryBudget}).
+     * Uebersteigt er das gesamte Budget, wird die Sequenz mit {@link ViterbiMode#CHECKPOINT} berechnet, falls das weniger Speicher benoetigt.
+     *
+     * @param sequence Sequenz
+     * @return Zustands-Pfad oder {@link ViterbiPath#failed(Sequence, String)}
+     */
+    ViterbiPath calculate(final Sequence sequence) {
+        return calculate(model, sequence);
+    }
+
+    /**
+     * Berechnet den Zustands-Pfad der Sequenz mit dem uebergebenen Modell, sonst wie {@link #calculate(Sequence)}
+     *
+     * @param model    Modell
+     * @param sequence Sequenz
+     * @return Zustands-Pfad oder {@link ViterbiPath#failed(Sequence, String)}
+     */
+    ViterbiPath calculate(final ProfilHMM model, final Sequence sequence) {
+        long cellCount = (long) (sequence.length() + 1) * model.getLengthModel();
+        ViterbiMode used = wavefrontPool != null && cellCount > wavefrontCellThreshold ? ViterbiMode.WAVEFRONT : mode;
+        if (budget != null)
+            used = budget.route(model, sequence.length(), used, sequence.getDescription());
+
+        long reserved = 0;
+        try {
+            if (budget != null)
+                reserved = budget.acquire(used.estimateBytes(model, sequence.length()));
+            return viterbi(model, sequence, used);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fail(sequence, "interrupted");
+        } catch (IllegalArgumentException e) {
+            return fail(sequence, e.getMessage());
+        } catch (OutOfMemoryError e) {
+            workspace = new ViterbiWorkspace(); // release buffers before anything else
+            if (used == ViterbiMode.CHECKPOINT || !ViterbiMemoryBudget.isRoutable(used))
+                return fail(sequence, "out of memory with " + used);
+        } finally {
+            if (budget != null)
+                budget.release(reserved);
+            if (reserved > retainLimit)
+                workspace = new ViterbiWorkspace(); // do not keep buffers of an oversized sequence
+        }
+        return retry(model, sequence, used); // after the reservation of the failed mode is released
+    }
+
+    /**
+     * Berechnet die Sequenz nach einem OutOfMemoryError erneut mit {@link ViterbiMode#CHECKPOINT} im Arbeitsspeicher dieses Workers.
+     * Der Speicherbedarf wird wie bei der ersten Berechnung vorher gegen das Budget reserviert.
+     *
+     * @param model    Modell
+     * @param sequence Sequenz
+     * @param used     fehlgeschlagene Variante
+     * @return Zustands-Pfad oder {@link ViterbiPath#failed(Sequence, String)}
+     */
+    private ViterbiPath retry(final ProfilHMM model, final Sequence sequence, final ViterbiMode used) {
+        retryCount++;
+        Log.eLine("WARNING: Out of Memory for " + sequence.getDescription() + " with " + used + ", retry with " + ViterbiMode.CHECKPOINT);
+        long reserved = 0;
+        try {
+            if (budget != null)
+                reserved = budget.acquire(ViterbiMode.CHECKPOINT.estimateBytes(model, sequence.length()));
+            return ViterbiMode.CHECKPOINT.viterbi(model, sequence, workspace);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fail(sequence, "interrupted");
+        } catch (IllegalArgumentException e) {
+            return fail(sequence, e.getMessage());
+        } catch (OutOfMemoryError e) {
+            workspace = new ViterbiWorkspace();
+            return fail(sequence, "out of memory with " + used + " and " + ViterbiMode.CHECKPOINT);
+        } finally {
+            if (budget != null)
+                budget.release(reserved);
+            if (reserved > retainLimit)
+                workspace = new ViterbiWorkspace(); // do not keep buffers of an oversized sequence
+        }
+    }
+
+    /**
+     * Fuehrt die Variante aus
+     *
+     * @param model    Modell
+     * @param sequence Sequenz
+     * @param used     Variante
+     * @return Zustands-Pfad
+     * @throws IllegalArgumentException falls Beobachtung nicht im Modell gefunden wird
+     */
+    private ViterbiPath viterbi(final ProfilHMM model, final Sequence sequence, final ViterbiMode used) throws IllegalArgumentException {
+        if (used == ViterbiMode.WAVEFRONT && wavefrontPool != null)
+            return ViterbiWavefront.viterbi(model, sequence, wavefrontPool);
+        return used.viterbi(model, sequence, workspace);
+    }
+
+    /**
+     * Liefert ein fehlgeschlagenes Ergebnis zurueck und gibt den Fehler aus
+     *
+     * @param sequence Sequenz
+     * @param error    Grund
+     * @return fehlgeschlagenes Ergebnis
+     */
+    private static ViterbiPath fail(final Sequence sequence, final String error) {
+        Log.eLine("ERROR: Viterbi RNAProfilHMM failed for " + sequence.getDescription() + "! " + error);
+        return ViterbiPath.failed(sequence, error);
+    }
+
+    /**
+     * Liefert die Anzahl der nach einem OutOfMemoryError wiederholten Sequenzen zurueck
+     *
+     * @return Anzahl der Wiederholungen
+     */
+    int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Gibt eine Zusammenfassung aus: Anzahl der Sequenzen, Wiederholungen und fehlgeschlagene Sequenzen mit Grund
+     *
+     * @param count      Anzahl der Sequenzen
+     * @param failed     fehlgeschlagene Ergebnisse
+     * @param retryCount Anzahl der nach einem OutOfMemoryError wiederholten Sequenzen
+     */
+    static void logSummary(final int count, final List<ViterbiPath> failed, final int retryCount) {
+        Log.iLine(String.format("Viterbi finished: %d sequences, %d failed, %d retried with %s",
+                count, failed.size(), retryCount, ViterbiMode.CHECKPOINT));
+        for (ViterbiPath path : failed) {
+            Log.eLine("FAILED: " + path.getSequence().getDescription() + ": " + path.getError());
+        }
+    }
+}
@@ -52,6 +52,15 @@ public class Log {
         return printDebug;
     }
 
+    /**
+     * setzt Info-Ausgabe
+     *
+     * @param printInfo true = infos werden ausgegeben. false = infos werden nicht ausgegeben
+     */
+    public synchronized static void setPrintInfo(boolean printInfo) {
+        Log.printInfo = printInfo;
+    }
+
     public synchronized static void e(String text) {
         if (printError)
             System.err.print(text);